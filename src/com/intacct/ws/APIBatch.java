@@ -0,0 +1,279 @@
+package com.intacct.ws;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.intacct.ws.APISession.SESSION_OPER_TYPE;
+import com.intacct.ws.exception.IntacctSDKRuntimeException;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Multi function request: the operations queued on the batch are sent together, each one in its own
+ * <function controlid="fN"> element of a single <content>, and the <result> elements of the response are
+ * matched back to the operations by their controlid.
+ *
+ * Every operation returns a future completed by execute(), with the same JSON object the session service
+ * returns in the JSON format (whatever the format of the session), or completed exceptionally with the
+ * IntacctSDKRuntimeException of its failed result, with the details the services throw (OVERALL_STATUS,
+ * CORRECT_RECORDS, ERROR: [ {ERROR_MESSAGE}, {ERROR_RECORD} ]); a failed function does not fail the other ones.
+ * A function with any status other than success is failed: with a transaction (getTRXJSONInstance) the
+ * functions of a request that has a failed one come back aborted, rolled back.
+ * The reads are sent with the xml return format (the only one the gateway wraps in a <result>) and
+ * return one page of records (readByQuery returns at most pagesize records, no readMore).
+ *
+ * Usage:
+ *   APIBatch batch = session.newBatch();
+ *   CompletableFuture<JSONObject> customer = batch.read("CUSTOMER", "10", "*");
+ *   CompletableFuture<Boolean> deleted = batch.delete("CONTACT", "12,13");
+ *   batch.execute();
+ *
+ * A batch is not thread safe; queue the operations and execute them from one thread.
+ */
+public class APIBatch {
+
+	final static int DEFAULT_MAX_FUNCTIONS = 100;
+
+	private final APISession<?> session;
+	private final int maxFunctions;
+	private final List<Function> functions = new ArrayList<Function>();
+	private int controlIds = 0;
+
+	/*
+	 * one queued operation and the future of its result
+	 */
+	private static class Function {
+		final String controlId;
+		final String xml;
+		final SESSION_OPER_TYPE typeOp;
+		final List<String> objectType;
+		final CompletableFuture<JSONObject> result = new CompletableFuture<JSONObject>();
+
+		Function(String controlId, String xml, SESSION_OPER_TYPE typeOp, List<String> objectType) {
+			this.controlId = controlId;
+			this.xml = xml;
+			this.typeOp = typeOp;
+			this.objectType = objectType;
+		}
+	}
+
+	APIBatch(APISession<?> session, int maxFunctions) {
+		if ( maxFunctions < 1 )
+			throw new IntacctSDKRuntimeException("Invalid maximum number of functions per request: " + maxFunctions);
+		this.session = session;
+		this.maxFunctions = maxFunctions;
+	}
+
+	/**
+	 * Queues a create of one or more records; see APISession.create()
+	 *
+	 * @param List<String> objects  the names of the objects of the records
+	 * @param JSONArray records     the records to create
+	 * @return the future of the created records
+	 */
+	public CompletableFuture<JSONObject> create(List<String> objects, JSONArray records) {
+		return add(APISession.buildRecordsXml("create", records), SESSION_OPER_TYPE.CREATE, new ArrayList<String>(objects));
+	}
+
+	/**
+	 * Queues an update of one or more records; see APISession.update()
+	 *
+	 * @param List<String> objects  the names of the objects of the records
+	 * @param JSONArray records     the records to update
+	 * @return the future of the updated records
+	 */
+	public CompletableFuture<JSONObject> update(List<String> objects, JSONArray records) {
+		return add(APISession.buildRecordsXml("update", records), SESSION_OPER_TYPE.UPDATE, new ArrayList<String>(objects));
+	}
+
+	/**
+	 * Queues a delete; see APISession.delete()
+	 *
+	 * @param String object    the name of the object
+	 * @param String keysList  comma separated list of the keys to delete
+	 * @return the future completed with true when the records are deleted
+	 */
+	public CompletableFuture<Boolean> delete(String object, String keysList) {
+		return add(APISession.buildDeleteXml(object, keysList), SESSION_OPER_TYPE.DELETE, Collections.singletonList(object))
+				.thenApply(r -> Boolean.TRUE);
+	}
+
+	/**
+	 * Queues a read by keys; see APISession.read()
+	 */
+	public CompletableFuture<JSONObject> read(String object, String keys, String fields) {
+		return read(APISession.buildReadXml("read", object, keys, null, fields, "xml"), object);
+	}
+
+	/**
+	 * Queues a read by names; see APISession.readByName()
+	 */
+	public CompletableFuture<JSONObject> readByName(String object, String keys, String fields) {
+		return read(APISession.buildReadXml("readByName", object, keys, null, fields, "xml"), object);
+	}
+
+	/**
+	 * Queues a read of the related records; see APISession.readRelated()
+	 */
+	public CompletableFuture<JSONObject> readRelated(String object, String keys, String relation, String fields) {
+		return read(APISession.buildReadXml("readRelated", object, keys, relation, fields, "xml"), object);
+	}
+
+	/**
+	 * Queues a query; unlike APISession.readByQuery() only the first page is returned
+	 *
+	 * @param String object    the name of the object
+	 * @param String query     the filter (not escaped yet)
+	 * @param String fields    comma separated list of the fields to return
+	 * @param int pagesize     the maximum number of records returned
+	 */
+	public CompletableFuture<JSONObject> readByQuery(String object, String query, String fields, int pagesize) {
+		if ( pagesize > APISession.DEFAULT_PAGESIZE )
+			pagesize = APISession.DEFAULT_PAGESIZE;
+		return read(APISession.buildReadByQueryXml(object, APIUtil.htmlspecialchars(query), fields, pagesize, "xml"), object);
+	}
+
+	/**
+	 * Queues an inspect of the object; see APISession.inspect()
+	 */
+	public CompletableFuture<JSONObject> inspect(String object, boolean detail) {
+		return add(APISession.buildInspectXml(object, detail), detail ? SESSION_OPER_TYPE.DETAIL : SESSION_OPER_TYPE.INSPECT,
+				Collections.singletonList(object));
+	}
+
+	/**
+	 * @return the number of operations queued and not executed yet
+	 */
+	public int size() {
+		return functions.size();
+	}
+
+	/**
+	 * Sends the queued operations, at most maxFunctions per request, and completes their futures;
+	 * the batch is empty afterwards and can be reused
+	 *
+	 * @throws IOException when a request cannot be sent; the futures of its operations fail with it too
+	 * @throws IntacctSDKRuntimeException when a response is not a valid multi function response
+	 */
+	public void execute() throws IOException {
+		List<Function> pending = new ArrayList<Function>(functions);
+		functions.clear();
+
+		// a failed request does not stop the next ones; the first failure is thrown at the end
+		Exception failure = null;
+		for ( int from = 0; from < pending.size(); from += maxFunctions ) {
+			List<Function> chunk = pending.subList(from, Math.min(from + maxFunctions, pending.size()));
+			try {
+				send(chunk);
+			} catch (IOException | RuntimeException ex) {
+				for ( Function function : chunk )
+					function.result.completeExceptionally(ex);
+				if ( failure == null )
+					failure = ex;
+			}
+		}
+		if ( failure instanceof IOException )
+			throw (IOException) failure;
+		if ( failure != null )
+			throw (RuntimeException) failure;
+	}
+
+	/**
+	 * Sends the queued operations on the async executor of the session
+	 *
+	 * @return a future completed when all the operations are completed
+	 */
+	public CompletableFuture<Void> executeAsync() {
+		final CompletableFuture<Void> done = new CompletableFuture<Void>();
+		try {
+			session.getAsyncExecutor().execute(() -> {
+				try {
+					execute();
+					done.complete(null);
+				} catch (Throwable ex) {
+					done.completeExceptionally(ex);
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			done.completeExceptionally(ex);
+		}
+		return done;
+	}
+
+	private CompletableFuture<JSONObject> read(String xml, String object) {
+		// the xml result is a list of lists of records (one per object); the services return the flat list
+		return add(xml, SESSION_OPER_TYPE.READ, Collections.singletonList(object)).thenApply(r -> {
+			JSONArray lists = r.getJSONArray("READ_RESULT");
+			JSONArray records = new JSONArray();
+			for ( int ix = 0; ix < lists.length(); ix++ ) {
+				JSONArray list = lists.getJSONArray(ix);
+				for ( int jx = 0; jx < list.length(); jx++ )
+					records.put(list.get(jx));
+			}
+			r.put("READ_RESULT", records);
+			return r;
+		});
+	}
+
+	private CompletableFuture<JSONObject> add(String xml, SESSION_OPER_TYPE typeOp, List<String> objectType) {
+		Function function = new Function("f" + (++controlIds), xml, typeOp, objectType);
+		functions.add(function);
+		return function.result;
+	}
+
+	private void send(List<Function> chunk) throws IOException {
+		StringBuilder content = new StringBuilder("<content>");
+		boolean writes = false;
+		for ( Function function : chunk ) {
+			content.append("<function controlid=\"").append(function.controlId).append("\">")
+				.append(function.xml).append("</function>");
+			writes |= function.typeOp == SESSION_OPER_TYPE.CREATE || function.typeOp == SESSION_OPER_TYPE.UPDATE;
+		}
+		content.append("</content>");
+
+		List<JSONObject> results = session.postFunctions(content.toString(), writes);
+
+		Map<String, JSONObject> byControlId = new HashMap<String, JSONObject>();
+		for ( JSONObject result : results )
+			byControlId.put(result.optString("controlid"), result);
+
+		for ( Function function : chunk ) {
+			JSONObject result = byControlId.get(function.controlId);
+			if ( result == null ) {
+				function.result.completeExceptionally(new IntacctSDKRuntimeException(
+						"No result for function " + function.controlId + " in the response"));
+				continue;
+			}
+			try {
+				function.result.complete(session.processResult(result, function.typeOp, function.objectType));
+			} catch (IntacctSDKRuntimeException ex) {
+				function.result.completeExceptionally(failure(function, ex));
+			} catch (RuntimeException ex) {
+				function.result.completeExceptionally(ex);
+			}
+		}
+	}
+
+	/*
+	 * the exception of a failed result with the details the services throw; its cause is the exception of
+	 * processResult, with the index of the failed record (countSuccessfulRecrds) APIBulkWriter salvages by
+	 */
+	private static IntacctSDKRuntimeException failure(Function function, IntacctSDKRuntimeException ex) {
+		if ( !APISession.isResultError(ex) )
+			return ex;
+		IntacctSDKRuntimeException failure = new IntacctSDKRuntimeException(ex.getMessage(), ex);
+		failure.setJsonDetails(APISession.errorDetails(ex.getJsonDetails(), function.typeOp, function.xml));
+		return failure;
+	}
+}
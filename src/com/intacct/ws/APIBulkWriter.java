@@ -0,0 +1,440 @@
+package com.intacct.ws;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.intacct.ws.exception.IntacctSDKRuntimeException;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Create / update of any number of records: the records are split in batches of at most DEFAULT_RECORDS
+ * (the gateway limit of one create / update) and the batches are sent concurrently, at most parallelism
+ * requests in flight, on the async executor of the session.
+ *
+ * The records can come from an Iterator so they don't have to be in memory all at once: a batch is only
+ * built when a request slot is free.
+ *
+ * The batches are independent requests: a failed batch is rolled back by the gateway without stopping the
+ * other ones. The result aggregates the batches in the format of the services:
+ *  {
+ *		"OVERALL_STATUS": "Success" | "Failure" (all batches failed) | "Partial",
+ *		"CORRECT_RECORDS": [ the CORRECT_RECORDS of the successful batches ],
+ *		"ERROR": "NO_ERROR" | [ {"BATCH": n, "FIRST_RECORD": index of its first record, "RECORDS": count,
+ *								"ERROR_MESSAGE": "...", "ERROR_RECORD": the record that failed (if known)} ],
+ *		"REJECTED_RECORDS": [ {"RECORD": index, "ERROR_MESSAGE": "...", "ERROR_RECORD": record} ] (validator only),
+ *		"STATS": {"RECORDS": n, "BATCHES": n, "REQUESTS": n, "FAILED_BATCHES": n, "REJECTED_RECORDS": n, "ELAPSED_MS": n,
+ *				"RECORDS_PER_SECOND": n, "BATCH_LATENCY_MS": [ one per batch, in batch order ]}
+ *  }
+ *
+ * With a validator (setValidator) the records are checked before they are batched: the invalid ones are
+ * not sent and are reported in REJECTED_RECORDS, so they don't get the rest of their batch rolled back.
+ * The record indexes (FIRST_RECORD, RECORD) are positions in the input.
+ *
+ * In salvage mode (setSalvage) a batch rejected by the gateway is not given up: the gateway stops on the
+ * first bad record (countSuccessfulRecrds of the error) and rolls the request back, so that record is
+ * moved to REJECTED_RECORDS and the rest of the batch is sent again, until it goes through. A batch with
+ * n bad records costs n + 1 requests. When the error doesn't tell the bad record the batch is bisected
+ * instead. Errors that are not about a record (transport, authentication) still fail the batch, and so does
+ * an error of the whole request (permission, unknown object, closed period). Such an error blames the first
+ * record of every request, like a bad first record does, so it is only told apart once no record of the
+ * batch went through and every one failed first in its request with the same gateway error number: the
+ * records are then not rejected and the batch fails as a whole. That costs one request per record of the
+ * batch, and a batch of one record can't tell (its record is rejected).
+ */
+public class APIBulkWriter {
+
+	public final static int DEFAULT_PARALLELISM = 4;
+
+	private final APISession<?> session;
+	private int batchSize = APISession.DEFAULT_RECORDS;
+	private int parallelism = DEFAULT_PARALLELISM;
+	private APIRecordValidator validator;
+	private boolean salvage;
+
+	/*
+	 * one batch of records and its outcome
+	 */
+	private static class Batch {
+		final int index;
+		final int firstRecord;
+		final JSONArray records;
+		// position in the input of each record
+		final int[] positions;
+		JSONObject result;
+		Throwable failure;
+		// the failure is an error of the whole request, not of a record
+		boolean requestError;
+		final JSONArray rejected = new JSONArray();
+		int requests;
+		long latency;
+
+		Batch(int index, JSONArray records, int[] positions) {
+			this.index = index;
+			this.firstRecord = positions[0];
+			this.records = records;
+			this.positions = positions;
+		}
+	}
+
+	APIBulkWriter(APISession<?> session) {
+		this.session = session;
+	}
+
+	/**
+	 * @return the number of records per request
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @param batchSize the number of records per request, between 1 and DEFAULT_RECORDS
+	 */
+	public void setBatchSize(int batchSize) {
+		if ( batchSize < 1 || batchSize > APISession.DEFAULT_RECORDS )
+			throw new IntacctSDKRuntimeException("Invalid batch size " + batchSize + ": must be between 1 and "
+					+ APISession.DEFAULT_RECORDS);
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @return the maximum number of requests in flight
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * @param parallelism the maximum number of requests in flight; 1 sends the batches one after the other
+	 */
+	public void setParallelism(int parallelism) {
+		if ( parallelism < 1 )
+			throw new IntacctSDKRuntimeException("Invalid parallelism " + parallelism);
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @return the validator of the records, null if the records are not checked
+	 */
+	public APIRecordValidator getValidator() {
+		return validator;
+	}
+
+	/**
+	 * @param validator checks the records before they are sent; null (the default) to send them as they are
+	 */
+	public void setValidator(APIRecordValidator validator) {
+		this.validator = validator;
+	}
+
+	/**
+	 * @return true if the good records of the batches rejected by the gateway are sent again
+	 */
+	public boolean isSalvage() {
+		return salvage;
+	}
+
+	/**
+	 * @param salvage true to send again the good records of a batch rejected by the gateway, setting aside
+	 * the bad ones (see the class comment); false (the default) to report the whole batch as failed
+	 */
+	public void setSalvage(boolean salvage) {
+		this.salvage = salvage;
+	}
+
+	/**
+	 * Creates the records; see APISession.create() for the format of the records
+	 *
+	 * @param List<String> objects  the names of the objects of the records
+	 * @param JSONArray records     the records, any number of them
+	 * @return the aggregated result (see the class comment)
+	 */
+	public JSONObject create(List<String> objects, JSONArray records) {
+		return write("create", objects, iterator(records));
+	}
+
+	/**
+	 * Creates the records read from the iterator
+	 */
+	public JSONObject create(List<String> objects, Iterator<JSONObject> records) {
+		return write("create", objects, records);
+	}
+
+	/**
+	 * Updates the records; see APISession.update() for the format of the records
+	 *
+	 * @param List<String> objects  the names of the objects of the records
+	 * @param JSONArray records     the records, any number of them
+	 * @return the aggregated result (see the class comment)
+	 */
+	public JSONObject update(List<String> objects, JSONArray records) {
+		return write("update", objects, iterator(records));
+	}
+
+	/**
+	 * Updates the records read from the iterator
+	 */
+	public JSONObject update(List<String> objects, Iterator<JSONObject> records) {
+		return write("update", objects, records);
+	}
+
+	private JSONObject write(final String function, final List<String> objects, Iterator<JSONObject> records) {
+		final boolean salvage = this.salvage;
+		final Semaphore slots = new Semaphore(parallelism);
+		List<Batch> batches = new ArrayList<Batch>();
+		List<CompletableFuture<Void>> pending = new ArrayList<CompletableFuture<Void>>();
+		JSONArray rejected = new JSONArray();
+		APIRecordValidator validator = this.validator;
+		int count = 0;
+		long start = System.nanoTime();
+
+		try {
+			while ( records.hasNext() ) {
+				slots.acquire();
+				JSONArray chunk = new JSONArray();
+				int[] positions = new int[batchSize];
+				while ( chunk.length() < batchSize && records.hasNext() ) {
+					JSONObject record = records.next();
+					String error = validator == null ? null : validator.validate(function, record);
+					if ( error != null ) {
+						rejected.put(APIRecordValidator.rejection(count++, error, record));
+						continue;
+					}
+					positions[chunk.length()] = count++;
+					chunk.put(record);
+				}
+				if ( chunk.length() == 0 ) {
+					slots.release();
+					continue;
+				}
+				final Batch batch = new Batch(batches.size(), chunk, Arrays.copyOf(positions, chunk.length()));
+				batches.add(batch);
+				CompletableFuture<Void> done = CompletableFuture.runAsync(() -> send(function, objects, batch, salvage),
+						session.getAsyncExecutor());
+				pending.add(done.whenComplete((r, t) -> slots.release()));
+			}
+			for ( CompletableFuture<Void> done : pending )
+				done.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IntacctSDKRuntimeException("Interrupted while writing the records");
+		} catch (RejectedExecutionException ex) {
+			throw new IntacctSDKRuntimeException("Unable to send the batches: " + ex);
+		} catch (ExecutionException ex) {
+			// send() records its failures in the batch, so this is an error of the executor itself
+			throw new IntacctSDKRuntimeException("Unable to send the batches: " + ex.getCause());
+		}
+
+		return aggregate(batches, rejected, count, System.nanoTime() - start);
+	}
+
+	private void send(String function, List<String> objects, Batch batch, boolean salvage) {
+		long start = System.nanoTime();
+		if ( salvage ) {
+			salvage(function, objects, batch);
+		} else {
+			try {
+				batch.requests++;
+				batch.result = submit(function, objects, batch.records);
+			} catch (Throwable ex) {
+				batch.failure = ex;
+			}
+		}
+		batch.latency = System.nanoTime() - start;
+	}
+
+	/*
+	 * sends the records of the batch until the good ones have gone through: the segments of the batch still
+	 * to send are on a stack, a rejected segment is put back without its bad record or, when the gateway
+	 * doesn't tell which record is bad, as its two halves
+	 */
+	private void salvage(String function, List<String> objects, Batch batch) {
+		JSONArray correct = new JSONArray();
+		Deque<List<Integer>> segments = new ArrayDeque<List<Integer>>();
+		List<Integer> all = new ArrayList<Integer>(batch.records.length());
+		for ( int ix = 0; ix < batch.records.length(); ix++ )
+			all.add(ix);
+		segments.push(all);
+		// a record went through: the request itself is accepted by the gateway
+		boolean accepted = false;
+		// the gateway error number of all the rejections so far, "" once they differ
+		String rejectedError = null;
+		Throwable lastFailure = null;
+
+		while ( !segments.isEmpty() ) {
+			List<Integer> segment = segments.pop();
+			JSONArray records = new JSONArray();
+			for ( int ix : segment )
+				records.put(batch.records.get(ix));
+			try {
+				batch.requests++;
+				JSONArray lists = submit(function, objects, records).optJSONArray("CORRECT_RECORDS");
+				for ( int ix = 0; lists != null && ix < lists.length(); ix++ )
+					correct.put(lists.get(ix));
+				accepted = true;
+			} catch (Throwable ex) {
+				JSONObject details = resultError(ex);
+				if ( details == null ) {
+					// not about a record: retrying won't help
+					batch.failure = ex;
+					break;
+				}
+				String message = details.optString("ERROR_MSG", ex.getMessage());
+				int failed = details.optInt("countSuccessfulRecrds", -1);
+				if ( segment.size() == 1 )
+					failed = 0;
+				if ( failed > 0 )
+					accepted = true;
+				lastFailure = ex;
+				if ( failed >= 0 && failed < segment.size() ) {
+					String number = errorNumber(message);
+					rejectedError = rejectedError == null || rejectedError.equals(number) ? number : "";
+					reject(batch, segment.remove(failed), message);
+					if ( !segment.isEmpty() )
+						segments.push(segment);
+				} else {
+					int half = segment.size() / 2;
+					segments.push(new ArrayList<Integer>(segment.subList(half, segment.size())));
+					segments.push(new ArrayList<Integer>(segment.subList(0, half)));
+				}
+			}
+		}
+		if ( batch.failure == null && !accepted && batch.records.length() > 1 && !"".equals(rejectedError) ) {
+			// every record failed first with the same error and none went through: the request is rejected
+			// whatever its records, they go back to the batch
+			while ( batch.rejected.length() > 0 )
+				batch.rejected.remove(batch.rejected.length() - 1);
+			batch.failure = lastFailure;
+			batch.requestError = true;
+		}
+		batch.result = new JSONObject().put("CORRECT_RECORDS", correct);
+	}
+
+	/*
+	 * the details of processResult (ERROR_MSG, countSuccessfulRecrds) of the failed result of an APIBatch
+	 * function, null if the failure is not a failed result
+	 */
+	private static JSONObject resultError(Throwable ex) {
+		Throwable cause = ex.getCause();
+		if ( cause instanceof IntacctSDKRuntimeException && APISession.isResultError((IntacctSDKRuntimeException) cause) )
+			return ((IntacctSDKRuntimeException) cause).getJsonDetails();
+		return null;
+	}
+
+	/*
+	 * the gateway error number, first in the ERROR_MSG of processResult
+	 */
+	private static String errorNumber(String message) {
+		String trimmed = message.trim();
+		int end = trimmed.indexOf(' ');
+		return end < 0 ? trimmed : trimmed.substring(0, end);
+	}
+
+	private static void reject(Batch batch, int ix, String message) {
+		batch.rejected.put(APIRecordValidator.rejection(batch.positions[ix], message, batch.records.getJSONObject(ix)));
+	}
+
+	private JSONObject submit(String function, List<String> objects, JSONArray records) throws Throwable {
+		APIBatch request = new APIBatch(session, 1);
+		CompletableFuture<JSONObject> result = function.equals("create")
+				? request.create(objects, records) : request.update(objects, records);
+		try {
+			request.execute();
+			return result.join();
+		} catch (CompletionException ex) {
+			throw ex.getCause();
+		}
+	}
+
+	private static JSONObject aggregate(List<Batch> batches, JSONArray rejected, int count, long elapsed) {
+		JSONArray correct = new JSONArray();
+		JSONArray errors = new JSONArray();
+		JSONArray latencies = new JSONArray();
+		int requests = 0;
+
+		for ( Batch batch : batches ) {
+			latencies.put(batch.latency / 1000000);
+			requests += batch.requests;
+			for ( int ix = 0; ix < batch.rejected.length(); ix++ )
+				rejected.put(batch.rejected.get(ix));
+			if ( batch.result != null ) {
+				// in salvage mode a failed batch may have records through already
+				JSONArray lists = batch.result.optJSONArray("CORRECT_RECORDS");
+				for ( int ix = 0; lists != null && ix < lists.length(); ix++ )
+					correct.put(lists.get(ix));
+			}
+			if ( batch.failure == null )
+				continue;
+			JSONObject error = new JSONObject();
+			error.put("BATCH", batch.index);
+			error.put("FIRST_RECORD", batch.firstRecord);
+			error.put("RECORDS", batch.records.length());
+			error.put("ERROR_MESSAGE", batch.failure.getMessage());
+			if ( batch.failure instanceof IntacctSDKRuntimeException ) {
+				JSONObject details = resultError(batch.failure);
+				if ( details != null ) {
+					error.put("ERROR_MESSAGE", details.opt("ERROR_MSG"));
+					int failed = details.optInt("countSuccessfulRecrds", -1);
+					if ( !batch.requestError && failed >= 0 && failed < batch.records.length() )
+						error.put("ERROR_RECORD", batch.records.get(failed));
+				}
+			}
+			errors.put(error);
+		}
+
+		JSONObject stats = new JSONObject();
+		stats.put("RECORDS", count);
+		stats.put("BATCHES", batches.size());
+		stats.put("REQUESTS", requests);
+		stats.put("FAILED_BATCHES", errors.length());
+		stats.put("REJECTED_RECORDS", rejected.length());
+		stats.put("ELAPSED_MS", elapsed / 1000000);
+		stats.put("RECORDS_PER_SECOND", elapsed == 0 ? 0 : count * 1000000000L / elapsed);
+		stats.put("BATCH_LATENCY_MS", latencies);
+
+		JSONObject result = new JSONObject();
+		if ( errors.length() == 0 && rejected.length() == 0 )
+			result.put("OVERALL_STATUS", "Success");
+		else
+			result.put("OVERALL_STATUS", errors.length() == batches.size() ? "Failure" : "Partial");
+		result.put("CORRECT_RECORDS", correct);
+		result.put("ERROR", errors.length() == 0 ? "NO_ERROR" : errors);
+		if ( rejected.length() > 0 )
+			result.put("REJECTED_RECORDS", rejected);
+		result.put("STATS", stats);
+		return result;
+	}
+
+	private static Iterator<JSONObject> iterator(final JSONArray records) {
+		return new Iterator<JSONObject>() {
+			private int ix = 0;
+
+			public boolean hasNext() {
+				return ix < records.length();
+			}
+
+			public JSONObject next() {
+				return records.getJSONObject(ix++);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
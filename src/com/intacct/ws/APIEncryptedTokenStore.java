@@ -0,0 +1,191 @@
+package com.intacct.ws;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.intacct.ws.exception.IntacctSDKRuntimeException;
+import com.intacct.ws.util.ConfigConstants;
+import com.intacct.ws.util.ConfigLoader;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Session token store in a local file encrypted with AES-GCM; the key is derived from a passphrase
+ * (PBKDF2, random salt kept in the file) so a copy of the file is useless without the passphrase.
+ *
+ * File layout: "ITS1", salt (16 bytes), IV (12 bytes), encrypted tokens. The whole file is rewritten on
+ * each change (write to a temporary file, then rename) and readable by its owner only where the file
+ * system supports it. A file that can't be decrypted (other passphrase, corrupted) is ignored and replaced
+ * on the next save.
+ *
+ * The default store uses the TOKEN_STORE_FILE and TOKEN_STORE_KEY properties (see ConfigLoader).
+ */
+public class APIEncryptedTokenStore implements APISessionTokenStore {
+
+	private final static byte[] MAGIC = { 'I', 'T', 'S', '1' };
+	private final static int SALT_LENGTH = 16;
+	private final static int IV_LENGTH = 12;
+	private final static int TAG_BITS = 128;
+	private final static int KEY_ITERATIONS = 65536;
+
+	private final static SecureRandom random = new SecureRandom();
+
+	private final Path file;
+	private final char[] passphrase;
+	private byte[] salt;
+	private SecretKey key;
+	private Map<String, APISessionToken> tokens;
+
+	/**
+	 * @param file        the file of the tokens, created on the first save
+	 * @param passphrase  the secret the encryption key is derived from
+	 */
+	public APIEncryptedTokenStore(Path file, char[] passphrase) {
+		if ( passphrase == null || passphrase.length == 0 )
+			throw new IntacctSDKRuntimeException("APIEncryptedTokenStore - the passphrase is empty");
+		this.file = file;
+		this.passphrase = passphrase.clone();
+	}
+
+	/**
+	 * @return the store of the TOKEN_STORE_FILE file with the TOKEN_STORE_KEY passphrase
+	 */
+	public static APIEncryptedTokenStore getDefault() {
+		String path = ConfigLoader.getProperty(ConfigConstants.TOKEN_STORE_FILE);
+		String secret = ConfigLoader.getProperty(ConfigConstants.TOKEN_STORE_KEY);
+		if ( path == null || secret == null )
+			throw new IntacctSDKRuntimeException("APIEncryptedTokenStore - " + ConfigConstants.TOKEN_STORE_FILE
+					+ " and " + ConfigConstants.TOKEN_STORE_KEY + " must be configured");
+		return new APIEncryptedTokenStore(Paths.get(path), secret.toCharArray());
+	}
+
+	public synchronized APISessionToken load(String key) {
+		return tokens().get(key);
+	}
+
+	public synchronized void save(String key, APISessionToken token) {
+		tokens().put(key, token);
+		write();
+	}
+
+	public synchronized void remove(String key) {
+		if ( tokens().remove(key) != null )
+			write();
+	}
+
+	private Map<String, APISessionToken> tokens() {
+		if ( tokens == null ) {
+			tokens = new HashMap<String, APISessionToken>();
+			if ( Files.exists(file) ) {
+				try {
+					read(Files.readAllBytes(file));
+				} catch (IOException | GeneralSecurityException ex) {
+					// unreadable with this passphrase: start over
+					tokens.clear();
+					salt = null;
+					key = null;
+				}
+			}
+		}
+		return tokens;
+	}
+
+	private void read(byte[] content) throws IOException, GeneralSecurityException {
+		if ( content.length < MAGIC.length + SALT_LENGTH + IV_LENGTH
+				|| !Arrays.equals(MAGIC, Arrays.copyOf(content, MAGIC.length)) )
+			throw new IOException("Not a token store: " + file);
+		salt = Arrays.copyOfRange(content, MAGIC.length, MAGIC.length + SALT_LENGTH);
+		key = deriveKey(salt);
+		int offset = MAGIC.length + SALT_LENGTH;
+		Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+		cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, content, offset, IV_LENGTH));
+		byte[] plain = cipher.doFinal(content, offset + IV_LENGTH, content.length - offset - IV_LENGTH);
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(plain));
+		int count = in.readInt();
+		for ( int ix = 0; ix < count; ix++ ) {
+			String name = in.readUTF();
+			APISessionToken token = new APISessionToken(in.readUTF(), in.readUTF(), in.readLong());
+			if ( !token.isExpired() )
+				tokens.put(name, token);
+		}
+	}
+
+	private void write() {
+		try {
+			if ( key == null ) {
+				salt = new byte[SALT_LENGTH];
+				random.nextBytes(salt);
+				key = deriveKey(salt);
+			}
+			ByteArrayOutputStream plain = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(plain);
+			out.writeInt(tokens.size());
+			for ( Map.Entry<String, APISessionToken> entry : tokens.entrySet() ) {
+				out.writeUTF(entry.getKey());
+				out.writeUTF(entry.getValue().getSessionId());
+				out.writeUTF(entry.getValue().getEndpoint());
+				out.writeLong(entry.getValue().getExpiresAt());
+			}
+			out.flush();
+
+			byte[] iv = new byte[IV_LENGTH];
+			random.nextBytes(iv);
+			Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+			cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+			byte[] encrypted = cipher.doFinal(plain.toByteArray());
+
+			ByteArrayOutputStream content = new ByteArrayOutputStream(MAGIC.length + SALT_LENGTH + IV_LENGTH + encrypted.length);
+			content.write(MAGIC);
+			content.write(salt);
+			content.write(iv);
+			content.write(encrypted);
+
+			Path parent = file.toAbsolutePath().getParent();
+			if ( parent != null )
+				Files.createDirectories(parent);
+			Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+			try {
+				try {
+					Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString("rw-------"));
+				} catch (UnsupportedOperationException ex) {
+					// not a POSIX file system
+				}
+				Files.write(temp, content.toByteArray());
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		} catch (IOException | GeneralSecurityException ex) {
+			throw new IntacctSDKRuntimeException("Unable to save the session tokens to " + file + ": " + ex);
+		}
+	}
+
+	private SecretKey deriveKey(byte[] salt) throws GeneralSecurityException {
+		SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+		byte[] bytes = factory.generateSecret(new PBEKeySpec(passphrase, salt, KEY_ITERATIONS, 256)).getEncoded();
+		return new SecretKeySpec(bytes, "AES");
+	}
+}
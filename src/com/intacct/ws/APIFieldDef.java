@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2013, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * OVERVIEW
+ * The general pattern for using this SDK is to first create an instance of api_session and call either
+ * connectCredentials or connectSessionId to start an active session with the Intacct Web Services gateway.
+ * You will then pass the api_session as an argument in the api_post class methods.  
+ * IntacctWS handles all XML serialization and de-serialization and HTTPS transport.
+ */
+
+package com.intacct.ws;
+
+import org.json.JSONObject;
+
+/**
+ * @author Marian Crisan <mcrisan@intacct.com>
+ *
+ * Definition of one field of an object, from the detailed inspect (inspect(object, true)) of the object.
+ * Immutable; see APIObjectDef for the fields of an object.
+ */
+public final class APIFieldDef {
+
+	/**
+	 * data types of the fields (externalDataName of the definition)
+	 */
+	public enum DATA_TYPE { TEXT, INTEGER, DECIMAL, CURRENCY, PERCENT, DATE, TIMESTAMP, BOOLEAN, ENUM, OTHER;
+		
+		static DATA_TYPE of(String name) {
+			if ( name == null )
+				return OTHER;
+			String type = name.toLowerCase();
+			if ( type.equals("text") || type.equals("string") || type.equals("textarea") || type.equals("email") 
+					|| type.equals("url") || type.equals("ptr") )
+				return TEXT;
+			if ( type.equals("integer") || type.equals("sequence") )
+				return INTEGER;
+			if ( type.equals("decimal") || type.equals("number") )
+				return DECIMAL;
+			if ( type.equals("currency") )
+				return CURRENCY;
+			if ( type.equals("percent") )
+				return PERCENT;
+			if ( type.equals("date") )
+				return DATE;
+			if ( type.equals("timestamp") || type.equals("datetime") )
+				return TIMESTAMP;
+			if ( type.equals("boolean") || type.equals("checkbox") )
+				return BOOLEAN;
+			if ( type.equals("enum") || type.equals("radio") || type.equals("multipick") )
+				return ENUM;
+			return OTHER;
+		}
+	}
+
+	/**
+	 * fields definition
+	 */
+	private final String name;
+	private final String groupName;
+	private final String dataName;
+	private final String externalDataName;
+	private final DATA_TYPE dataType;
+	private final boolean isRequired;
+	private final boolean isReadOnly;
+	private final int maxLength;
+	private final String displayLabel;
+	private final String description;
+	private final int id;
+	
+	/**
+     * Constructor
+     *
+     * @param JSONObject field  one element of the FIELDS of the detailed inspect 
+     */
+	public APIFieldDef(JSONObject field) {
+		this(field.optString("Name"), field.optString("GroupName"), field.optString("dataName"), 
+				field.optString("externalDataName"), field.optBoolean("isRequired"), field.optBoolean("isReadOnly"), 
+				field.optInt("maxLength", 0), field.optString("DisplayLabel"), field.optString("Description"), 
+				field.optInt("id", 0));
+	}
+	
+	public APIFieldDef(String name, String groupName, String dataName, String externalDataName, boolean isRequired,
+			boolean isReadOnly, int maxLength, String displayLabel, String description, int id) {
+		this.name = name;
+		this.groupName = groupName;
+		this.dataName = dataName;
+		this.externalDataName = externalDataName;
+		this.dataType = DATA_TYPE.of(externalDataName);
+		this.isRequired = isRequired;
+		this.isReadOnly = isReadOnly;
+		this.maxLength = maxLength;
+		this.displayLabel = displayLabel;
+		this.description = description;
+		this.id = id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getGroupName() {
+		return groupName;
+	}
+
+	public String getDataName() {
+		return dataName;
+	}
+
+	/**
+	 * @return the data type as named by the gateway
+	 */
+	public String getExternalDataName() {
+		return externalDataName;
+	}
+
+	public DATA_TYPE getDataType() {
+		return dataType;
+	}
+
+	public boolean isRequired() {
+		return isRequired;
+	}
+
+	public boolean isReadOnly() {
+		return isReadOnly;
+	}
+
+	/**
+	 * @return the maximum length of the values, 0 if not limited
+	 */
+	public int getMaxLength() {
+		return maxLength;
+	}
+
+	public String getDisplayLabel() {
+		return displayLabel;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String toString() {
+		return name + " (" + externalDataName + (isRequired ? ", required" : "") + (isReadOnly ? ", read only" : "")
+				+ (maxLength > 0 ? ", max " + maxLength : "") + ")";
+	}
+}
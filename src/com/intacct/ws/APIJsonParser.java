@@ -0,0 +1,303 @@
+package com.intacct.ws;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Parser of the JSON results of the gateway (returnFormat json) reading the UTF-8 bytes of the response
+ * through a buffer, without decoding the text into characters first.
+ *
+ * The values are the ones new JSONArray(String) / new JSONObject(String) give: strings are decoded (escapes
+ * and UTF-8 sequences), the unquoted values go through JSONObject.stringToValue, a duplicate key is an error.
+ * A string made of ASCII characters without escapes, the usual field value, is built straight from the
+ * buffer with one copy.
+ *
+ * NOT thread safe: one parser per stream
+ */
+public final class APIJsonParser {
+
+	private final static int BUFFER_SIZE = 8192;
+
+	private final InputStream in;
+	private final byte[] buf = new byte[BUFFER_SIZE];
+	private int pos, limit;
+	// bytes read before the ones in buf, for the error messages
+	private long offset;
+	private final StringBuilder text = new StringBuilder(64);
+
+	private APIJsonParser(InputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * @param InputStream in  the UTF-8 text of a JSON object or array
+	 * @return the JSONObject or JSONArray
+	 * @throws JSONException if the first token is neither '{' nor '[' or the text is not valid JSON
+	 */
+	public static Object parse(InputStream in) throws JSONException, IOException {
+		APIJsonParser parser = new APIJsonParser(in);
+		parser.skipBom();
+		int c = parser.nextClean();
+		if ( c != '{' && c != '[' )
+			throw parser.syntaxError("A JSON text must begin with '{' or '['");
+		Object value = parser.value(c);
+		if ( parser.nextClean() >= 0 )
+			throw parser.syntaxError("Unexpected text after the value");
+		return value;
+	}
+
+	private Object value(int c) throws IOException {
+		switch ( c ) {
+			case '"':
+			case '\'':
+				return string(c);
+			case '{':
+				return object();
+			case '[':
+				return array();
+			case -1:
+				throw syntaxError("Missing value");
+			default:
+				String string = bare(c).trim();
+				if ( string.isEmpty() )
+					throw syntaxError("Missing value");
+				return JSONObject.stringToValue(string);
+		}
+	}
+
+	/*
+	 * after the '{'
+	 */
+	private JSONObject object() throws IOException {
+		JSONObject object = new JSONObject();
+		int c = nextClean();
+		if ( c == '}' )
+			return object;
+		while ( true ) {
+			if ( c < 0 )
+				throw syntaxError("A JSONObject text must end with '}'");
+			String key = value(c).toString();
+			if ( nextClean() != ':' )
+				throw syntaxError("Expected a ':' after a key");
+			object.putOnce(key, value(nextClean()));
+			switch ( nextClean() ) {
+				case ';':
+				case ',':
+					c = nextClean();
+					if ( c == '}' )
+						return object;
+					break;
+				case '}':
+					return object;
+				default:
+					throw syntaxError("Expected a ',' or '}'");
+			}
+		}
+	}
+
+	/*
+	 * after the '['
+	 */
+	private JSONArray array() throws IOException {
+		JSONArray array = new JSONArray();
+		int c = nextClean();
+		if ( c == ']' )
+			return array;
+		while ( true ) {
+			if ( c == ',' ) {
+				array.put(JSONObject.NULL);
+			} else {
+				array.put(value(c));
+				c = nextClean();
+			}
+			switch ( c ) {
+				case ',':
+					c = nextClean();
+					if ( c == ']' )
+						return array;
+					break;
+				case ']':
+					return array;
+				default:
+					throw syntaxError("Expected a ',' or ']'");
+			}
+		}
+	}
+
+	/*
+	 * after the opening quote
+	 */
+	private String string(int quote) throws IOException {
+		// ASCII without escapes, within the buffer: one copy
+		int start = pos;
+		while ( pos < limit ) {
+			byte b = buf[pos];
+			if ( b == quote ) {
+				String string = new String(buf, start, pos - start, StandardCharsets.ISO_8859_1);
+				pos++;
+				return string;
+			}
+			if ( b == '\\' || b < ' ' )
+				break;
+			pos++;
+		}
+
+		text.setLength(0);
+		for ( int ix = start; ix < pos; ix++ )
+			text.append((char) buf[ix]);
+		while ( true ) {
+			int c = read();
+			switch ( c ) {
+				case -1:
+				case 0:
+				case '\n':
+				case '\r':
+					throw syntaxError("Unterminated string");
+				case '\\':
+					escape();
+					break;
+				default:
+					if ( c == quote )
+						return text.toString();
+					if ( c < 0x80 )
+						text.append((char) c);
+					else
+						decode(c);
+			}
+		}
+	}
+
+	private void escape() throws IOException {
+		int c = read();
+		switch ( c ) {
+			case 'b':
+				text.append('\b');
+				break;
+			case 't':
+				text.append('\t');
+				break;
+			case 'n':
+				text.append('\n');
+				break;
+			case 'f':
+				text.append('\f');
+				break;
+			case 'r':
+				text.append('\r');
+				break;
+			case 'u':
+				int code = 0;
+				for ( int ix = 0; ix < 4; ix++ ) {
+					int digit = Character.digit(read(), 16);
+					if ( digit < 0 )
+						throw syntaxError("Illegal escape.");
+					code = code << 4 | digit;
+				}
+				text.append((char) code);
+				break;
+			case '"':
+			case '\'':
+			case '\\':
+			case '/':
+				text.append((char) c);
+				break;
+			default:
+				throw syntaxError("Illegal escape.");
+		}
+	}
+
+	/*
+	 * an unquoted value: up to the end of the text or a formatting character
+	 */
+	private String bare(int c) throws IOException {
+		text.setLength(0);
+		while ( c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0 ) {
+			if ( c < 0x80 )
+				text.append((char) c);
+			else
+				decode(c);
+			c = read();
+		}
+		if ( c >= 0 )
+			pos--;
+		return text.toString();
+	}
+
+	/*
+	 * the character of a multi byte UTF-8 sequence starting with the byte lead
+	 */
+	private void decode(int lead) throws IOException {
+		int count, code;
+		if ( (lead & 0xE0) == 0xC0 ) {
+			count = 1;
+			code = lead & 0x1F;
+		} else if ( (lead & 0xF0) == 0xE0 ) {
+			count = 2;
+			code = lead & 0x0F;
+		} else if ( (lead & 0xF8) == 0xF0 ) {
+			count = 3;
+			code = lead & 0x07;
+		} else {
+			throw syntaxError("Invalid UTF-8 byte " + lead);
+		}
+		while ( count-- > 0 ) {
+			int next = read();
+			if ( (next & 0xC0) != 0x80 )
+				throw syntaxError("Invalid UTF-8 sequence");
+			code = code << 6 | (next & 0x3F);
+		}
+		text.appendCodePoint(code);
+	}
+
+	/*
+	 * the next byte that isn't white space, -1 at the end of the text
+	 */
+	private int nextClean() throws IOException {
+		while ( true ) {
+			int c = read();
+			if ( c < 0 || c > ' ' )
+				return c;
+		}
+	}
+
+	private int read() throws IOException {
+		if ( pos == limit && !fill() )
+			return -1;
+		return buf[pos++] & 0xFF;
+	}
+
+	private boolean fill() throws IOException {
+		offset += limit;
+		pos = limit = 0;
+		int n;
+		while ( (n = in.read(buf, 0, buf.length)) == 0 )
+			;
+		if ( n < 0 )
+			return false;
+		limit = n;
+		return true;
+	}
+
+	private void skipBom() throws IOException {
+		if ( read() == 0xEF ) {
+			if ( read() == 0xBB && read() == 0xBF )
+				return;
+			throw syntaxError("Invalid UTF-8 byte order mark");
+		}
+		if ( limit > 0 )
+			pos--;
+	}
+
+	private JSONException syntaxError(String message) {
+		return new JSONException(message + " at " + (offset + pos));
+	}
+}
@@ -0,0 +1,262 @@
+package com.intacct.ws;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import com.intacct.ws.exception.IntacctSDKRuntimeException;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Cache of the inspect() results (object metadata) of one company, keyed by object name and detail flag.
+ *
+ * An entry is reloaded once it is older than the TTL or after invalidate(). Loads are single flight: the
+ * threads asking for an object that is being loaded wait for that load instead of sending their own
+ * inspect. A failed load is not cached.
+ *
+ * The entries can be saved to a snapshot file and loaded back at startup so a warm start doesn't call the
+ * gateway; the entries keep their load time, the TTL still applies to them.
+ *
+ * The metadata are shared: don't modify the returned objects.
+ */
+public class APIMetadataCache {
+
+	public final static long DEFAULT_TTL = 60 * 60 * 1000;
+
+	private final APISession<JSONObject> session;
+	private final long ttl;
+	private final ConcurrentHashMap<String, CompletableFuture<Entry>> entries = new ConcurrentHashMap<String, CompletableFuture<Entry>>();
+
+	private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(), loads = new AtomicLong(),
+			failures = new AtomicLong();
+
+	/*
+	 * inspect result and its load time
+	 */
+	private static class Entry {
+		final JSONObject metadata;
+		final long loaded;
+		// typed model of a detailed inspect, built on the first getObjectDef()
+		volatile APIObjectDef objectDef;
+
+		Entry(JSONObject metadata, long loaded) {
+			this.metadata = metadata;
+			this.loaded = loaded;
+		}
+	}
+
+	/**
+	 * @param session the session the metadata are loaded with
+	 */
+	public APIMetadataCache(APISession<JSONObject> session) {
+		this(session, DEFAULT_TTL);
+	}
+
+	/**
+	 * @param session the session the metadata are loaded with
+	 * @param ttl     the lifetime of an entry in milliseconds
+	 */
+	public APIMetadataCache(APISession<JSONObject> session, long ttl) {
+		this.session = session;
+		this.ttl = ttl;
+	}
+
+	/**
+	 * @return the inspect(object, detail) result, from the cache when it is there and not expired
+	 * @throws IntacctSDKRuntimeException if the inspect has failed
+	 */
+	public JSONObject inspect(String object, boolean detail) {
+		return entry(object, detail).metadata;
+	}
+
+	/**
+	 * @return the typed fields of the object, built from the cached inspect(object, true)
+	 * @throws IntacctSDKRuntimeException if the inspect has failed
+	 */
+	public APIObjectDef getObjectDef(String object) {
+		Entry entry = entry(object, true);
+		APIObjectDef def = entry.objectDef;
+		if ( def == null )
+			entry.objectDef = def = APIObjectDef.fromInspect(entry.metadata);
+		return def;
+	}
+
+	private Entry entry(String object, boolean detail) {
+		String key = key(object, detail);
+		while ( true ) {
+			CompletableFuture<Entry> current = entries.get(key);
+			if ( current != null && (!current.isDone() || isFresh(current)) ) {
+				hits.incrementAndGet();
+				return join(key, current);
+			}
+
+			CompletableFuture<Entry> load = new CompletableFuture<Entry>();
+			boolean mine = current == null ? entries.putIfAbsent(key, load) == null : entries.replace(key, current, load);
+			if ( !mine )
+				continue;		// another thread has started the load
+
+			misses.incrementAndGet();
+			loads.incrementAndGet();
+			try {
+				load.complete(new Entry(session.inspect(object, detail), System.currentTimeMillis()));
+			} catch (Throwable ex) {
+				failures.incrementAndGet();
+				load.completeExceptionally(ex);
+			}
+			return join(key, load);
+		}
+	}
+
+	/**
+	 * Drops the cached metadata of the object (both detail flags)
+	 */
+	public void invalidate(String object) {
+		entries.remove(key(object, false));
+		entries.remove(key(object, true));
+	}
+
+	/**
+	 * Drops all the cached metadata
+	 */
+	public void invalidateAll() {
+		entries.clear();
+	}
+
+	/**
+	 * Writes the loaded entries to the file (replaced atomically)
+	 */
+	public void saveSnapshot(Path file) throws IOException {
+		JSONArray list = new JSONArray();
+		for ( Map.Entry<String, CompletableFuture<Entry>> e : entries.entrySet() ) {
+			Entry entry = done(e.getValue());
+			if ( entry == null )
+				continue;
+			JSONObject item = new JSONObject();
+			item.put("key", e.getKey());
+			item.put("loaded", entry.loaded);
+			item.put("metadata", entry.metadata);
+			list.put(item);
+		}
+		Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+		try {
+			Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8);
+			try {
+				new JSONObject().put("entries", list).write(out);
+			} finally {
+				out.close();
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Adds the entries of a snapshot file that are not expired yet; a missing file is ignored
+	 *
+	 * @return the number of entries added
+	 */
+	public int loadSnapshot(Path file) throws IOException {
+		if ( !Files.exists(file) )
+			return 0;
+		JSONArray list;
+		Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+		try {
+			list = new JSONObject(new JSONTokener(in)).getJSONArray("entries");
+		} finally {
+			in.close();
+		}
+		int count = 0;
+		for ( int ix = 0; ix < list.length(); ix++ ) {
+			JSONObject item = list.getJSONObject(ix);
+			Entry entry = new Entry(item.getJSONObject("metadata"), item.getLong("loaded"));
+			if ( System.currentTimeMillis() - entry.loaded >= ttl )
+				continue;
+			if ( entries.putIfAbsent(item.getString("key"), CompletableFuture.completedFuture(entry)) == null )
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of inspect() answered from the cache (including the waits for a load in flight)
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of inspect() that had to load the metadata
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of failed loads
+	 */
+	public long getLoadFailureCount() {
+		return failures.get();
+	}
+
+	/**
+	 * @return hits / (hits + misses), 0 before the first inspect()
+	 */
+	public double getHitRate() {
+		long h = hits.get(), total = h + misses.get();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	/**
+	 * @return the number of cached entries
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	private boolean isFresh(CompletableFuture<Entry> future) {
+		Entry entry = done(future);
+		return entry != null && System.currentTimeMillis() - entry.loaded < ttl;
+	}
+
+	private Entry join(String key, CompletableFuture<Entry> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IntacctSDKRuntimeException("Interrupted while loading the metadata of " + key);
+		} catch (ExecutionException ex) {
+			// not cached: the next inspect() tries again
+			entries.remove(key, future);
+			if ( ex.getCause() instanceof IntacctSDKRuntimeException )
+				throw (IntacctSDKRuntimeException) ex.getCause();
+			throw new IntacctSDKRuntimeException("Inspect of " + key + " has failed: " + ex.getCause());
+		}
+	}
+
+	private static Entry done(CompletableFuture<Entry> future) {
+		if ( !future.isDone() || future.isCompletedExceptionally() )
+			return null;
+		return future.join();
+	}
+
+	private static String key(String object, boolean detail) {
+		return object + (detail ? "#detail" : "");
+	}
+}
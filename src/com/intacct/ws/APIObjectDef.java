@@ -0,0 +1,140 @@
+package com.intacct.ws;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.intacct.ws.exception.IntacctSDKRuntimeException;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Fields of an object, built from the detailed inspect (inspect(object, true)) of the object. Immutable.
+ *
+ * The fields are kept in an array in the inspect order, with an open addressing index of their names
+ * (hash of the name, linear probing in a table at least twice as large as the number of fields), so
+ * getField(name) costs one hash and usually one String.equals, with no allocation.
+ */
+public final class APIObjectDef {
+
+	private final String objectType;
+	private final APIFieldDef[] fields;
+	// position + 1 of the field in fields, 0 for an empty slot
+	private final int[] index;
+	private final int mask;
+	private final APIFieldDef[] required;
+
+	public APIObjectDef(String objectType, List<APIFieldDef> fields) {
+		this.objectType = objectType;
+		this.fields = fields.toArray(new APIFieldDef[fields.size()]);
+
+		int size = Integer.highestOneBit(Math.max(4, this.fields.length * 2 - 1)) << 1;
+		index = new int[size];
+		mask = size - 1;
+		for ( int ix = 0; ix < this.fields.length; ix++ ) {
+			String name = this.fields[ix].getName();
+			int slot = hash(name) & mask;
+			while ( index[slot] != 0 ) {
+				if ( this.fields[index[slot] - 1].getName().equals(name) )
+					throw new IntacctSDKRuntimeException("Field " + name + " defined twice in " + objectType);
+				slot = (slot + 1) & mask;
+			}
+			index[slot] = ix + 1;
+		}
+
+		List<APIFieldDef> list = new ArrayList<APIFieldDef>();
+		for ( APIFieldDef field : this.fields )
+			if ( field.isRequired() )
+				list.add(field);
+		required = list.toArray(new APIFieldDef[list.size()]);
+	}
+
+	/**
+	 * @param JSONObject inspect  the result of inspect(object, true): OBJECT_TYPE and FIELDS
+	 */
+	public static APIObjectDef fromInspect(JSONObject inspect) {
+		Object list = inspect.opt("FIELDS");
+		List<APIFieldDef> fields = new ArrayList<APIFieldDef>();
+		if ( list instanceof JSONArray ) {
+			JSONArray array = (JSONArray) list;
+			for ( int ix = 0; ix < array.length(); ix++ ) {
+				JSONObject field = array.optJSONObject(ix);
+				if ( field == null )
+					throw new IntacctSDKRuntimeException("Field definition expected, use inspect(object, true)");
+				fields.add(new APIFieldDef(field));
+			}
+		} else if ( list instanceof JSONObject ) {
+			// one field only (XML to JSON translation)
+			fields.add(new APIFieldDef((JSONObject) list));
+		} else if ( list != null ) {
+			throw new IntacctSDKRuntimeException("Field definition expected, use inspect(object, true)");
+		}
+		return new APIObjectDef(inspect.optString("OBJECT_TYPE"), fields);
+	}
+
+	public String getObjectType() {
+		return objectType;
+	}
+
+	/**
+	 * @return the definition of the field, null if the object has no such field
+	 */
+	public APIFieldDef getField(String name) {
+		int ix = indexOf(name);
+		return ix < 0 ? null : fields[ix];
+	}
+
+	/**
+	 * @return the position of the field in getFields(), -1 if the object has no such field
+	 */
+	public int indexOf(String name) {
+		int slot = hash(name) & mask;
+		int position;
+		while ( (position = index[slot]) != 0 ) {
+			if ( fields[position - 1].getName().equals(name) )
+				return position - 1;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of fields
+	 */
+	public int size() {
+		return fields.length;
+	}
+
+	/**
+	 * @return the field at the position (inspect order)
+	 */
+	public APIFieldDef getField(int position) {
+		return fields[position];
+	}
+
+	/**
+	 * @return the fields, in the inspect order
+	 */
+	public List<APIFieldDef> getFields() {
+		List<APIFieldDef> list = new ArrayList<APIFieldDef>(fields.length);
+		Collections.addAll(list, fields);
+		return Collections.unmodifiableList(list);
+	}
+
+	/*
+	 * the required fields, shared: don't modify
+	 */
+	APIFieldDef[] requiredFields() {
+		return required;
+	}
+
+	private static int hash(String name) {
+		int h = name.hashCode();
+		return h ^ (h >>> 16);
+	}
+}
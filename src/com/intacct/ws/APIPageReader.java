@@ -0,0 +1,354 @@
+package com.intacct.ws;
+
+import java.io.Closeable;
+import java.io.StringReader;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.XML;
+
+import com.intacct.ws.APISession.SESSION_OPER_TYPE;
+import com.intacct.ws.exception.IntacctSDKRuntimeException;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Page by page reader of a readByQuery: each next() returns the records of one page (a JSONArray of JSONObject).
+ *
+ * The pages are fetched in the background, on the async executor of the session: the readMore of the next
+ * page is sent as soon as a page has arrived, while the caller is still parsing and consuming the previous
+ * ones, up to prefetch pages ahead (the raw responses wait in a bounded queue, so a slow consumer holds at
+ * most prefetch pages in memory). The responses are parsed by the caller thread in next().
+ *
+ * The query uses the xml return format: the data element tells the number of records remaining and the
+ * resultId of the query, so the end of the results is known without an extra empty readMore.
+ *
+ * close() must be called when the pages are not read to the end, as in the usage below: the background loop
+ * holds a thread of the executor while it waits for the caller to take a page. A reader that is dropped without
+ * close() only stops its loop once it has been garbage collected, or once no page has been taken for the idle
+ * timeout (setIdleTimeout); a later next() then fails.
+ *
+ * Usage:
+ *   APIPageReader reader = session.newPageReader("GLENTRY", "BATCHNO > 100", "*");
+ *   try {
+ *       while ( reader.hasNext() )
+ *           process(reader.next());
+ *   } finally {
+ *       reader.close();
+ *   }
+ */
+public class APIPageReader implements Iterator<JSONArray>, Closeable {
+
+	public final static int DEFAULT_PREFETCH = 2;
+	public final static long DEFAULT_IDLE_TIMEOUT = 5 * 60 * 1000;
+
+	// how often the waiting loops check that the other side is still there
+	private final static long POLL_MILLIS = 200;
+
+	private final APISession<?> session;
+	private final String object, query, fields;
+	private int pageSize = APISession.DEFAULT_PAGESIZE;
+	private int maxRecords = APISession.DEFAULT_MAXRETURN;
+	private int prefetch = DEFAULT_PREFETCH;
+	private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+	private BlockingQueue<Page> pages;
+	private Fetcher fetcher;
+	private Page next;
+	private boolean done = false;
+	private int recordsRead = 0, pagesRead = 0, totalCount = -1;
+
+	/*
+	 * raw response of one page, or the failure of its request, or the end of the results
+	 */
+	private static class Page {
+		final String response;
+		final Exception failure;
+
+		Page(String response, Exception failure) {
+			this.response = response;
+			this.failure = failure;
+		}
+	}
+
+	private final static Page END = new Page(null, null);
+
+	APIPageReader(APISession<?> session, String object, String query, String fields) {
+		if ( object == null || object.isEmpty() )
+			throw new IntacctSDKRuntimeException("ReadByQuery - Object is null");
+		this.session = session;
+		this.object = object;
+		this.query = query;
+		this.fields = fields;
+	}
+
+	/**
+	 * @param pageSize the number of records per page, at most DEFAULT_PAGESIZE; set before the first hasNext()
+	 */
+	public void setPageSize(int pageSize) {
+		if ( pageSize < 1 || pageSize > APISession.DEFAULT_PAGESIZE )
+			throw new IntacctSDKRuntimeException("Invalid page size " + pageSize + ": must be between 1 and "
+					+ APISession.DEFAULT_PAGESIZE);
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * @param maxRecords the maximum number of records read; set before the first hasNext()
+	 */
+	public void setMaxRecords(int maxRecords) {
+		this.maxRecords = maxRecords;
+	}
+
+	/**
+	 * @param prefetch the number of fetched pages that can wait for the caller (at least 1), the background
+	 * loop blocks when they are all waiting. Set before the first hasNext()
+	 */
+	public void setPrefetch(int prefetch) {
+		if ( prefetch < 1 )
+			throw new IntacctSDKRuntimeException("Invalid prefetch depth " + prefetch);
+		this.prefetch = prefetch;
+	}
+
+	/**
+	 * @param idleTimeout the time in milliseconds the background loop waits for the caller to take a page
+	 * before it stops (the reader is considered abandoned). Set before the first hasNext()
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		if ( idleTimeout < 1 )
+			throw new IntacctSDKRuntimeException("Invalid idle timeout " + idleTimeout);
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * @return the number of records of the query (the totalcount of the first page), -1 before the first page
+	 */
+	public int getTotalCount() {
+		return totalCount;
+	}
+
+	/**
+	 * @return the number of records returned by next() so far
+	 */
+	public int getRecordsRead() {
+		return recordsRead;
+	}
+
+	/**
+	 * @return the number of pages returned by next() so far
+	 */
+	public int getPagesRead() {
+		return pagesRead;
+	}
+
+	public boolean hasNext() {
+		if ( next == null && !done ) {
+			if ( pages == null )
+				start();
+			try {
+				next = take();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IntacctSDKRuntimeException("Interrupted while waiting for the next page of " + object);
+			}
+			if ( next == END ) {
+				next = null;
+				done = true;
+			}
+		}
+		return next != null;
+	}
+
+	/**
+	 * @return the records of the next page
+	 * @throws IntacctSDKRuntimeException if the request of the page has failed
+	 */
+	public JSONArray next() {
+		if ( !hasNext() )
+			throw new NoSuchElementException();
+		Page page = next;
+		next = null;
+		if ( page.failure != null ) {
+			close();
+			if ( page.failure instanceof IntacctSDKRuntimeException )
+				throw (IntacctSDKRuntimeException) page.failure;
+			throw new IntacctSDKRuntimeException("ReadByQuery of " + object + " has failed: " + page.failure);
+		}
+
+		JSONArray records = new JSONArray();
+		JSONObject data = parse(page.response, records);
+		if ( totalCount < 0 )
+			totalCount = data.optInt("totalcount", -1);
+		// the last page may go beyond maxRecords
+		if ( recordsRead + records.length() > maxRecords ) {
+			JSONArray truncated = new JSONArray();
+			for ( int ix = 0; ix < maxRecords - recordsRead; ix++ )
+				truncated.put(records.get(ix));
+			records = truncated;
+		}
+		recordsRead += records.length();
+		pagesRead++;
+		return records;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Stops the prefetching; the pages not read yet are dropped
+	 */
+	public void close() {
+		if ( fetcher != null )
+			fetcher.closed = true;
+		done = true;
+		next = null;
+		if ( pages != null )
+			pages.clear();
+	}
+
+	private void start() {
+		pages = new ArrayBlockingQueue<Page>(prefetch);
+		fetcher = new Fetcher(this);
+		try {
+			session.getAsyncExecutor().execute(fetcher);
+		} catch (RejectedExecutionException ex) {
+			pages.add(new Page(null, ex));
+			pages.add(END);
+		}
+	}
+
+	/*
+	 * the next page; a failure if the background loop has stopped without the end of the results
+	 */
+	private Page take() throws InterruptedException {
+		while ( true ) {
+			Page page = pages.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+			if ( page != null ) {
+				fetcher.lastTake = System.currentTimeMillis();
+				return page;
+			}
+			if ( fetcher.closed ) {
+				page = pages.poll();
+				return page != null ? page : new Page(null, new IntacctSDKRuntimeException("ReadByQuery of " + object
+						+ " has stopped: no page was taken for " + idleTimeout + " ms"));
+			}
+		}
+	}
+
+	/*
+	 * background loop: one request per page until there are no records remaining. It only references the reader
+	 * weakly so that a reader dropped without close() can be garbage collected, which stops the loop
+	 */
+	private static final class Fetcher implements Runnable {
+
+		final APISession<?> session;
+		final String object, query, fields;
+		final int pageSize, maxRecords;
+		final long idleTimeout;
+		final BlockingQueue<Page> pages;
+		final WeakReference<APIPageReader> reader;
+		volatile boolean closed = false;
+		volatile long lastTake = System.currentTimeMillis();
+
+		Fetcher(APIPageReader reader) {
+			this.session = reader.session;
+			this.object = reader.object;
+			this.query = reader.query;
+			this.fields = reader.fields;
+			this.pageSize = reader.pageSize;
+			this.maxRecords = reader.maxRecords;
+			this.idleTimeout = reader.idleTimeout;
+			this.pages = reader.pages;
+			this.reader = new WeakReference<APIPageReader>(reader);
+		}
+
+		public void run() {
+			int requested = 0;
+			String resultId = null;
+			try {
+				String function = APISession.buildReadByQueryXml(object, APIUtil.htmlspecialchars(query), fields,
+						Math.min(pageSize, maxRecords), "xml");
+				while ( !closed ) {
+					String res = session.postMultiFunction("<content><function controlid=\"readByQuery\">" + function
+							+ "</function></content>", false);
+					JSONObject attributes = dataAttributes(res);
+					if ( !put(new Page(res, null)) || attributes == null )
+						break;
+					int count = attributes.optInt("count", 0);
+					requested += count;
+					if ( count == 0 || attributes.optInt("numremaining", 0) <= 0 || requested >= maxRecords )
+						break;
+					if ( resultId == null )
+						resultId = attributes.optString("resultId", "");
+					function = resultId.length() > 0 ? "<readMore><resultId>" + resultId + "</resultId></readMore>"
+							: "<readMore><object>" + object + "</object></readMore>";
+				}
+			} catch (Exception ex) {
+				put(new Page(null, ex));
+			}
+			put(END);
+		}
+
+		/*
+		 * queues the page, waiting while the queue is full; false if the reader is closed or abandoned
+		 */
+		private boolean put(Page page) {
+			try {
+				while ( !closed ) {
+					if ( pages.offer(page, POLL_MILLIS, TimeUnit.MILLISECONDS) )
+						return !closed;
+					if ( reader.get() == null || System.currentTimeMillis() - lastTake >= idleTimeout )
+						closed = true;
+				}
+			} catch (InterruptedException ex) {
+				closed = true;
+			}
+			return false;
+		}
+	}
+
+	/*
+	 * attributes of the data element, read from the head of the raw response without parsing it;
+	 * null if there is no data element (failure)
+	 */
+	private static JSONObject dataAttributes(String res) {
+		int start = res.indexOf("<data ");
+		if ( start < 0 )
+			return null;
+		int end = res.indexOf('>', start);
+		if ( end < 0 )
+			return null;
+		String tag = res.substring(start, end);
+		if ( tag.endsWith("/") )
+			tag = tag.substring(0, tag.length() - 1);
+		return XML.toJSONObject(tag + "></data>").getJSONObject("data");
+	}
+
+	/*
+	 * the data attributes of the page, its records are added to records as they are parsed
+	 */
+	private JSONObject parse(String res, final JSONArray records) {
+		JSONObject result = APIResponseParser.parseResult(new StringReader(res), new APIResponseParser.RecordSink() {
+			public void record(String object, JSONObject record) {
+				records.put(record);
+			}
+		}, session.getDecimalMode());
+		if ( !"success".equals(result.optString("status")) ) {
+			// throws the exception with the details of the error
+			session.processResult(result, SESSION_OPER_TYPE.READ, Collections.singletonList(object));
+			throw new IntacctSDKRuntimeException("ReadByQuery of " + object + " has failed");
+		}
+		JSONObject data = result.optJSONObject("data");
+		return data == null ? new JSONObject() : data;
+	}
+}
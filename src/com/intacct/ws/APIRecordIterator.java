@@ -0,0 +1,101 @@
+package com.intacct.ws;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Record by record iterator of a readByQuery, for the exports that don't fit in one JSONArray.
+ *
+ * A page is parsed when its first record is asked for and each record is dropped from the page once it has
+ * been returned, so the iterator holds one parsed page at most (plus the raw responses prefetched by the
+ * APIPageReader underneath); the memory does not grow with the number of records of the query.
+ *
+ * Usage:
+ *   APIRecordIterator records = session.readByQueryIterator("GLENTRY", "", "*", 1000000);
+ *   try {
+ *       while ( records.hasNext() )
+ *           export(records.next());
+ *   } finally {
+ *       records.close();
+ *   }
+ * or with a stream (close it to stop the prefetching when it is not consumed to the end):
+ *   try ( Stream<JSONObject> records = session.readByQueryStream("GLENTRY", "", "*", 1000000) ) {
+ *       records.forEach(r -> export(r));
+ *   }
+ */
+public class APIRecordIterator implements Iterator<JSONObject>, Closeable {
+
+	private final APIPageReader pages;
+	private JSONArray page;
+	private int index = 0;
+
+	APIRecordIterator(APIPageReader pages) {
+		this.pages = pages;
+	}
+
+	public boolean hasNext() {
+		while ( page == null || index >= page.length() ) {
+			// release the consumed page before parsing the next one
+			page = null;
+			if ( !pages.hasNext() )
+				return false;
+			page = pages.next();
+			index = 0;
+		}
+		return true;
+	}
+
+	public JSONObject next() {
+		if ( !hasNext() )
+			throw new NoSuchElementException();
+		JSONObject record = page.getJSONObject(index);
+		page.put(index++, JSONObject.NULL);
+		return record;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * @return the number of records returned so far
+	 */
+	public int getRecordsRead() {
+		return pages.getRecordsRead() - (page == null ? 0 : page.length() - index);
+	}
+
+	/**
+	 * @return the number of records of the query, -1 before the first record
+	 */
+	public int getTotalCount() {
+		return pages.getTotalCount();
+	}
+
+	/**
+	 * Stops the prefetching of the pages; the records not read yet are dropped
+	 */
+	public void close() {
+		page = null;
+		pages.close();
+	}
+
+	/**
+	 * @return a sequential stream of the remaining records; closing it closes this iterator
+	 */
+	public Stream<JSONObject> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL),
+				false).onClose(() -> close());
+	}
+}
@@ -0,0 +1,173 @@
+package com.intacct.ws;
+
+import java.util.Iterator;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Checks the records of a create / update against the field definitions of their objects (inspect detail,
+ * through an APIMetadataCache) before they are sent, so one bad record doesn't get a whole request rolled
+ * back by the gateway.
+ *
+ * The checks follow the field definitions:
+ *  - create: a required field is missing or empty; a read only field is set
+ *  - update: a read only field other than the RECORDNO key is set
+ *  - create / update: a value is longer than the maxLength of its field
+ * The gateway fills some required fields with a default (or from other fields) when they are missing, so the
+ * required check may reject a record the gateway would take: turn it off with setCheckRequired(false) for
+ * such objects.
+ * The fields unknown to the definition (custom fields, nested structures) are left to the gateway. The names
+ * are matched ignoring their case, as the gateway does.
+ *
+ * A valid record costs one field index lookup per value and one lookup per required field; nothing is
+ * allocated unless the record is invalid.
+ */
+public class APIRecordValidator {
+
+	private final static String UPDATE_KEY = "RECORDNO";
+
+	private final APIMetadataCache metadata;
+	private volatile boolean checkRequired = true;
+
+	/**
+	 * @param metadata the cache the field definitions are read from
+	 */
+	public APIRecordValidator(APIMetadataCache metadata) {
+		this.metadata = metadata;
+	}
+
+	/**
+	 * @return true if the missing required fields of a create are reported (the default)
+	 */
+	public boolean isCheckRequired() {
+		return checkRequired;
+	}
+
+	/**
+	 * @param checkRequired false to leave the missing required fields to the gateway, which may default them
+	 */
+	public void setCheckRequired(boolean checkRequired) {
+		this.checkRequired = checkRequired;
+	}
+
+	/**
+	 * @param String function    "create" or "update"
+	 * @param JSONObject record  one record in the create / update format: {"object": {"field": value, ...}}
+	 * @return null if the record is valid, else the reasons it is not
+	 * @throws IntacctSDKRuntimeException if the definition of the object can't be loaded
+	 */
+	public String validate(String function, JSONObject record) {
+		boolean create = "create".equals(function);
+		StringBuilder errors = null;
+		Iterator<?> objects = record.keys();
+		while ( objects.hasNext() ) {
+			String object = (String) objects.next();
+			JSONObject values = record.optJSONObject(object);
+			if ( values == null )
+				continue;
+			APIObjectDef def = metadata.getObjectDef(object);
+
+			Iterator<?> names = values.keys();
+			while ( names.hasNext() ) {
+				String name = (String) names.next();
+				APIFieldDef field = def.getField(name);
+				if ( field == null )
+					field = ignoreCase(def, name);
+				if ( field == null )
+					continue;
+				if ( field.isReadOnly() && (create || !UPDATE_KEY.equalsIgnoreCase(name)) ) {
+					errors = append(errors, object, name, "is read only");
+					continue;
+				}
+				int max = field.getMaxLength();
+				if ( max > 0 ) {
+					Object value = values.opt(name);
+					if ( !(value instanceof JSONObject) && !(value instanceof JSONArray) && value != JSONObject.NULL ) {
+						int length = value.toString().length();
+						if ( length > max )
+							errors = append(errors, object, name, "is too long (" + length + " > " + max + ")");
+					}
+				}
+			}
+
+			if ( create && checkRequired ) {
+				for ( APIFieldDef field : def.requiredFields() ) {
+					if ( isEmpty(values.opt(field.getName())) && isEmpty(ignoreCase(values, field.getName())) )
+						errors = append(errors, object, field.getName(), "is required");
+				}
+			}
+		}
+		return errors == null ? null : errors.toString();
+	}
+
+	/**
+	 * Splits the records in the valid ones, to send, and the invalid ones
+	 *
+	 * @param String function     "create" or "update"
+	 * @param JSONArray records   the records in the create / update format
+	 * @param JSONArray rejected  receives one {"RECORD": index in records, "ERROR_MESSAGE": "...",
+	 * 							"ERROR_RECORD": record} per invalid record
+	 * @return the valid records, in their order
+	 */
+	public JSONArray split(String function, JSONArray records, JSONArray rejected) {
+		JSONArray valid = new JSONArray();
+		for ( int ix = 0; ix < records.length(); ix++ ) {
+			JSONObject record = records.getJSONObject(ix);
+			String error = validate(function, record);
+			if ( error == null )
+				valid.put(record);
+			else
+				rejected.put(rejection(ix, error, record));
+		}
+		return valid;
+	}
+
+	static JSONObject rejection(int index, String error, JSONObject record) {
+		JSONObject rejection = new JSONObject();
+		rejection.put("RECORD", index);
+		rejection.put("ERROR_MESSAGE", error);
+		rejection.put("ERROR_RECORD", record);
+		return rejection;
+	}
+
+	private static boolean isEmpty(Object value) {
+		return value == null || value == JSONObject.NULL || (value instanceof String && ((String) value).isEmpty());
+	}
+
+	/*
+	 * the value of the field under another case, the gateway doesn't mind the case of the names
+	 */
+	private static Object ignoreCase(JSONObject values, String name) {
+		Iterator<?> names = values.keys();
+		while ( names.hasNext() ) {
+			String key = (String) names.next();
+			if ( key.equalsIgnoreCase(name) )
+				return values.opt(key);
+		}
+		return null;
+	}
+
+	/*
+	 * the field of the name under another case; only for the names not found as they are
+	 */
+	private static APIFieldDef ignoreCase(APIObjectDef def, String name) {
+		for ( int ix = 0; ix < def.size(); ix++ ) {
+			if ( def.getField(ix).getName().equalsIgnoreCase(name) )
+				return def.getField(ix);
+		}
+		return null;
+	}
+
+	private static StringBuilder append(StringBuilder errors, String object, String field, String error) {
+		if ( errors == null )
+			errors = new StringBuilder();
+		else
+			errors.append("; ");
+		return errors.append(object).append('.').append(field).append(' ').append(error);
+	}
+}
@@ -0,0 +1,283 @@
+package com.intacct.ws;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.XML;
+import org.json.XML.DecimalMode;
+
+import com.intacct.ws.exception.IntacctSDKRuntimeException;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Pull (StAX) parser of the gateway responses: walks response / operation / result and returns the result
+ * elements only, without building the tree of the whole response.
+ *
+ * A result is the JSONObject XML.toJSONObject() would give for the result element (status, function,
+ * controlid, errormessage, data), so it can go to APISession.processResult(). With a RecordSink the records
+ * (children of data) are handed to the sink as they are parsed and the data of the result only keeps its
+ * attributes (listtype, count, totalcount, numremaining, resultId).
+ *
+ * rawData() is the pass-through alternative: it checks the status with a plain text scan and returns the
+ * data element of the response as it is.
+ *
+ * The elements are converted like XML.toJSONObject does: attributes and child elements are keys, repeated
+ * elements become arrays, values go through XML.stringToValue, an empty element is "". The decimal numbers
+ * (amounts) are converted as the XML.DecimalMode says: Double by default, BigDecimal or left as text.
+ */
+public class APIResponseParser {
+
+	/**
+	 * Receives the records of the data elements, in the order of the response
+	 */
+	public interface RecordSink {
+
+		/**
+		 * @param String object      the name of the record element (the object, as spelled by the gateway)
+		 * @param JSONObject record  the record
+		 */
+		public void record(String object, JSONObject record);
+	}
+
+	private final static XMLInputFactory factory = XMLInputFactory.newInstance();
+	static {
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	}
+
+	private APIResponseParser() {
+	}
+
+	/**
+	 * @param Reader in        the response
+	 * @param RecordSink sink  receives the records; null to keep them in the data of their result
+	 * @return the result elements, in the order of the response (one per function)
+	 * @throws IntacctSDKRuntimeException if the response is not valid XML or the whole request has been
+	 * rejected (errormessage of the response)
+	 */
+	public static List<JSONObject> parse(Reader in, RecordSink sink) throws IntacctSDKRuntimeException {
+		return parse(in, sink, DecimalMode.DOUBLE);
+	}
+
+	/**
+	 * @param Reader in             the response
+	 * @param RecordSink sink       receives the records; null to keep them in the data of their result
+	 * @param DecimalMode decimals  the conversion of the decimal values
+	 * @return the result elements, in the order of the response (one per function)
+	 * @throws IntacctSDKRuntimeException if the response is not valid XML or the whole request has been
+	 * rejected (errormessage of the response)
+	 */
+	public static List<JSONObject> parse(Reader in, RecordSink sink, DecimalMode decimals)
+			throws IntacctSDKRuntimeException {
+		List<JSONObject> results = new ArrayList<JSONObject>();
+		XMLStreamReader reader = null;
+		try {
+			reader = factory.createXMLStreamReader(in);
+			reader.nextTag();
+			if ( !"response".equals(reader.getLocalName()) )
+				throw new IntacctSDKRuntimeException("Invalid XML response: " + reader.getLocalName() + " element");
+
+			JSONObject error = null;
+			while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+				String name = reader.getLocalName();
+				if ( name.equals("operation") ) {
+					while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+						if ( reader.getLocalName().equals("result") )
+							results.add(result(reader, sink, decimals));
+						else
+							skip(reader);
+					}
+				} else if ( name.equals("errormessage") ) {
+					Object value = element(reader, decimals);
+					error = value instanceof JSONObject ? (JSONObject) value : new JSONObject();
+				} else {
+					skip(reader);
+				}
+			}
+			if ( error != null && results.isEmpty() )
+				throw new IntacctSDKRuntimeException("Request has failed: " + describe(error));
+			return results;
+		} catch (XMLStreamException ex) {
+			throw new IntacctSDKRuntimeException("Invalid XML response: " + ex.getMessage());
+		} finally {
+			if ( reader != null ) {
+				try {
+					reader.close();
+				} catch (XMLStreamException ex) {
+					// nothing left to read
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the first result of the response
+	 * @throws IntacctSDKRuntimeException if the response has no result
+	 */
+	public static JSONObject parseResult(Reader in, RecordSink sink) throws IntacctSDKRuntimeException {
+		return parseResult(in, sink, DecimalMode.DOUBLE);
+	}
+
+	/**
+	 * @return the first result of the response, the decimal values converted as decimals says
+	 * @throws IntacctSDKRuntimeException if the response has no result
+	 */
+	public static JSONObject parseResult(Reader in, RecordSink sink, DecimalMode decimals)
+			throws IntacctSDKRuntimeException {
+		List<JSONObject> results = parse(in, sink, decimals);
+		if ( results.isEmpty() )
+			throw new IntacctSDKRuntimeException("Invalid XML response: no result element");
+		return results.get(0);
+	}
+
+	/**
+	 * Lightweight scan of a single function response, without parsing it: the data element of the result
+	 * exactly as sent by the gateway, if the status of the result is success
+	 *
+	 * @param String res  the raw response
+	 * @return the data element, "" for a successful result without data, null if the result is not a
+	 * success (or there is no result, or the response is truncated): parse the response to get the details
+	 * of the error
+	 */
+	public static String rawData(String res) {
+		int result = res.indexOf("<result>");
+		if ( result < 0 )
+			return null;
+		int status = res.indexOf("<status>", result);
+		if ( status < 0 || !res.startsWith("success</status>", status + "<status>".length()) )
+			return null;
+		int resultEnd = res.lastIndexOf("</result>");
+		if ( resultEnd < status )
+			// truncated response
+			return null;
+		int data = status;
+		while ( (data = res.indexOf("<data", data + 1)) >= 0 && data < resultEnd ) {
+			char next = res.charAt(data + "<data".length());
+			if ( next == ' ' || next == '>' || next == '/' || next == '\t' || next == '\r' || next == '\n' )
+				break;
+		}
+		if ( data < 0 || data > resultEnd )
+			return "";
+		int tagEnd = res.indexOf('>', data);
+		if ( tagEnd < 0 )
+			return null;
+		if ( res.charAt(tagEnd - 1) == '/' )
+			return res.substring(data, tagEnd + 1);
+		int dataEnd = res.lastIndexOf("</data>", resultEnd);
+		if ( dataEnd < tagEnd )
+			return null;
+		return res.substring(data, dataEnd + "</data>".length());
+	}
+
+	/*
+	 * the result element; the reader is on its start tag and is left on its end tag
+	 */
+	private static JSONObject result(XMLStreamReader reader, RecordSink sink, DecimalMode decimals)
+			throws XMLStreamException {
+		JSONObject result = new JSONObject();
+		while ( reader.next() != XMLStreamConstants.END_ELEMENT ) {
+			if ( !reader.isStartElement() )
+				continue;
+			String name = name(reader);
+			if ( sink != null && name.equals("data") ) {
+				JSONObject data = attributes(reader, new JSONObject(), decimals);
+				while ( reader.next() != XMLStreamConstants.END_ELEMENT ) {
+					if ( !reader.isStartElement() )
+						continue;
+					String object = name(reader);
+					Object record = element(reader, decimals);
+					sink.record(object, record instanceof JSONObject ? (JSONObject) record
+							: "".equals(record) ? new JSONObject() : new JSONObject().put("content", record));
+				}
+				result.accumulate(name, data);
+			} else {
+				result.accumulate(name, element(reader, decimals));
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * one element as XML.toJSONObject converts it; the reader is on its start tag and is left on its end tag
+	 */
+	private static Object element(XMLStreamReader reader, DecimalMode decimals) throws XMLStreamException {
+		JSONObject element = attributes(reader, new JSONObject(), decimals);
+		while ( true ) {
+			switch ( reader.next() ) {
+				case XMLStreamConstants.START_ELEMENT:
+					String name = name(reader);
+					element.accumulate(name, element(reader, decimals));
+					break;
+				case XMLStreamConstants.CHARACTERS:
+					String text = reader.getText().trim();
+					if ( text.length() > 0 )
+						element.accumulate("content", XML.stringToValue(text, decimals));
+					break;
+				case XMLStreamConstants.CDATA:
+					if ( reader.getTextLength() > 0 )
+						element.accumulate("content", reader.getText());
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					if ( element.length() == 0 )
+						return "";
+					if ( element.length() == 1 && element.has("content") )
+						return element.opt("content");
+					return element;
+				default:
+					// comments, processing instructions
+			}
+		}
+	}
+
+	private static JSONObject attributes(XMLStreamReader reader, JSONObject element, DecimalMode decimals) {
+		for ( int ix = 0; ix < reader.getAttributeCount(); ix++ ) {
+			String prefix = reader.getAttributePrefix(ix);
+			String name = prefix == null || prefix.isEmpty() ? reader.getAttributeLocalName(ix)
+					: prefix + ":" + reader.getAttributeLocalName(ix);
+			element.accumulate(name, XML.stringToValue(reader.getAttributeValue(ix), decimals));
+		}
+		return element;
+	}
+
+	private static String name(XMLStreamReader reader) {
+		String prefix = reader.getPrefix();
+		return prefix == null || prefix.isEmpty() ? reader.getLocalName() : prefix + ":" + reader.getLocalName();
+	}
+
+	/*
+	 * skips the element the reader is on, leaving the reader on its end tag
+	 */
+	private static void skip(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while ( depth > 0 ) {
+			int event = reader.next();
+			if ( event == XMLStreamConstants.START_ELEMENT )
+				depth++;
+			else if ( event == XMLStreamConstants.END_ELEMENT )
+				depth--;
+		}
+	}
+
+	private static String describe(JSONObject errormessage) {
+		Object error = errormessage.opt("error");
+		if ( error instanceof JSONArray )
+			error = ((JSONArray) error).opt(0);
+		if ( !(error instanceof JSONObject) )
+			return errormessage.toString();
+		JSONObject first = (JSONObject) error;
+		return first.optString("errorno") + "   " + first.optString("description") + "   "
+				+ first.optString("description2") + "   " + first.optString("correction");
+	}
+}
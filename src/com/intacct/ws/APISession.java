@@ -54,7 +54,16 @@
  * Notes (habrudan) Feb 2015
  * ------
  * this is a SINGLETON; 
- * NOT thread safe due to private variables that store call details and are not synchronized
+ * thread safe: the details of a call are kept in its own RequestContext, so one session can be shared by 
+ * many worker threads (getLastRequest / getLastResponse are the ones of the most recent call, from any thread) 
+ * 
+ * threading model: the services block the calling thread until the response is read, on a connection leased from 
+ * the transport (at most PooledHttpTransport.DEFAULT_MAX_PER_ROUTE per endpoint, the other callers wait for one up 
+ * to DEFAULT_LEASE_TIMEOUT). The *Async services, APIBatch.executeAsync, the batches of APIBulkWriter and the 
+ * prefetch of APIPageReader run on the async executor of the session: by default one shared pool of as many 
+ * daemon threads as the connections of the default transport, the tasks beyond that are queued (unbounded) 
+ * instead of waiting for a connection. A task of that executor must not wait for another task of it 
+ * (e.g. calling join() on an *Async future), since the queued task may never get a thread. 
  * 
  * introduced the IntacctSDKRuntimeException RuntimeException in the services interface; 
  * this needs to be caught by the caller in order to get the exception details and context
@@ -101,26 +110,38 @@
 
 package com.intacct.ws;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.json.XML;
 
 import com.intacct.ws.exception.IntacctSDKRuntimeException;
+import com.intacct.ws.transport.APITransport;
+import com.intacct.ws.transport.FormEncodedBody;
+import com.intacct.ws.transport.GzipRequestBody;
+import com.intacct.ws.transport.PooledHttpTransport;
+import com.intacct.ws.transport.RequestBody;
+import com.intacct.ws.transport.ResponseBody;
 import com.intacct.ws.util.ConfigConstants;
 import com.intacct.ws.util.ConfigLoader;
+import com.intacct.ws.util.StringBuilderWriter;
 
 public class APISession<ReturnType> {
 	
@@ -154,22 +175,32 @@ public class APISession<ReturnType> {
 	final String xml_response_header = "<?xml version=\"1.0\" encoding=\"UTF-8\"?> \n <result>";
 	final String xml_response_footer = "</result>"; 
 	
-	private static boolean dryRun = false;
-	private String lastRequest = null;
-	private String lastResponse = null;
+	// the request of the last call (its XML is built on demand)
+	private volatile RequestEnvelope.Request lastRequest = null;
+	// the fixed parts of the requests, built on the first call
+	private volatile RequestEnvelope envelope = null;
+	private volatile String lastResponse = null;
 	
 	private String dtdVersion="3.0";
 	private String dtdVersion21 = "2.1";
 	private static boolean multiFunc=false; 
 	
-	private enum SESSION_OPER_TYPE  { CREATE, UPDATE, DELETE, READ, DETAIL, INSPECT}; 
+	enum SESSION_OPER_TYPE  { CREATE, UPDATE, DELETE, READ, DETAIL, INSPECT}; 
 	
 	final static int DEFAULT_RECORDS = 100;
 	
+	// create and update requests smaller than this are never compressed  
+	final static int COMPRESS_MIN_LENGTH = 16 * 1024;
+	
+	// initial buffer size per record of a create / update
+	final static int RECORD_XML_SIZE = 512;
+	
 	final static int DEFAULT_PAGESIZE = 1000;
 	final static int DEFAULT_MAXRETURN = 100000;
 	
 	private String senderId, senderPassword, sessionId, endpoint;
+	// when the gateway session was logged in, earlier than this session for a restored one
+	private long loginTime = System.currentTimeMillis();
 	private RETURN_FORMAT returnFormat;
 	private enum RETURN_FORMAT {  CSVOBJ("csv"), XMLOBJ("xml"), JSONOBJ("json"); 
 		private String formatName; 
@@ -182,16 +213,59 @@ public class APISession<ReturnType> {
 	}; 
 
 	private boolean transaction = false;
+	private volatile boolean rawXml = false;
+	private volatile XML.DecimalMode decimalMode = XML.DecimalMode.DOUBLE;
 	private APISession<ReturnType> session = null;
 	
-	private static int requestCounter = 0;
-	private APITracer tracer = null;
+	private static final AtomicInteger requestCounter = new AtomicInteger();
+	private volatile APITracer tracer = null;
+	
+	/*
+	 * shared keep-alive connection pool used by all the sessions unless a session has its own transport 
+	 */
+	private static volatile APITransport defaultTransport = new PooledHttpTransport();
+	private volatile APITransport transport = defaultTransport;
+	private volatile boolean compressRequests = false;
 	
 	/*
-	 * keeps the type of the objects that is being worked on; create and update can have multiple
-	 * NOT thread safe  
+	 * runs the *Async variants of the services: as many threads as the connections the default transport opens 
+	 * to one endpoint, the calls beyond that wait in the queue instead of parking a thread on the connection 
+	 * pool; daemon threads so a pending call doesn't keep the JVM alive, released after a minute idle 
 	 */
-	private List<String> objectType = new ArrayList<String>();
+	private static final ThreadPoolExecutor defaultAsyncExecutor = new ThreadPoolExecutor(
+			PooledHttpTransport.DEFAULT_MAX_PER_ROUTE, PooledHttpTransport.DEFAULT_MAX_PER_ROUTE, 
+			60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "intacct-async-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	static {
+		defaultAsyncExecutor.allowCoreThreadTimeOut(true);
+	}
+	private volatile Executor asyncExecutor = defaultAsyncExecutor;
+	
+	/*
+	 * immutable details of one call: the type of operation and the type of the objects that are being 
+	 * worked on (create and update can have multiple); passed along the call instead of being kept in 
+	 * the session so that concurrent calls never see each other's state
+	 */
+	static final class RequestContext {
+		final SESSION_OPER_TYPE typeOp;
+		final List<String> objectType;
+		
+		RequestContext(SESSION_OPER_TYPE typeOp, List<String> objectType) {
+			this.typeOp = typeOp;
+			this.objectType = objectType == null ? Collections.<String>emptyList() 
+					: Collections.unmodifiableList(new ArrayList<String>(objectType));
+		}
+		
+		RequestContext(SESSION_OPER_TYPE typeOp, String object) {
+			this(typeOp, Collections.singletonList(object));
+		}
+	}
 	
 	// constructor
 	private APISession (RETURN_FORMAT returnFormat) {
@@ -229,13 +303,58 @@ public class APISession<ReturnType> {
 		return session;
 	}
 	
+	/**
+	 * Login that tries the session saved in the store first: a saved session that is not expired costs one 
+	 * getAPISession validation instead of a login; when it is missing or rejected by the gateway the credentials 
+	 * are used. The session is saved back to the store either way.
+	 * 
+	 * @param store the saved sessions, e.g. APIEncryptedTokenStore.getDefault()
+	 */
+	public static APISession<JSONObject> getJSONInstance(String companyId, String userId, String password, 
+			String senderId, String senderPassword, String entityType, String entityId, APISessionTokenStore store) 
+					throws IOException {
+		String key = tokenKey(companyId, userId, entityType, entityId);
+		APISessionToken token = store.load(key);
+		if ( token != null && !token.isExpired() ) {
+			try {
+				APISession<JSONObject> session = APISession.getJSONInstance(token.getSessionId(), senderId, senderPassword);
+				// same login, same expiry: the restore does not make the gateway session younger
+				session.loginTime = token.getExpiresAt() - APISessionToken.DEFAULT_TTL;
+				saveToken(store, key, session);
+				return session;
+			} catch (IntacctSDKRuntimeException ex) {
+				// the gateway has ended the session
+				store.remove(key);
+			}
+		}
+		APISession<JSONObject> session = APISession.getJSONInstance(companyId, userId, password, senderId, senderPassword, 
+				entityType, entityId);
+		saveToken(store, key, session);
+		return session;
+	}
+	
+	/*
+	 * key of a login in a APISessionTokenStore 
+	 */
+	static String tokenKey(String companyId, String userId, String entityType, String entityId) {
+		return companyId + "/" + userId + "/" + (entityType == null ? "" : entityType) + "/" + (entityId == null ? "" : entityId);
+	}
+	
+	static void saveToken(APISessionTokenStore store, String key, APISession<?> session) {
+		store.save(key, new APISessionToken(session.sessionId, session.endpoint, 
+				session.loginTime + APISessionToken.DEFAULT_TTL));
+	}
+	
 	public static APISession<JSONObject> getJSONInstance(String sessionId, String senderId, String senderPassword) throws IOException {
 
 		APISession<JSONObject> session = new APISession<JSONObject>(APISession.RETURN_FORMAT.JSONOBJ);
 		session.connect(sessionId, senderId, senderPassword);
 		return session;
 	}
-/*	
+	/**
+	 * The XML sessions return the XML documents of the results, as strings (see setRawXml for the data of
+	 * the responses as they are)
+	 */
 	public static APISession<String> getXMLInstance(String companyId, String userId,
 			String password, String senderId, String senderPassword) throws IOException {
 		return APISession.getXMLInstance(companyId, userId, password, senderId, senderPassword, null, null);
@@ -256,7 +375,7 @@ public class APISession<ReturnType> {
 		return session;
 	}
 
-	
+/*	
 	public static APISession<String> getCSVInstance(String companyId, String userId,
 			String password, String senderId, String senderPassword) throws IOException {
 		return APISession.getCSVInstance(companyId, userId, password, senderId, senderPassword, null, null);
@@ -279,16 +398,27 @@ public class APISession<ReturnType> {
 	
 	*/
 	
+	/*
+	 * session of an existing login (see APISessionPool): no round trip to the gateway 
+	 */
+	static APISession<JSONObject> getJSONInstance(String sessionId, String endpoint, String senderId, String senderPassword) {
+		APISession<JSONObject> session = new APISession<JSONObject>(APISession.RETURN_FORMAT.JSONOBJ);
+		session.sessionId = sessionId;
+		session.endpoint = endpoint;
+		session.senderId = senderId;
+		session.senderPassword = senderPassword;
+		return session;
+	}
+	
 	private void connect(String companyId, String userId,
 			String password, String senderId, String senderPassword, String entityType, String entityId) throws IOException {
 		
 		String xml = buildHeaderXML(companyId, userId, password, senderId, senderPassword, entityType, entityId);
 		
 		// connection  
-		String response = execute(xml, ConfigLoader.getProperty(ConfigConstants.END_POINT_URL));
+		JSONObject joXML = login(xml, ConfigLoader.getProperty(ConfigConstants.END_POINT_URL));
 		
 		// validation of the connection's response
-		JSONObject joXML = XML.toJSONObject(response);
 		validateConnection(joXML);	
 		
 		// save the set of user credentials
@@ -301,10 +431,9 @@ public class APISession<ReturnType> {
 		String xml = buildSessionHeaderXML(sessionId, senderId, senderPassword);
 		
 		// connection  
-		String response = execute(xml,  ConfigLoader.getProperty(ConfigConstants.END_POINT_URL));
+		JSONObject joXML = login(xml, ConfigLoader.getProperty(ConfigConstants.END_POINT_URL));
 					
 		// validation of the connection's response
-		JSONObject joXML = XML.toJSONObject(response);
 		validateConnection(joXML);	
 					
 		// save the set of user credentials
@@ -312,6 +441,18 @@ public class APISession<ReturnType> {
         this.senderPassword = senderPassword;
 	}
 	
+	/*
+	 * posts the login request and parses the response straight from the response buffer 
+	 */
+	private JSONObject login(String xml, String endpoint) throws IOException {
+		ResponseBody body = transport.execute(new FormEncodedBody(xml), endpoint);
+		try {
+			return XML.toJSONObject(body.openReader());
+		} finally {
+			body.release();
+		}
+	}
+	
 	/**
      * Create one or more records.  Object types can be mixed and can be either standard or custom.
      * Check the developer documentation to see which standard objects are supported in this method
@@ -353,8 +494,6 @@ public class APISession<ReturnType> {
 	public ReturnType create(List<String> objects, JSONArray records) throws IntacctSDKRuntimeException, Exception
     {
     	String createXml;
-    	// set private member 
-    	objectType = objects; 
     	int nbRecords = APIUtil.getNbRecords(records);
     	
     	if ( nbRecords == 0 )
@@ -364,16 +503,9 @@ public class APISession<ReturnType> {
     		throw new IntacctSDKRuntimeException("Attempting to create more than" +  DEFAULT_RECORDS + "records. (" + nbRecords + ") ");
 
         // Convert the record into a xml structure
-    	StringBuffer b = new StringBuffer(); 
-    	for ( int ix = 0; ix < nbRecords; ix++ ) {
-    		JSONObject r = records.getJSONObject(ix);
-    		b.append(XML.toString(r));
-    	}
-        createXml = "<create>"+ b.toString() + "</create>";
+        createXml = buildRecordsXml("create", records);
         
-    	JSONObject jObj = (JSONObject) post(createXml, multiFunc, SESSION_OPER_TYPE.CREATE); 
-
-        return ((ReturnType) jObj);
+    	return post(createXml, multiFunc, new RequestContext(SESSION_OPER_TYPE.CREATE, objects)); 
 
     }
     
@@ -394,8 +526,6 @@ public class APISession<ReturnType> {
 	public ReturnType update(List<String> objects, JSONArray records) throws IntacctSDKRuntimeException, Exception  {
     	String updateXml;
     	int nbRecords = APIUtil.getNbRecords(records);
-    	// set the private member 
-    	objectType = objects;
     	
     	if ( nbRecords == 0 )
     		return null;
@@ -405,15 +535,9 @@ public class APISession<ReturnType> {
     				"Attempting to create more than" +  DEFAULT_RECORDS + "records. (" + nbRecords + ") ");
 
         // Convert the record into a xml structure
-    	StringBuffer b = new StringBuffer(); 
-    	for ( int ix = 0; ix < nbRecords; ix++ ) {
-    		JSONObject r = records.getJSONObject(ix);
-    		b.append(XML.toString(r));
-    	}
-    	updateXml = "<update>"+ b.toString() + "</update>";
+    	updateXml = buildRecordsXml("update", records);
 
-    	JSONObject jObj = (JSONObject) post(updateXml, multiFunc, SESSION_OPER_TYPE.UPDATE);
-        return ((ReturnType) jObj);
+    	return post(updateXml, multiFunc, new RequestContext(SESSION_OPER_TYPE.UPDATE, objects));
 
     }
     
@@ -429,8 +553,6 @@ public class APISession<ReturnType> {
     public boolean delete(String object, String keysList) throws IntacctSDKRuntimeException, Exception
     {
     	String deleteXml;
-       	// set private member
-    	objectType.add(object); 
     	
     	if ( object == null || object.isEmpty() )
     		throw new IntacctSDKRuntimeException("DELETE - Object is null");
@@ -438,12 +560,14 @@ public class APISession<ReturnType> {
     	if ( keysList == null || keysList.length() == 0 )
     		return false;
     	
-    	deleteXml = "<delete><object>" + object + "</object><keys>" + keysList + "</keys>" + "</delete>";
+    	deleteXml = buildDeleteXml(object, keysList);
  
     	
-    	JSONObject jRetObj = (JSONObject) post(deleteXml, multiFunc, SESSION_OPER_TYPE.DELETE);
-    	//System.out.println("Return Json Object for delete: " + jRetObj.toString(2));
-        return jRetObj.getString("OVERALL_STATUS").equals("Success");
+    	ReturnType result = post(deleteXml, multiFunc, new RequestContext(SESSION_OPER_TYPE.DELETE, object));
+    	// the XML results are returned only for a success, a failure throws
+    	if ( !(result instanceof JSONObject) )
+    		return true;
+        return ((JSONObject) result).getString("OVERALL_STATUS").equals("Success");
     }
     
     /**
@@ -702,24 +826,15 @@ public class APISession<ReturnType> {
 		
 		ReturnType result;
 		String readXml;
-		// set the private member 
-    	objectType.add(object); 
 		
 		if ( object == null || object.isEmpty() )
     		throw new IntacctSDKRuntimeException("READ - Object is null");
 			
-		readXml = "<read><object>" + object + "</object>";
-		
-		if ( keys != null && ! keys.isEmpty() )
-			readXml += "<keys>" + keys + "</keys>";
-		else 
-			readXml += "<keys/>";
-		
-		readXml += "<fields>" + fields + "</fields><returnFormat>" + this.getReturnFormatString() + "</returnFormat></read>";
+		readXml = buildReadXml("read", object, keys, null, fields, this.getReturnFormatString());
 		
 		System.out.println("readXML payload:  "  + readXml);
 		
-		result = post(readXml, multiFunc, SESSION_OPER_TYPE.READ);
+		result = post(readXml, multiFunc, new RequestContext(SESSION_OPER_TYPE.READ, object));
         
 		return result;
 	}
@@ -733,6 +848,9 @@ public class APISession<ReturnType> {
      * @param int         maxRecords   number of records to return.  Defaults to 100000
      * @param string      returnFormat Pass one of the valid constants from api_returnFormat class
      *
+     * The XML sessions return a single response, so at most DEFAULT_PAGESIZE (1000) records: a larger 
+     * maxRecords is rejected, use newPageReader() to read all the pages of the query.
+     *
      * @return JSONArray 	 result 			Array of objects
      * @throws Exception 
      */
@@ -746,12 +864,14 @@ public class APISession<ReturnType> {
     	JSONArray jArrResponse, jArrTemp = null;
     	JSONObject jObj = null, jsonObjResp = new JSONObject();
 
-    	// set the private member 
-    	objectType.add(object); 
     	
     	if ( object == null || object.isEmpty() )
     		throw new IntacctSDKRuntimeException("ReadByQuery - Object is null");
     	
+    	if ( this.returnFormat == RETURN_FORMAT.XMLOBJ && maxRecords > DEFAULT_PAGESIZE )
+    		throw new IntacctSDKRuntimeException("ReadByQuery - at most " + DEFAULT_PAGESIZE 
+    				+ " records on an XML session, use newPageReader for more");
+    	
         if ( maxRecords < DEFAULT_PAGESIZE )
         	pagesize = maxRecords;
         else 
@@ -759,12 +879,14 @@ public class APISession<ReturnType> {
         
         query = APIUtil.htmlspecialchars(query);
 
-        xml = "<readByQuery><object>" + object + "</object><query>" + query + "</query><fields>" + fields.toUpperCase() + 
-        		"</fields><returnFormat>" + this.getReturnFormatString() + "</returnFormat>";
-        xml += "<pagesize>" + pagesize + "</pagesize>";
-        xml += "</readByQuery>";
+        xml = buildReadByQueryXml(object, query, fields, pagesize, this.getReturnFormatString());
 
-        jsonObjResp = (JSONObject) post(xml, multiFunc, SESSION_OPER_TYPE.READ);
+        if ( this.returnFormat == RETURN_FORMAT.XMLOBJ ) {
+        	// one page, maxRecords fits in it
+        	return post(xml, multiFunc, new RequestContext(SESSION_OPER_TYPE.READ, object));
+        }
+
+        jsonObjResp = (JSONObject) post(xml, multiFunc, new RequestContext(SESSION_OPER_TYPE.READ, object));
 		
         jArrResponse = jsonObjResp.getJSONArray("READ_RESULT");
         nbRecords = APIUtil.getNbRecords(jArrResponse);
@@ -777,13 +899,15 @@ public class APISession<ReturnType> {
         thiscount = nbRecords;
         
         // we have no idea if there are more if CSV is returned, so just check
-        // if the last count returned was  pageSize
+        // if the last count returned was  pageSize (see APIPageReader for the xml format that knows it)
         while (thiscount == pagesize && nbRecords < maxRecords) {
         	moreResults = true; 
             xml = "<readMore><object>" + object + "</object></readMore>";
             try {
-            	jArrTemp = (JSONArray)  post(xml, multiFunc, SESSION_OPER_TYPE.READ);
-                thiscount = APIUtil.getNbRecords(jArrResponse);
+            	jArrTemp = ((JSONObject) post(xml, multiFunc, new RequestContext(SESSION_OPER_TYPE.READ, object)))
+            			.getJSONArray("READ_RESULT");
+            	// count the page just read, not the records accumulated so far
+                thiscount = APIUtil.getNbRecords(jArrTemp);
                 nbRecords += thiscount; 
                 
                 // add the new found object ro the response 
@@ -803,6 +927,32 @@ public class APISession<ReturnType> {
         return (ReturnType) jsonObjResp;
     }
  
+    /**
+     * Streaming variant of readByQuery for large results: the records are returned one by one and only about
+     * one page of them is in memory at any time (see APIRecordIterator)
+     *
+     * @param String      object       the object upon which to run the query
+     * @param String      query        the query string to execute.  Use SQL operators
+     * @param String      fields       A comma separated list of fields to return
+     * @param int         maxRecords   the maximum number of records to return
+     *
+     * @return APIRecordIterator  the records; close it if it is not read to the end 
+     */
+    public APIRecordIterator readByQueryIterator(String object, String query, String fields, int maxRecords) {
+    	APIPageReader pages = newPageReader(object, query, fields);
+    	pages.setMaxRecords(maxRecords);
+    	pages.setPrefetch(1);
+    	return new APIRecordIterator(pages);
+    }
+    
+    /**
+     * @see APISession#readByQueryIterator(String, String, String, int)
+     * @return Stream<JSONObject> the records; close the stream if it is not consumed to the end 
+     */
+    public Stream<JSONObject> readByQueryStream(String object, String query, String fields, int maxRecords) {
+    	return readByQueryIterator(object, query, fields, maxRecords).stream();
+    }
+ 
     /**
      * Read an object by its name field (vid for standard objects)
      *
@@ -817,22 +967,13 @@ public class APISession<ReturnType> {
 		ReturnType result;
 		String readXml;
 
-		// set the private member
-    	objectType.add(object); 
 		
 		if ( object == null || object.isEmpty() )
     		throw new IntacctSDKRuntimeException("ReadByName - Object is null");
 			
-		readXml = "<readByName><object>" + object + "</object>";
+		readXml = buildReadXml("readByName", object, keys, null, fields, this.getReturnFormatString());
 		
-		if ( keys != null && ! keys.isEmpty() )
-			readXml += "<keys>" + keys + "</keys>";
-		else 
-			readXml += "<keys/>";
-		
-		readXml += "<fields>" + fields + "</fields><returnFormat>" + this.getReturnFormatString() + "</returnFormat></readByName>";
-		
-		result = post(readXml, multiFunc, SESSION_OPER_TYPE.READ);
+		result = post(readXml, multiFunc, new RequestContext(SESSION_OPER_TYPE.READ, object));
         
 		return result;
 	}
@@ -852,8 +993,6 @@ public class APISession<ReturnType> {
 		
 		ReturnType result;
 		String readXml;
-    	// set the private member
-    	objectType.add(object); 
 		
 		if ( object == null || object.isEmpty() )
     		throw new IntacctSDKRuntimeException("ReadRelated - Object is null");
@@ -862,16 +1001,9 @@ public class APISession<ReturnType> {
 		if ( relation == null || relation.isEmpty() )
 			return read(object, keys, fields);
 			
-		readXml = "<readRelated><object>" + object + "</object>";
-		
-		if ( keys != null && ! keys.isEmpty() )
-			readXml += "<keys>" + keys + "</keys>";
-		else 
-			readXml += "<keys/>";
+		readXml = buildReadXml("readRelated", object, keys, relation, fields, this.getReturnFormatString());
 		
-		readXml += "<relation>" + relation + "</relation><fields>" + fields + "</fields><returnFormat>" + this.getReturnFormatString() + "</returnFormat></readRelated>";
-		
-		result = post(readXml, multiFunc, SESSION_OPER_TYPE.READ);
+		result = post(readXml, multiFunc, new RequestContext(SESSION_OPER_TYPE.READ, object));
         
 		return result;
 	}
@@ -889,33 +1021,76 @@ public class APISession<ReturnType> {
 	public ReturnType inspect(String object, boolean detail) throws IntacctSDKRuntimeException, Exception
     {
         String inspectXML = null;
-        JSONObject jResObj = null;
         SESSION_OPER_TYPE insp_value;
         
-    	// set the private member
-    	objectType.add(object); 
     	
 		if ( object == null || object.isEmpty() )
     		throw new IntacctSDKRuntimeException("Inspect - Object is null");
         
-		inspectXML = "<inspect";
-        if ( detail ) { 
-        	inspectXML += " detail='" + detail + "'>";
-        	insp_value = SESSION_OPER_TYPE.DETAIL;
-        }
-        else { 
-        	inspectXML += ">";
-        	insp_value = SESSION_OPER_TYPE.INSPECT;
-        	
-    	}
-        inspectXML += "<object>" + object + "</object></inspect>";
+        insp_value = detail ? SESSION_OPER_TYPE.DETAIL : SESSION_OPER_TYPE.INSPECT;
+        inspectXML = buildInspectXml(object, detail);
 
-        jResObj = (JSONObject) post(inspectXML, multiFunc, insp_value);
-        
-        // TODO: need to handle XML and CSV formats too. 
-        return (ReturnType) jResObj;
+        return post(inspectXML, multiFunc, new RequestContext(insp_value, object));
     }
         
+	/*
+	 * XML of the functions; shared by the services and the multi function requests of APIBatch 
+	 */
+	
+	static String buildRecordsXml(String function, JSONArray records) {
+		int nbRecords = APIUtil.getNbRecords(records);
+		// the records are written in place into one buffer (no string per record or per field)
+		StringBuilderWriter b = new StringBuilderWriter(RECORD_XML_SIZE * nbRecords); 
+		b.write('<');
+		b.write(function);
+		b.write('>');
+    	for ( int ix = 0; ix < nbRecords; ix++ ) {
+    		XML.write(records.getJSONObject(ix), null, b);
+    	}
+    	b.write("</");
+    	b.write(function);
+    	b.write('>');
+    	return b.toString();
+	}
+	
+	static String buildDeleteXml(String object, String keysList) {
+		return "<delete><object>" + object + "</object><keys>" + keysList + "</keys>" + "</delete>";
+	}
+	
+	static String buildReadXml(String function, String object, String keys, String relation, String fields, 
+			String returnFormat) {
+		String readXml = "<" + function + "><object>" + object + "</object>";
+		
+		if ( keys != null && ! keys.isEmpty() )
+			readXml += "<keys>" + keys + "</keys>";
+		else 
+			readXml += "<keys/>";
+		
+		if ( relation != null )
+			readXml += "<relation>" + relation + "</relation>";
+		
+		readXml += "<fields>" + fields + "</fields><returnFormat>" + returnFormat + "</returnFormat></" + function + ">";
+		return readXml;
+	}
+	
+	static String buildReadByQueryXml(String object, String query, String fields, int pagesize, String returnFormat) {
+        String xml = "<readByQuery><object>" + object + "</object><query>" + query + "</query><fields>" + fields.toUpperCase() + 
+        		"</fields><returnFormat>" + returnFormat + "</returnFormat>";
+        xml += "<pagesize>" + pagesize + "</pagesize>";
+        xml += "</readByQuery>";
+        return xml;
+	}
+	
+	static String buildInspectXml(String object, boolean detail) {
+		String inspectXML = "<inspect";
+        if ( detail ) 
+        	inspectXML += " detail='" + detail + "'>";
+        else 
+        	inspectXML += ">";
+        inspectXML += "<object>" + object + "</object></inspect>";
+        return inspectXML;
+	}
+	
 	/**
      * Internal method for posting the invocation to the Intacct XML Gateway
 	 * @param typeOp 
@@ -928,51 +1103,60 @@ public class APISession<ReturnType> {
      * @throws IntacctSDKRuntimeException, Exception
      * @return ReturnType response document in the format requested via the get<>Instance() call
      * 
-     *  relies on the side effect of initialization of the objectType with the list of object types that will be used (see create and update)
+     *  the RequestContext carries the type of operation and the list of object types that will be used (see create and update)
      *   
      */ 
 	@SuppressWarnings("unchecked")
-	private ReturnType post(String xml, boolean multiFunc, SESSION_OPER_TYPE typeOp) 
+	private ReturnType post(String xml, boolean multiFunc, RequestContext ctx) 
 						throws IntacctSDKRuntimeException, IOException, Exception {
 		
+		SESSION_OPER_TYPE typeOp = ctx.typeOp;
 		ReturnType resObj = null;
 		boolean retry = true;
 		JSONObject data = null;
-		JSONObject jsonErrRes = new JSONObject(); 
-		JSONObject jsonRequest = XML.toJSONObject(xml);
-		setLastRequest(jsonRequest.toString(1));
-
-		System.out.println("JSON Request object: " + jsonRequest.toString(2));
 		
 		String res = "";
 	    
-	    xml = buildPostXml(xml, dtdVersion, multiFunc);
+	    RequestEnvelope.Request request = envelope().request(xml, multiFunc);
 	    
-	    APISession.requestCounter++;
-	    this.setLastRequest(xml);
-	    if ( this.tracer != null ) {
-	    	this.tracer.traceRequest(APISession.requestCounter, xml);
+	    int requestId = APISession.requestCounter.incrementAndGet();
+	    APITracer tracer = this.tracer;
+	    this.lastRequest = request;
+	    if ( tracer != null ) {
+	    	tracer.traceRequest(requestId, request.toString());
 	    }
 	    // retry five times on too many operations   
 	    res = "";
 	    while (retry) {
 	        // If we didn't get a response, we had a poorly constructed XML request.
-	    	
+	    	ResponseBody body = null;
 	        try {
-	        	res = execute(xml, this.endpoint);
+	        	body = send(this.transport, request, this.endpoint, this.compressRequests && request.xmlLength() >= COMPRESS_MIN_LENGTH
+	        			&& (typeOp == SESSION_OPER_TYPE.CREATE || typeOp == SESSION_OPER_TYPE.UPDATE));
+	        	res = body.toString();
 	        	//System.out.println("Raw xml result: " + res);
 	        	this.setLastResponse(res);
-	        	if ( this.tracer != null ) {
-	    	    	this.tracer.traceResponse(APISession.requestCounter, res);
+	        	if ( tracer != null ) {
+	    	    	tracer.traceResponse(requestId, res);
 	    	    }
 	        	// if "res" is empty, generate an error message
-	        	if ( res.equals("\r") )
+	        	if ( body.isBlank() )
 	        		throw new IntacctSDKRuntimeException("Result NULL: verify your input data");
 
+	        	if ( this.rawXml && this.returnFormat == RETURN_FORMAT.XMLOBJ ) {
+	        		// pass-through: the data element as it is; a failure goes the usual way for its details
+	        		String raw = APIResponseParser.rawData(res);
+	        		if ( raw != null ) {
+	        			resObj = (ReturnType) raw;
+	        			retry = false;
+	        			continue;
+	        		}
+	        	}
+
 	        	if ( (typeOp == SESSION_OPER_TYPE.CREATE) || (typeOp == SESSION_OPER_TYPE.UPDATE) 
 	        			|| (typeOp == SESSION_OPER_TYPE.DELETE) || (typeOp == SESSION_OPER_TYPE.DETAIL) || (typeOp == SESSION_OPER_TYPE.INSPECT)) {
 	        		// need to process the xml return result 
-	        		data = processResultString(res, typeOp);
+	        		data = processResultString(body, ctx);
 
 	        		switch ( this.returnFormat ) {
 		        		case JSONOBJ:
@@ -998,10 +1182,14 @@ public class APISession<ReturnType> {
 	        	} else {
 	        		// in case of Read* res is already a JSONArray, JSONObject for success case
 	        		// otherwise is an xml string containing the error codes 
-	        		if (res.contains("<?xml")) {
+	        		if ( body.firstToken() == '<' ) {
 	        			//System.out.println("Result is in xml format: \n" + res );
-	        			data = processResultString(res, typeOp);
+	        			data = processResultString(body, ctx);
 	        			resObj = (ReturnType) (xml_response_header + XML.toString(data) + xml_response_footer); 
+	        		} else if ( this.returnFormat == RETURN_FORMAT.JSONOBJ && typeOp == SESSION_OPER_TYPE.READ
+	        				&& ResponseBody.UTF8.equals(body.getCharset()) ) {
+	        			// parsed from the bytes of the response
+	        			resObj = (ReturnType) readResult(APIJsonParser.parse(body.openStream()));
 	        		} else {
 	        			resObj = proceedReturnResult(res, typeOp);
 	        		}
@@ -1009,39 +1197,11 @@ public class APISession<ReturnType> {
 	  // this might not be needed here since we are now looping over retry --->>>          break;
 	        	retry = false; 
 	        } catch (IntacctSDKRuntimeException sdkExc){
+	        	// no details: not an error of the records (invalid response)
+	        	if ( !isResultError(sdkExc) )
+	        		throw sdkExc;
 	        	// need to rearrange the result before throwing the exception to the caller
-	        	// extract the successfully processed records
-	        	jsonErrRes.put("OVERALL_STATUS", sdkExc.getJsonDetails().get("OVERALL_STATUS"));
-	        	jsonErrRes.put("CORRECT_RECORDS", sdkExc.getJsonDetails().get("CORRECT_RECORDS"));
-	        	//System.out.println("--- CORRECT_RECORDS:  " + sdkExc.getJsonDetails().get("CORRECT_RECORDS").toString());
-	        	JSONObject jsonErrMsg= new JSONObject() , jsonErrRec = new JSONObject();
-	        	JSONArray jsonErrArray = new JSONArray();
-	        	jsonErrMsg.put("ERROR_MESSAGE", sdkExc.getJsonDetails().get("ERROR_MSG"));
-	        	/*
-	        	 * This can be currently determined only for the operations that have a single object type 
-	        	 * in the request; for update and create since there can be multiple object types it is 
-	        	 * difficult to determine the record that has caused the exception 
-	        	 * 
-	        	 */
-	        	if (!(typeOp == SESSION_OPER_TYPE.CREATE) && !(typeOp == SESSION_OPER_TYPE.UPDATE) && !(typeOp == SESSION_OPER_TYPE.DELETE)) {
-	        		// find the record that caused the error
-	        		int errIdx = (Integer) sdkExc.getJsonDetails().get("countSuccessfulRecrds");
-	        		JSONObject records = jsonRequest.optJSONObject((String)jsonRequest.names().get(0));
-	        		Object reqObj = records.get(records.names().getString(0));
-	        		if ( reqObj instanceof JSONObject) {
-	        			jsonErrRec.put("ERROR_RECORD",reqObj);
-	        		} else if (reqObj instanceof JSONArray) {
-	        			jsonErrRec.put("ERROR_RECORD",((JSONArray)reqObj).getJSONObject(errIdx));    //<<<<<<<<<<<<<<<<<<<
-	        		} else {
-	        			jsonErrRec.put("ERROR_RECORD",reqObj);
-	        		}
-	        	} else {
-	        		jsonErrRec.put("ERROR_RECORD",""); 
-	        	}
-	        	jsonErrArray.put(0,jsonErrMsg);
-	        	jsonErrArray.put(1,jsonErrRec);
-	        	jsonErrRes.put("ERROR", jsonErrArray);
-	        	sdkExc.setJsonDetails(jsonErrRes);
+	        	sdkExc.setJsonDetails(errorDetails(sdkExc.getJsonDetails(), typeOp, xml));
 	        	throw sdkExc;
 	        
 	    	}  catch (IOException ex) {
@@ -1049,16 +1209,170 @@ public class APISession<ReturnType> {
 	        		throw new IntacctSDKRuntimeException("Result NULL: verify your input data");
 
 				throw ex;
-	        } 
+	        } finally {
+	        	if ( body != null )
+	        		body.release();
+	        }
 	    }
 	    
 	    // return the Object with the results
 		return resObj;		
 	}
 
+	/*
+	 * true if the exception is the one of processResult for a failed result, with its details
+	 */
+	static boolean isResultError(IntacctSDKRuntimeException sdkExc) {
+		JSONObject details = sdkExc.getJsonDetails();
+		return details != null && details.has("ERROR_MSG");
+	}
+
+	/**
+	 * Rearranges the details of a failed result (processResult) into the ones the services throw
+	 *
+	 * @param JSONObject details   the details of the processResult exception
+	 * @param typeOp               the type of operation of the function
+	 * @param String xml           the function payload, to find the record in error
+	 * @return {"OVERALL_STATUS": ..., "CORRECT_RECORDS": ..., "ERROR": [ {"ERROR_MESSAGE": ...}, {"ERROR_RECORD": ...} ]}
+	 */
+	static JSONObject errorDetails(JSONObject details, SESSION_OPER_TYPE typeOp, String xml) {
+		JSONObject jsonErrRes = new JSONObject();
+		// extract the successfully processed records
+		jsonErrRes.put("OVERALL_STATUS", details.get("OVERALL_STATUS"));
+		jsonErrRes.put("CORRECT_RECORDS", details.get("CORRECT_RECORDS"));
+		JSONObject jsonErrMsg= new JSONObject() , jsonErrRec = new JSONObject();
+		JSONArray jsonErrArray = new JSONArray();
+		jsonErrMsg.put("ERROR_MESSAGE", details.get("ERROR_MSG"));
+		/*
+		 * This can be currently determined only for the operations that have a single object type 
+		 * in the request; for update and create since there can be multiple object types it is 
+		 * difficult to determine the record that has caused the exception 
+		 * 
+		 */
+		if (!(typeOp == SESSION_OPER_TYPE.CREATE) && !(typeOp == SESSION_OPER_TYPE.UPDATE) && !(typeOp == SESSION_OPER_TYPE.DELETE)) {
+			// find the record that caused the error
+			int errIdx = (Integer) details.get("countSuccessfulRecrds");
+			// the request is converted only here, to give back the record in error
+			JSONObject jsonRequest = XML.toJSONObject(xml);
+			JSONObject records = jsonRequest.optJSONObject((String)jsonRequest.names().get(0));
+			Object reqObj = records.get(records.names().getString(0));
+			if ( reqObj instanceof JSONObject) {
+				jsonErrRec.put("ERROR_RECORD",reqObj);
+			} else if (reqObj instanceof JSONArray) {
+				jsonErrRec.put("ERROR_RECORD",((JSONArray)reqObj).getJSONObject(errIdx));
+			} else {
+				jsonErrRec.put("ERROR_RECORD",reqObj);
+			}
+		} else {
+			jsonErrRec.put("ERROR_RECORD",""); 
+		}
+		jsonErrArray.put(0,jsonErrMsg);
+		jsonErrArray.put(1,jsonErrRec);
+		jsonErrRes.put("ERROR", jsonErrArray);
+		return jsonErrRes;
+	}
+
+	/**
+     * Posts the functions of a multi function request (the content element and its function elements)
+     * with the credentials, transport, tracer of this session; used by APIPageReader
+     *
+     * @param String content  the content element with one function element per operation 
+     * @param boolean writes  true if the functions are create/update ones (request compression)
+     *
+     * @throws IntacctSDKRuntimeException, IOException
+     * @return String the raw XML response
+     */
+	String postMultiFunction(String content, boolean writes) throws IntacctSDKRuntimeException, IOException {
+		ResponseBody body = postContent(content, writes);
+		try {
+			return body.toString();
+		} finally {
+			body.release();
+		}
+	}
+
+	/**
+     * Posts the functions of a multi function request like postMultiFunction and parses the response from 
+     * its buffer; used by APIBatch
+     *
+     * @throws IntacctSDKRuntimeException, IOException
+     * @return List<JSONObject> the result elements, in the order of the response
+     */
+	List<JSONObject> postFunctions(String content, boolean writes) throws IntacctSDKRuntimeException, IOException {
+		ResponseBody body = postContent(content, writes);
+		try {
+			List<JSONObject> results = APIResponseParser.parse(body.openReader(), null, this.decimalMode);
+			if ( results.isEmpty() )
+				throw new IntacctSDKRuntimeException("Invalid XML response: no result element\n" + body);
+			return results;
+		} finally {
+			body.release();
+		}
+	}
+
+	/*
+	 * the response of a multi function request, not blank; the caller releases it
+	 */
+	private ResponseBody postContent(String content, boolean writes) throws IntacctSDKRuntimeException, IOException {
+		RequestEnvelope.Request request = envelope().request(content, true);
+		
+		int requestId = APISession.requestCounter.incrementAndGet();
+		APITracer tracer = this.tracer;
+		this.lastRequest = request;
+		if ( tracer != null ) {
+			tracer.traceRequest(requestId, request.toString());
+		}
+		ResponseBody body = send(this.transport, request, this.endpoint, 
+				writes && this.compressRequests && request.xmlLength() >= COMPRESS_MIN_LENGTH);
+		String res = body.toString();
+		this.setLastResponse(res);
+		if ( tracer != null ) {
+			tracer.traceResponse(requestId, res);
+		}
+		if ( body.isBlank() ) {
+			body.release();
+			throw new IntacctSDKRuntimeException("Result NULL: verify your input data");
+		}
+		return body;
+	}
+	
+	/**
+	 * @return a new batch that sends the operations queued on it with one request of this session
+	 */
+	public APIBatch newBatch() {
+		return new APIBatch(this, APIBatch.DEFAULT_MAX_FUNCTIONS);
+	}
+	
+	/**
+	 * @param int maxFunctions  the maximum number of functions per request; more operations are sent with several requests 
+	 * @return a new batch that sends the operations queued on it with as few requests of this session as possible
+	 */
+	public APIBatch newBatch(int maxFunctions) {
+		return new APIBatch(this, maxFunctions);
+	}
+	
+	/**
+	 * @param String object  the object to query
+	 * @param String query   the filter, see readByQuery()
+	 * @param String fields  comma separated list of the fields to return
+	 * @return a new reader of the query results, page by page, prefetching the next pages in the background 
+	 */
+	public APIPageReader newPageReader(String object, String query, String fields) {
+		return new APIPageReader(this, object, query, fields);
+	}
+	
+	/**
+	 * @return a new writer of any number of records with concurrent requests of this session
+	 */
+	public APIBulkWriter newBulkWriter() {
+		return new APIBulkWriter(this);
+	}
+	
 	/**
      * You won't normally use this function, but if you just want to pass a fully constructed XML document
      * to Intacct, then use this function.
+     * The request goes through the default transport, reusing the pooled keep-alive connections; 
+     * the body is URL encoded while it is written to the connection.
      *
      * @param String body     a Valid XML string
      * @param String endPoint URL to post the XML to
@@ -1067,51 +1381,86 @@ public class APISession<ReturnType> {
      * @return String the raw XML returned by Intacct
      */
 	public static String execute(String body, String endpoint) throws IOException {
-		StringBuffer response = null;
-		HttpURLConnection connection = null;
-		
-		// Create connection
-		URL url = new URL(endpoint);
-		connection = (HttpURLConnection)url.openConnection();
-		connection.setRequestMethod("POST");
-		connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-			
-		connection.setRequestProperty("Content-Length", "" + Integer.toString(body.getBytes().length));
-		connection.setRequestProperty("Content-Language", "en-US");  
-			
-		connection.setUseCaches (false);
-		connection.setDoInput(true);
-		connection.setDoOutput(true);
-      
-		//Send request
-		DataOutputStream wr = new DataOutputStream (
-		              connection.getOutputStream ());
-		/*
-		 wr.writeBytes ("fName=" + URLEncoder.encode("???", "UTF-8") + body +
-		 			        "&lName=" + URLEncoder.encode("???", "UTF-8"));
-		*/
-		
-		wr.writeBytes("xmlrequest=" + URLEncoder.encode(body, "UTF-8"));
-		wr.flush ();
-		wr.close ();
-		
-		//Get Response	
-		InputStream is = connection.getInputStream();
-		BufferedReader rd = new BufferedReader(new InputStreamReader(is));
-		
-		String line;
-		response = new StringBuffer(); 
-		while((line = rd.readLine()) != null) {
-			response.append(line);
-		    response.append('\r');
+		return call(defaultTransport, body, endpoint, false);
+	}
+	
+	/*
+	 * posts the request and decodes the response once; the response buffer goes back to the pool 
+	 */
+	private static String call(APITransport transport, String xml, String endpoint, boolean compress) throws IOException {
+		return call(transport, new FormEncodedBody(xml), endpoint, compress);
+	}
+
+	private static String call(APITransport transport, RequestBody request, String endpoint, boolean compress) 
+			throws IOException {
+		ResponseBody body = send(transport, request, endpoint, compress);
+		try {
+			return body.toString();
+		} finally {
+			body.release();
 		}
-		rd.close();
-		
-	    if(connection != null) {
-	    	connection.disconnect(); 
-	    }
-		
-		return response.toString();
+	}
+
+	/*
+	 * posts the request; the caller releases the response
+	 */
+	private static ResponseBody send(APITransport transport, RequestBody request, String endpoint, boolean compress) 
+			throws IOException {
+		if ( compress )
+			request = new GzipRequestBody(request);
+		return transport.execute(request, endpoint);
+	}
+
+	/**
+	 * @return the transport shared by the sessions that don't have their own transport 
+	 */
+	public static APITransport getDefaultTransport() {
+		return defaultTransport;
+	}
+
+	/**
+	 * Replaces the shared transport; used by the sessions created from now on.
+	 * The previous transport is not closed. 
+	 * 
+	 * @param transport the new default transport 
+	 */
+	public static void setDefaultTransport(APITransport transport) {
+		if ( transport == null )
+			throw new IntacctSDKRuntimeException("setDefaultTransport - transport is null");
+		defaultTransport = transport;
+	}
+
+	/**
+	 * @return true if the large create and update requests are sent gzip compressed 
+	 */
+	public boolean isCompressRequests() {
+		return compressRequests;
+	}
+
+	/**
+	 * Opt-in compression of the create and update requests of at least COMPRESS_MIN_LENGTH characters 
+	 * (Content-Encoding: gzip); enable it only if the endpoint accepts compressed requests. 
+	 * 
+	 * @param compressRequests true to compress the large create and update requests 
+	 */
+	public void setCompressRequests(boolean compressRequests) {
+		this.compressRequests = compressRequests;
+	}
+
+	/**
+	 * @return the transport used by this session 
+	 */
+	public APITransport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * @param transport the transport to be used by this session 
+	 */
+	public void setTransport(APITransport transport) {
+		if ( transport == null )
+			throw new IntacctSDKRuntimeException("setTransport - transport is null");
+		this.transport = transport;
 	}
 
 	/**
@@ -1136,10 +1485,122 @@ public class APISession<ReturnType> {
        	if ( dtdVersion == null || dtdVersion.length() == 0 )
     		dtdVersion = "2.1";
     	
-        return post(xml, multiInvocation, SESSION_OPER_TYPE.READ);
+        // the type of the objects is not known, processResult takes the listtype of the data 
+        return post(xml, multiInvocation, new RequestContext(SESSION_OPER_TYPE.READ, (List<String>) null));
     }
 	
     
+    /*
+     * Asynchronous variants of the services. 
+     * Each call runs on the session executor (see setAsyncExecutor) and completes the returned future with 
+     * the result of the blocking method, or exceptionally with the exception it raised 
+     * (IntacctSDKRuntimeException with its JSON details included). 
+     * 
+     * The calls of one session run concurrently, each one on its own pooled connection of the transport; 
+     * the default executor runs at most PooledHttpTransport.DEFAULT_MAX_PER_ROUTE of them and queues the others.  
+     */
+    
+    /**
+     * @see APISession#create(List, JSONArray)
+     */
+    public CompletableFuture<ReturnType> createAsync(final List<String> objects, final JSONArray records) {
+    	return async(() -> create(objects, records));
+    }
+    
+    /**
+     * @see APISession#update(List, JSONArray)
+     */
+    public CompletableFuture<ReturnType> updateAsync(final List<String> objects, final JSONArray records) {
+    	return async(() -> update(objects, records));
+    }
+    
+    /**
+     * @see APISession#delete(String, String)
+     */
+    public CompletableFuture<Boolean> deleteAsync(final String object, final String keysList) {
+    	return async(() -> delete(object, keysList));
+    }
+    
+    /**
+     * @see APISession#read(String, String, String)
+     */
+    public CompletableFuture<ReturnType> readAsync(final String object, final String keys, final String fields) {
+    	return async(() -> read(object, keys, fields));
+    }
+    
+    /**
+     * @see APISession#readByQuery(String, String, String, int)
+     */
+    public CompletableFuture<ReturnType> readByQueryAsync(final String object, final String query, 
+    		final String fields, final int maxRecords) {
+    	return async(() -> readByQuery(object, query, fields, maxRecords));
+    }
+    
+    /**
+     * @see APISession#readByName(String, String, String)
+     */
+    public CompletableFuture<ReturnType> readByNameAsync(final String object, final String keys, final String fields) {
+    	return async(() -> readByName(object, keys, fields));
+    }
+    
+    /**
+     * @see APISession#readRelated(String, String, String, String)
+     */
+    public CompletableFuture<ReturnType> readRelatedAsync(final String object, final String keys, 
+    		final String relation, final String fields) {
+    	return async(() -> readRelated(object, keys, relation, fields));
+    }
+    
+    /**
+     * @see APISession#inspect(String, boolean)
+     */
+    public CompletableFuture<ReturnType> inspectAsync(final String object, final boolean detail) {
+    	return async(() -> inspect(object, detail));
+    }
+    
+    /**
+     * @see APISession#invokeService(String, boolean, String)
+     */
+    public CompletableFuture<ReturnType> invokeServiceAsync(final String xml, final boolean multiInvocation, 
+    		final String dtdVersion) {
+    	return async(() -> invokeService(xml, multiInvocation, dtdVersion));
+    }
+    
+    private <T> CompletableFuture<T> async(final Callable<T> call) {
+    	final CompletableFuture<T> future = new CompletableFuture<T>();
+    	try {
+	    	asyncExecutor.execute(new Runnable() {
+	    		public void run() {
+	    			try {
+	    				future.complete(call.call());
+	    			} catch (Throwable t) {
+	    				future.completeExceptionally(t);
+	    			}
+	    		}
+	    	});
+    	} catch (RejectedExecutionException ex) {
+    		future.completeExceptionally(ex);
+    	}
+    	return future;
+    }
+    
+    /**
+     * @return the executor running the *Async calls of this session
+     */
+    public Executor getAsyncExecutor() {
+    	return asyncExecutor;
+    }
+    
+    /**
+     * A session with its own transport of more connections per route can be given an executor of as many threads; 
+     * more threads than connections only adds threads waiting for a connection. 
+     * 
+     * @param executor the executor to run the *Async calls of this session; null restores the shared default 
+     */
+    public void setAsyncExecutor(Executor executor) {
+    	this.asyncExecutor = executor == null ? defaultAsyncExecutor : executor;
+    }
+	
 	@SuppressWarnings("unchecked")
 	private void validateConnection(JSONObject response) {
 
@@ -1269,6 +1730,18 @@ public class APISession<ReturnType> {
 		return xml;
 	}
 
+	/*
+	 * the envelope of the current credentials; rebuilt only if they have changed since the last call
+	 */
+	private RequestEnvelope envelope() {
+		RequestEnvelope current = envelope;
+		if ( current == null || !current.matches(senderId, senderPassword, dtdVersion, transaction, sessionId) ) {
+			current = new RequestEnvelope(senderId, senderPassword, dtdVersion, transaction, sessionId);
+			envelope = current;
+		}
+		return current;
+	}
+
 	private String buildSessionHeaderXML(String sessionId, String senderId,
 			String senderPassword) {
 		String xml = XML_HEADER + XML_SESSIONID + XML_FOOTER;
@@ -1280,50 +1753,6 @@ public class APISession<ReturnType> {
 		return xml;	
 	}
 
-	private String buildPostXml(String readXml, String dtdVersion2, boolean multiFunc2) {
-		
-		String templateHead = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
-				+ "\r<request>"
-			    + "\r <control>"
-			    + "\r  <senderid>" + this.senderId + "</senderid>"
-			    + "\r  <password>" + this.senderPassword + "</password>"
-			    + "\r  <controlid>foobar</controlid>"
-			    + "\r  <uniqueid>false</uniqueid>"
-			    + "\r  <dtdversion>" + dtdVersion + "</dtdversion>"
-			    + "\r </control>"
-			    + "\r <operation transaction=\'" + this.transaction + "\'>"
-			    + "\r <authentication>"
-			    + "\r   <sessionid>" + this.sessionId + "</sessionid>"
-			    + "\r </authentication>";
-	    
-	    String contentHead =
-	            "\r<content>"
-	                + "\r <function controlid=\"foobar\">";
-	
-	    String contentFoot = 
-	                "\r </function>" 
-	            + "\r</content>";
-	
-	    String templateFoot =
-	        "\r </operation>"
-	    + "\r</request>";
-	    
-	    if (multiFunc) {
-	    	readXml = templateHead + readXml + templateFoot;
-	    } else {
-	    	readXml = templateHead + contentHead + readXml + contentFoot + templateFoot;
-	    }
-	
-	    if (dryRun == true) {
-	        setLastRequest(readXml);
-	        
-	        return null;
-	    }
-	    
-		return readXml;
-	}
-	
-	
 	/**
 	 * @return the session
 	 */
@@ -1338,6 +1767,18 @@ public class APISession<ReturnType> {
 		this.session = session;
 	}	
 	
+	/*
+	 * need to construct the response JSON object with all the details around the JSONArray of the records
+	 * or the JSONObject of the record
+	 */
+	private static JSONObject readResult(Object result) {
+		JSONObject jObj = new JSONObject();
+		jObj.put("OVERALL_STATUS", "SUCCESS");
+		jObj.put("READ_RESULT", result);
+		jObj.put("ERROR", "NO_ERROR");
+		return jObj;
+	}
+
 	@SuppressWarnings("unchecked")
 	private ReturnType proceedReturnResult(String result, SESSION_OPER_TYPE typeOp) throws Exception {
 		Object res = null;
@@ -1353,20 +1794,8 @@ public class APISession<ReturnType> {
 				}
 				else {
 					if (typeOp == SESSION_OPER_TYPE.READ) {
-						// need to construct the response JSON object with all the details 
-						if (result.contains("[")) {
-							// the response is a JSON Array containing the query result 
-							jObj.put("OVERALL_STATUS", "SUCCESS");
-							jObj.put("READ_RESULT", new JSONArray(result));
-							jObj.put("ERROR", "NO_ERROR");
-							res = jObj; 						
-						} else{
-						// the result is a JSON Object 
-						jObj.put("OVERALL_STATUS", "SUCCESS");
-						jObj.put("READ_RESULT", new JSONObject(result));
-						jObj.put("ERROR", "NO_ERROR");
-						res = jObj; 	
-						}
+						// the response is a JSON Array containing the query result or a JSON Object
+						res = readResult(APIJsonParser.parse(new ByteArrayInputStream(result.getBytes(ResponseBody.UTF8))));
 					}
 				}
 				break;
@@ -1393,38 +1822,47 @@ public class APISession<ReturnType> {
      * @return null
      */
 	//@SuppressWarnings("unchecked")
-	private JSONObject processResultString(String res, SESSION_OPER_TYPE typeOp) throws IntacctSDKRuntimeException {
-		boolean hasdata = false; 
-		JSONObject resObj = null;
-		Object jObj; 
+	private JSONObject processResultString(ResponseBody body, RequestContext ctx) throws IntacctSDKRuntimeException {
+		JSONObject jsonRes = null;
+		SESSION_OPER_TYPE typeOp = ctx.typeOp;
 	
-		resObj = XML.toJSONObject(res);
-		
-		if ( resObj == null )
-    		throw new IntacctSDKRuntimeException(typeOp + ": Invalid XML response");
-			
-		//System.out.println(this.getClass().getName()+ "::processResultString ----- Resulting raw JSON Object:  \n" + resObj.toString(1));
+		// only the result element is built, not the tree of the whole response; parsed from the bytes of the response
+		jsonRes = APIResponseParser.parseResult(body.openReader(), null, this.decimalMode);
+		//System.out.println(" -------  JSON raw result is: \n" + jsonRes.toString(2));
 		
-		//java.util.Iterator<String> keyArray_xml, keyArray_op, keyArray_res;
-		//String key, key_xml, key_op, key_res;
-		//Object value, value_xml, value_op, value_res;
+		return processResult(jsonRes, typeOp, ctx.objectType);
+	}
+	
+	/**
+     * Valid one result of the response; used for each function of a multi function request 
+     *
+     * @param JSONObject jsonRes  the result element of the response 
+     * @param typeOp              the type of operation of the function 
+     * @param List<String> objectType the names of the objects in the function payload  
+     *
+     * @throws IntacctSDKRuntimeException
+     * @return the result in the JSON format of the services 
+     */
+	JSONObject processResult(JSONObject jsonRes, SESSION_OPER_TYPE typeOp, List<String> objectType) 
+			throws IntacctSDKRuntimeException {
+		boolean hasdata = false; 
+		Object jObj; 
 		int countSuccessRecords = 0; 
-		JSONObject dataObject = null, jsonRes = new JSONObject(), returnJSONObj, jsonExcObj;
-		JSONArray dataResArray = new JSONArray(), dataSuccResArray = new JSONArray();
+		JSONObject dataObject = null, returnJSONObj, jsonExcObj;
+		JSONArray dataResArray = new JSONArray();
 		String dataObjectName = "";
-		//String bRes = "{a: true}"; 
 		Map<String, Object> map = new HashMap<String, Object>();
 		
-		jsonRes = resObj.getJSONObject("response").getJSONObject("operation").getJSONObject("result");
-		//System.out.println(" -------  JSON raw result is: \n" + jsonRes.toString(2));
-		
 		if (jsonRes.has("data")){
 			hasdata = true; 
 			dataObject = jsonRes.getJSONObject("data");
 			countSuccessRecords = dataObject.getInt("count");
 			if (countSuccessRecords > 0) {
 				//dataObjectName =  (String) jsonRes.getJSONObject("data").names().get(1);
-				// assumes the objectType list contains at least one object since there are results
+				// the objectType list contains at least one object since there are results, except for 
+				// invokeService where the object is the listtype of the data
+				if ( objectType.isEmpty() )
+					objectType = Collections.singletonList(dataObject.optString("listtype"));
 				dataObjectName =  objectType.get(0);
 
 				if ((typeOp == SESSION_OPER_TYPE.CREATE) || (typeOp == SESSION_OPER_TYPE.DELETE) || 
@@ -1463,8 +1901,10 @@ public class APISession<ReturnType> {
 			}
 		} // end has data 
 
-		// check status of the request response 
-		if (jsonRes.getString("status").equals("failure")){
+		// check status of the request response: failure, or aborted (a function of a transaction rolled back
+		// because another one failed)
+		String status = jsonRes.getString("status");
+		if (!status.equals("success")){
 			// the failed test case
 			JSONObject errMsgObj = null; 
 			JSONArray errArr = null;
@@ -1472,12 +1912,15 @@ public class APISession<ReturnType> {
 			IntacctSDKRuntimeException sdkExc = new IntacctSDKRuntimeException("Request has failed"); 
 			map.put("OVERALL_STATUS", "Failure");
 			map.put("countSuccessfulRecrds", countSuccessRecords);
-			if (countSuccessRecords > 0) {			
+			// the records of an aborted function have been rolled back
+			if (countSuccessRecords > 0 && status.equals("failure")) {			
 				map.put("CORRECT_RECORDS",dataResArray);
 			} else map.put("CORRECT_RECORDS", ""); 
-			errMsgObj = jsonRes.getJSONObject("errormessage");
-			Object errObj = errMsgObj.get("error");
-			if (errObj instanceof JSONObject){
+			errMsgObj = jsonRes.optJSONObject("errormessage");
+			Object errObj = errMsgObj == null ? null : errMsgObj.opt("error");
+			if (errObj == null && !status.equals("failure")) {
+				errMsg = "Function " + status + ": rolled back with the other functions of the transaction";
+			} else if (errObj instanceof JSONObject){
 				errMsg = ((JSONObject)errObj).getString("errorno") + "   " + ((JSONObject)errObj).getString("description") +
 						"   " + ((JSONObject)errObj).getString("correction") + "   " +
 						((JSONObject)errObj).getString("description2");
@@ -1536,23 +1979,76 @@ public class APISession<ReturnType> {
 		return rf;
 	}
 	
+	/**
+	 * @return the id of the gateway session, from the login response
+	 */
+	String getSessionId() {
+		return sessionId;
+	}
+	
+	/**
+	 * @return the endpoint of the company, from the login response
+	 */
+	String getEndpoint() {
+		return endpoint;
+	}
+	
+	/**
+	 * @return when the gateway session was logged in (milliseconds since the epoch), from the saved token
+	 * for a restored session
+	 */
+	long getLoginTime() {
+		return loginTime;
+	}
+	
 	public void setTracer(APITracer tracer)
 	{
 		this.tracer = tracer;
 	}
 
 	/**
-	 * @return the lastRequest
+	 * @return true if the XML results are the data elements of the responses as they are
 	 */
-	public String getLastRequest() {
-		return lastRequest;
+	public boolean isRawXml() {
+		return rawXml;
+	}
+
+	/**
+	 * Pass-through mode of the XML sessions: a successful call returns the data element of the gateway 
+	 * response untouched (status checked with a text scan, no XML to JSON to XML conversion) instead of the 
+	 * result document of the services; the failures still throw the IntacctSDKRuntimeException with details. 
+	 * No effect on the JSON sessions.
+	 * 
+	 * @param rawXml true for the pass-through mode
+	 */
+	public void setRawXml(boolean rawXml) {
+		this.rawXml = rawXml;
 	}
 
 	/**
-	 * @param lastRequest the lastRequest to set
+	 * @return the conversion of the decimal values of the XML responses
 	 */
-	private void setLastRequest(String lastRequest) {
-		this.lastRequest = lastRequest;
+	public XML.DecimalMode getDecimalMode() {
+		return decimalMode;
+	}
+
+	/**
+	 * Conversion of the decimal values (amounts, rates) of the XML responses to the JSON results: DOUBLE 
+	 * (default) when the double prints back the same text, else the text; BIG_DECIMAL for exact values with 
+	 * their scale ("-98.10"); STRING to keep the text. The integers are Long in every mode.
+	 * 
+	 * @param decimalMode the conversion of the decimal values
+	 */
+	public void setDecimalMode(XML.DecimalMode decimalMode) {
+		this.decimalMode = decimalMode == null ? XML.DecimalMode.DOUBLE : decimalMode;
+	}
+
+	/**
+	 * @return the lastRequest
+	 */
+	public String getLastRequest() {
+		RequestEnvelope.Request request = lastRequest;
+		return request == null ? null : request.toString();
 	}
 
 	/**
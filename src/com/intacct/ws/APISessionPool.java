@@ -0,0 +1,352 @@
+package com.intacct.ws;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+import com.intacct.ws.exception.IntacctSDKRuntimeException;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Pool of JSON sessions keyed by (companyId, userId, entityType, entityId), so the jobs don't pay a <login>
+ * round trip each.
+ *
+ * The first lease of a key logs in; the sessionId and endpoint of that login are then shared by all the
+ * sessions of the key (a new session of an existing login costs no request). At most maxPerKey sessions
+ * of a key are leased at the same time, lease() waits for a release beyond that.
+ *
+ * The gateway ends a session after a while, so a login is renewed in the background once it is older than
+ * the refresh age (sessionTtl minus a margin); the sessions of the old login are dropped as they are
+ * released. A caller that finds its session expired anyway returns it with invalidate(), which forces a
+ * new login for the next lease.
+ *
+ * With a token store (setTokenStore) the first lease of a key after a restart reuses the saved session,
+ * with the age of its login; one already older than sessionTtl is replaced by a new login.
+ *
+ * The password is not part of the key: the next logins of a key use the password of its last lease, so a
+ * changed password is picked up without dropping the current login.
+ *
+ * Usage:
+ *   APISession<JSONObject> session = pool.lease(companyId, userId, password, null, null);
+ *   try {
+ *       session.readByQuery(...);
+ *   } finally {
+ *       pool.release(session);
+ *   }
+ */
+public class APISessionPool implements Closeable {
+
+	public final static int DEFAULT_MAX_PER_KEY = 8;
+	public final static long DEFAULT_SESSION_TTL = 30 * 60 * 1000;
+	public final static long DEFAULT_LEASE_TIMEOUT = 60000;
+
+	// a login is renewed when it is older than sessionTtl minus this margin
+	final static long REFRESH_MARGIN = 5 * 60 * 1000;
+
+	private final String senderId, senderPassword;
+	private final int maxPerKey;
+	private final long sessionTtl, leaseTimeout;
+
+	private final ConcurrentHashMap<String, Route> routes = new ConcurrentHashMap<String, Route>();
+	private final Map<APISession<JSONObject>, Route> leased = new ConcurrentHashMap<APISession<JSONObject>, Route>();
+	private final ScheduledExecutorService refresher;
+	private volatile APISessionTokenStore tokenStore;
+
+	private final AtomicLong leases = new AtomicLong(), logins = new AtomicLong(), refreshes = new AtomicLong();
+	private final AtomicLong waits = new AtomicLong(), waitNanos = new AtomicLong(), maxWaitNanos = new AtomicLong();
+
+	/*
+	 * the login of a key
+	 */
+	private static class Login {
+		final String sessionId, endpoint;
+		final long created;
+
+		Login(String sessionId, String endpoint, long created) {
+			this.sessionId = sessionId;
+			this.endpoint = endpoint;
+			this.created = created;
+		}
+	}
+
+	/*
+	 * the sessions of a key
+	 */
+	private class Route {
+		final String companyId, userId, entityType, entityId;
+		// the password of the last lease, for the next logins
+		volatile String password;
+		final Semaphore permits = new Semaphore(maxPerKey, true);
+		final ConcurrentLinkedDeque<APISession<JSONObject>> idle = new ConcurrentLinkedDeque<APISession<JSONObject>>();
+		volatile Login login;
+
+		Route(String companyId, String userId, String password, String entityType, String entityId) {
+			this.companyId = companyId;
+			this.userId = userId;
+			this.password = password;
+			this.entityType = entityType;
+			this.entityId = entityId;
+		}
+
+		synchronized Login login(boolean renew) throws IOException {
+			Login current = login;
+			if ( current != null && !renew && System.currentTimeMillis() - current.created < sessionTtl )
+				return current;
+			APISessionTokenStore store = tokenStore;
+			APISession<JSONObject> session = null;
+			if ( store != null && !renew ) {
+				session = APISession.getJSONInstance(companyId, userId, password, senderId, senderPassword, entityType,
+						entityId, store);
+				// a saved session already past the lifetime of the pool would be restored again on every lease
+				if ( System.currentTimeMillis() - session.getLoginTime() >= sessionTtl )
+					session = null;
+			}
+			if ( session == null ) {
+				session = APISession.getJSONInstance(companyId, userId, password, senderId, senderPassword, entityType,
+						entityId);
+				if ( store != null )
+					APISession.saveToken(store, APISession.tokenKey(companyId, userId, entityType, entityId), session);
+			}
+			logins.incrementAndGet();
+			// a restored login keeps its age, so the refresh renews it on time
+			login = new Login(session.getSessionId(), session.getEndpoint(), session.getLoginTime());
+			return login;
+		}
+
+		boolean isCurrent(APISession<JSONObject> session) {
+			Login current = login;
+			return current != null && current.sessionId.equals(session.getSessionId());
+		}
+	}
+
+	/**
+	 * @param senderId        the web services sender id
+	 * @param senderPassword  the web services sender password
+	 */
+	public APISessionPool(String senderId, String senderPassword) {
+		this(senderId, senderPassword, DEFAULT_MAX_PER_KEY, DEFAULT_SESSION_TTL, DEFAULT_LEASE_TIMEOUT);
+	}
+
+	/**
+	 * @param senderId        the web services sender id
+	 * @param senderPassword  the web services sender password
+	 * @param maxPerKey       the maximum number of sessions of one key leased at the same time
+	 * @param sessionTtl      the lifetime of a gateway session in milliseconds
+	 * @param leaseTimeout    the maximum wait of lease() in milliseconds
+	 */
+	public APISessionPool(String senderId, String senderPassword, int maxPerKey, long sessionTtl, long leaseTimeout) {
+		if ( maxPerKey < 1 )
+			throw new IntacctSDKRuntimeException("Invalid maximum number of sessions per key " + maxPerKey);
+		this.senderId = senderId;
+		this.senderPassword = senderPassword;
+		this.maxPerKey = maxPerKey;
+		this.sessionTtl = sessionTtl;
+		this.leaseTimeout = leaseTimeout;
+
+		refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "intacct-session-refresh");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long period = Math.max(1000, Math.min(60000, sessionTtl / 10));
+		refresher.scheduleWithFixedDelay(() -> refresh(), period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Leases a session of the key, logging in if the key has no valid login yet
+	 *
+	 * @return a session to give back with release() (or invalidate())
+	 * @throws IntacctSDKRuntimeException when no session of the key is released within the lease timeout
+	 * or the login has failed
+	 */
+	public APISession<JSONObject> lease(String companyId, String userId, String password, String entityType,
+			String entityId) throws IOException {
+		String key = companyId + '\u0000' + userId + '\u0000' + entityType + '\u0000' + entityId;
+		Route route = routes.computeIfAbsent(key, k -> new Route(companyId, userId, password, entityType, entityId));
+		// a changed password is used from the next login on; the current login stays valid
+		if ( password != null && !password.equals(route.password) )
+			route.password = password;
+
+		acquire(route);
+		try {
+			// logs in again if the login has expired, so its idle sessions are not reused
+			Login login = route.login(false);
+			APISession<JSONObject> session;
+			while ( (session = route.idle.pollFirst()) != null && !login.sessionId.equals(session.getSessionId()) )
+				;
+			if ( session == null )
+				session = APISession.getJSONInstance(login.sessionId, login.endpoint, senderId, senderPassword);
+			leased.put(session, route);
+			leases.incrementAndGet();
+			return session;
+		} catch (IOException | RuntimeException ex) {
+			route.permits.release();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Gives back a leased session; it is kept for the next lease of its key unless its login was renewed
+	 */
+	public void release(APISession<JSONObject> session) {
+		Route route = leased.remove(session);
+		if ( route == null )
+			return;
+		if ( route.isCurrent(session) )
+			route.idle.offerFirst(session);
+		route.permits.release();
+	}
+
+	/**
+	 * Gives back a leased session that the gateway has rejected (expired session); the next lease of its key
+	 * logs in again
+	 */
+	public void invalidate(APISession<JSONObject> session) {
+		Route route = leased.remove(session);
+		if ( route == null )
+			return;
+		synchronized (route) {
+			if ( route.isCurrent(session) )
+				route.login = null;
+		}
+		route.idle.clear();
+		route.permits.release();
+	}
+
+	/**
+	 * @param tokenStore the saved sessions tried before the logins (the renewals always log in), and updated 
+	 * after each login; null for none
+	 */
+	public void setTokenStore(APISessionTokenStore tokenStore) {
+		this.tokenStore = tokenStore;
+	}
+
+	/**
+	 * Stops the background renewal of the logins
+	 */
+	public void close() {
+		refresher.shutdownNow();
+	}
+
+	/*
+	 * renews the logins about to expire; a failed renewal is retried on the next run, the lease of the key
+	 * logs in itself once the login has expired
+	 */
+	private void refresh() {
+		long now = System.currentTimeMillis();
+		for ( Route route : routes.values() ) {
+			Login login = route.login;
+			if ( login == null || now - login.created < sessionTtl - Math.min(REFRESH_MARGIN, sessionTtl / 5) )
+				continue;
+			try {
+				route.login(true);
+				refreshes.incrementAndGet();
+			} catch (Exception ex) {
+				// the lease of the key will try again
+			}
+		}
+	}
+
+	private void acquire(Route route) {
+		long start = System.nanoTime();
+		boolean acquired = route.permits.tryAcquire();
+		if ( !acquired ) {
+			try {
+				acquired = route.permits.tryAcquire(leaseTimeout, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IntacctSDKRuntimeException("Interrupted while waiting for a session of " + route.companyId);
+			}
+			long waited = System.nanoTime() - start;
+			waits.incrementAndGet();
+			waitNanos.addAndGet(waited);
+			long max;
+			while ( waited > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, waited) )
+				;
+		}
+		if ( !acquired )
+			throw new IntacctSDKRuntimeException("Timeout waiting for a session of " + route.companyId + "/"
+					+ route.userId + ": " + maxPerKey + " sessions leased");
+	}
+
+	/**
+	 * @return the number of sessions leased and not released yet
+	 */
+	public int getLeasedCount() {
+		return leased.size();
+	}
+
+	/**
+	 * @return the number of released sessions kept for the next leases
+	 */
+	public int getIdleCount() {
+		int count = 0;
+		for ( Route route : routes.values() )
+			count += route.idle.size();
+		return count;
+	}
+
+	/**
+	 * @return the number of keys of the pool
+	 */
+	public int getKeyCount() {
+		return routes.size();
+	}
+
+	/**
+	 * @return the number of leases
+	 */
+	public long getLeaseCount() {
+		return leases.get();
+	}
+
+	/**
+	 * @return the number of logins, including the renewals
+	 */
+	public long getLoginCount() {
+		return logins.get();
+	}
+
+	/**
+	 * @return the number of logins renewed in the background
+	 */
+	public long getRefreshCount() {
+		return refreshes.get();
+	}
+
+	/**
+	 * @return the number of leases that had to wait for a release
+	 */
+	public long getLeaseWaitCount() {
+		return waits.get();
+	}
+
+	/**
+	 * @return the total time the leases have waited for a release, in milliseconds
+	 */
+	public long getLeaseWaitMillis() {
+		return waitNanos.get() / 1000000;
+	}
+
+	/**
+	 * @return the longest time a lease has waited for a release, in milliseconds
+	 */
+	public long getMaxLeaseWaitMillis() {
+		return maxWaitNanos.get() / 1000000;
+	}
+}
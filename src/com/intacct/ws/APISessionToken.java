@@ -0,0 +1,41 @@
+package com.intacct.ws;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Saved gateway session: the sessionId and endpoint of a login and the time after which the gateway
+ * has probably ended it (milliseconds since the epoch)
+ */
+public final class APISessionToken {
+
+	// the sessions are saved for this long after their login; restoring one does not extend it
+	public final static long DEFAULT_TTL = 30 * 60 * 1000;
+
+	private final String sessionId;
+	private final String endpoint;
+	private final long expiresAt;
+
+	public APISessionToken(String sessionId, String endpoint, long expiresAt) {
+		this.sessionId = sessionId;
+		this.endpoint = endpoint;
+		this.expiresAt = expiresAt;
+	}
+
+	public String getSessionId() {
+		return sessionId;
+	}
+
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	public long getExpiresAt() {
+		return expiresAt;
+	}
+
+	public boolean isExpired() {
+		return System.currentTimeMillis() >= expiresAt;
+	}
+}
@@ -0,0 +1,30 @@
+package com.intacct.ws;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Storage of the gateway sessions between two runs of a process, so a restart reuses the saved session
+ * (one cheap getAPISession validation) instead of logging in again; see
+ * APISession.getJSONInstance(..., APISessionTokenStore) and APIEncryptedTokenStore for the default file store.
+ *
+ * The key identifies the login: company, user and entity. Implementations must be thread safe.
+ */
+public interface APISessionTokenStore {
+
+	/**
+	 * @return the token saved for the key, null if there is none
+	 */
+	public APISessionToken load(String key);
+
+	/**
+	 * Saves the token of the key, replacing the previous one
+	 */
+	public void save(String key, APISessionToken token);
+
+	/**
+	 * Forgets the token of the key (the gateway has rejected it)
+	 */
+	public void remove(String key);
+}
@@ -0,0 +1,171 @@
+package com.intacct.ws;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.intacct.ws.transport.FormEncodedBody;
+import com.intacct.ws.transport.RequestBody;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * The fixed parts of the requests of a session (control and authentication elements around the content)
+ * built once, as XML and as the URL encoded bytes of the xmlrequest form parameter.
+ *
+ * A request body writes the encoded head, the content encoded on the fly and the encoded foot straight to
+ * the connection: the fixed parts cost no encoding and no copy per request. The whole XML document is only
+ * built on demand (toString(), for getLastRequest() and the tracer).
+ */
+final class RequestEnvelope {
+
+	private final static int BUFFER_SIZE = 8192;
+
+	private final String senderId, senderPassword, dtdVersion, sessionId;
+	private final boolean transaction;
+
+	private final String head, foot;
+	private final static String CONTENT_HEAD = "\r<content>" + "\r <function controlid=\"foobar\">";
+	private final static String CONTENT_FOOT = "\r </function>" + "\r</content>";
+
+	// URL encoded, the head starts with "xmlrequest="
+	private final byte[] headBytes, footBytes;
+	private final static byte[] CONTENT_HEAD_BYTES = encode(null, CONTENT_HEAD);
+	private final static byte[] CONTENT_FOOT_BYTES = encode(null, CONTENT_FOOT);
+
+	RequestEnvelope(String senderId, String senderPassword, String dtdVersion, boolean transaction, String sessionId) {
+		this.senderId = senderId;
+		this.senderPassword = senderPassword;
+		this.dtdVersion = dtdVersion;
+		this.transaction = transaction;
+		this.sessionId = sessionId;
+
+		head = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+				+ "\r<request>"
+			    + "\r <control>"
+			    + "\r  <senderid>" + senderId + "</senderid>"
+			    + "\r  <password>" + senderPassword + "</password>"
+			    + "\r  <controlid>foobar</controlid>"
+			    + "\r  <uniqueid>false</uniqueid>"
+			    + "\r  <dtdversion>" + dtdVersion + "</dtdversion>"
+			    + "\r </control>"
+			    + "\r <operation transaction=\'" + transaction + "\'>"
+			    + "\r <authentication>"
+			    + "\r   <sessionid>" + sessionId + "</sessionid>"
+			    + "\r </authentication>";
+		foot = "\r </operation>"
+			    + "\r</request>";
+		headBytes = encode(FormEncodedBody.XML_REQUEST + "=", head);
+		footBytes = encode(null, foot);
+	}
+
+	/**
+	 * @return true if the envelope was built with these values
+	 */
+	boolean matches(String senderId, String senderPassword, String dtdVersion, boolean transaction, String sessionId) {
+		return this.transaction == transaction && same(this.sessionId, sessionId) && same(this.senderId, senderId)
+				&& same(this.senderPassword, senderPassword) && same(this.dtdVersion, dtdVersion);
+	}
+
+	/**
+	 * @param CharSequence content  the function element (multiFunc false) or the content element with its
+	 * function elements (multiFunc true)
+	 * @return the request posting the content in this envelope
+	 */
+	Request request(CharSequence content, boolean multiFunc) {
+		return new Request(content, multiFunc);
+	}
+
+	/**
+	 * @return the whole XML document of the request
+	 */
+	String toXml(CharSequence content, boolean multiFunc) {
+		StringBuilder xml = new StringBuilder(head.length() + content.length() + foot.length()
+				+ (multiFunc ? 0 : CONTENT_HEAD.length() + CONTENT_FOOT.length()));
+		xml.append(head);
+		if ( !multiFunc )
+			xml.append(CONTENT_HEAD);
+		xml.append(content);
+		if ( !multiFunc )
+			xml.append(CONTENT_FOOT);
+		return xml.append(foot).toString();
+	}
+
+	/*
+	 * a request body, its toString() is the XML document
+	 */
+	final class Request implements RequestBody {
+
+		private final CharSequence content;
+		private final boolean multiFunc;
+		private long length = -1;
+
+		Request(CharSequence content, boolean multiFunc) {
+			this.content = content;
+			this.multiFunc = multiFunc;
+		}
+
+		/**
+		 * @return the number of characters of the XML document
+		 */
+		int xmlLength() {
+			return head.length() + content.length() + foot.length()
+					+ (multiFunc ? 0 : CONTENT_HEAD.length() + CONTENT_FOOT.length());
+		}
+
+		public long contentLength() {
+			if ( length < 0 )
+				length = headBytes.length + FormEncodedBody.encodedLength(content) + footBytes.length
+						+ (multiFunc ? 0 : CONTENT_HEAD_BYTES.length + CONTENT_FOOT_BYTES.length);
+			return length;
+		}
+
+		public String contentType() {
+			return "application/x-www-form-urlencoded";
+		}
+
+		public String contentEncoding() {
+			return null;
+		}
+
+		public void writeTo(OutputStream out) throws IOException {
+			out.write(headBytes);
+			if ( !multiFunc )
+				out.write(CONTENT_HEAD_BYTES);
+			byte[] buf = new byte[BUFFER_SIZE];
+			int pos = FormEncodedBody.encode(content, out, buf, 0);
+			out.write(buf, 0, pos);
+			if ( !multiFunc )
+				out.write(CONTENT_FOOT_BYTES);
+			out.write(footBytes);
+		}
+
+		@Override
+		public String toString() {
+			return toXml(content, multiFunc);
+		}
+	}
+
+	private static boolean same(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private static byte[] encode(String prefix, String xml) {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(xml.length() * 2);
+			byte[] buf = new byte[BUFFER_SIZE];
+			int pos = 0;
+			if ( prefix != null )
+				for ( int ix = 0; ix < prefix.length(); ix++ )
+					buf[pos++] = (byte) prefix.charAt(ix);
+			pos = FormEncodedBody.encode(xml, out, buf, pos);
+			out.write(buf, 0, pos);
+			return out.toByteArray();
+		} catch (IOException ex) {
+			// not thrown by ByteArrayOutputStream
+			throw new IllegalStateException(ex);
+		}
+	}
+}
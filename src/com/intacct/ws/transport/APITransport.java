@@ -0,0 +1,35 @@
+package com.intacct.ws.transport;
+
+import java.io.IOException;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Transport used by APISession to post a request document to the Intacct Web Services gateway
+ * The default implementation is PooledHttpTransport which keeps warm keep-alive connections per endpoint;
+ * a different implementation can be plugged in with APISession.setDefaultTransport() or APISession.setTransport()
+ *
+ * Implementations must be safe for use by several sessions (threads) at the same time
+ *
+ */
+public interface APITransport {
+
+	/**
+	 * Posts the request body to the endpoint; for the gateway it is the XML request document
+	 * sent as the xmlrequest form parameter (see FormEncodedBody)
+	 *
+	 * @param body		the request body
+	 * @param endpoint	URL to post the body to
+	 *
+	 * @return the raw response returned by Intacct; the caller must release() it once consumed
+	 * @throws IOException
+	 */
+	public ResponseBody execute(RequestBody body, String endpoint) throws IOException;
+
+	/**
+	 * Releases the resources (connections) held by the transport
+	 */
+	public void close();
+}
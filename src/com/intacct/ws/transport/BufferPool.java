@@ -0,0 +1,108 @@
+package com.intacct.ws.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Bounded pool of byte buffers reused across calls to capture the responses
+ *
+ * At most maxBuffers buffers are kept, none larger than maxBufferSize; a buffer given back when the pool
+ * is full or too large is left to the garbage collector. acquire() returns the smallest pooled buffer
+ * large enough for the request, or a new one.
+ *
+ * Thread safe
+ */
+public class BufferPool {
+
+	public final static int DEFAULT_MAX_BUFFERS = 16;
+	public final static int DEFAULT_MAX_BUFFER_SIZE = 8 * 1024 * 1024;
+
+	final static int MIN_BUFFER_SIZE = 16 * 1024;
+
+	private final int maxBuffers;
+	private final int maxBufferSize;
+	private final List<byte[]> free = new ArrayList<byte[]>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public BufferPool() {
+		this(DEFAULT_MAX_BUFFERS, DEFAULT_MAX_BUFFER_SIZE);
+	}
+
+	public BufferPool(int maxBuffers, int maxBufferSize) {
+		this.maxBuffers = maxBuffers;
+		this.maxBufferSize = maxBufferSize;
+	}
+
+	/**
+	 * @param minSize	the minimum size of the buffer
+	 * @return a buffer of at least minSize bytes
+	 */
+	public byte[] acquire(int minSize) {
+		synchronized (free) {
+			int best = -1;
+			for ( int ix = 0; ix < free.size(); ix++ ) {
+				int len = free.get(ix).length;
+				if ( len >= minSize && (best < 0 || len < free.get(best).length) )
+					best = ix;
+			}
+			if ( best >= 0 ) {
+				hits.incrementAndGet();
+				return free.remove(best);
+			}
+		}
+		misses.incrementAndGet();
+		return new byte[Math.max(minSize, MIN_BUFFER_SIZE)];
+	}
+
+	/**
+	 * Gives back a buffer; it must not be used by the caller afterwards
+	 */
+	public void release(byte[] buffer) {
+		if ( buffer == null || buffer.length > maxBufferSize )
+			return;
+		synchronized (free) {
+			if ( free.size() < maxBuffers ) {
+				free.add(buffer);
+			} else {
+				// keep the larger buffers, they are the expensive ones to allocate
+				int smallest = 0;
+				for ( int ix = 1; ix < free.size(); ix++ )
+					if ( free.get(ix).length < free.get(smallest).length )
+						smallest = ix;
+				if ( free.get(smallest).length < buffer.length )
+					free.set(smallest, buffer);
+			}
+		}
+	}
+
+	/**
+	 * @return a buffer of at least minSize bytes holding the first count bytes of buffer; buffer is released
+	 */
+	byte[] grow(byte[] buffer, int count, int minSize) {
+		byte[] larger = acquire(Math.max(minSize, buffer.length * 2));
+		System.arraycopy(buffer, 0, larger, 0, count);
+		release(buffer);
+		return larger;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public int getFreeCount() {
+		synchronized (free) {
+			return free.size();
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package com.intacct.ws.transport;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Bounded pool of keep-alive connections per route (scheme://host:port)
+ *
+ * At most maxPerRoute connections (idle + leased) exist for a route; callers wait up to leaseTimeout
+ * for a free slot. Idle connections are reused most recently used first so the warm ones stay warm,
+ * and the ones idle for longer than idleTimeout (or than the server keep-alive timeout) are closed.
+ *
+ * Thread safe
+ */
+final class ConnectionPool {
+
+	private final int maxPerRoute;
+	private final long idleTimeoutMillis;
+	private final long leaseTimeoutMillis;
+	private final int connectTimeout;
+	private final int readTimeout;
+
+	private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<String, Route>();
+	private volatile boolean closed = false;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	private static final class Route {
+		final Semaphore permits;
+		final Deque<HttpConnection> idle = new ArrayDeque<HttpConnection>();
+
+		Route(int maxPerRoute) {
+			permits = new Semaphore(maxPerRoute, true);
+		}
+	}
+
+	ConnectionPool(int maxPerRoute, long idleTimeoutMillis, long leaseTimeoutMillis, int connectTimeout, int readTimeout) {
+		if ( maxPerRoute < 1 )
+			throw new IllegalArgumentException("maxPerRoute must be at least 1");
+		this.maxPerRoute = maxPerRoute;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.leaseTimeoutMillis = leaseTimeoutMillis;
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	private Route route(String key) {
+		Route route = routes.get(key);
+		if ( route == null ) {
+			Route created = new Route(maxPerRoute);
+			route = routes.putIfAbsent(key, created);
+			if ( route == null )
+				route = created;
+		}
+		return route;
+	}
+
+	/**
+	 * Leases a connection for the URL; an idle one if available, a new one otherwise.
+	 * The connection must be given back with release()
+	 *
+	 * @param url		the endpoint
+	 * @param fresh		true to skip the idle connections and always open a new one
+	 */
+	HttpConnection lease(URL url, boolean fresh) throws IOException {
+		if ( closed )
+			throw new IOException("Connection pool is closed");
+
+		Route route = route(HttpConnection.routeOf(url));
+		try {
+			if ( !route.permits.tryAcquire(leaseTimeoutMillis, TimeUnit.MILLISECONDS) )
+				throw new IOException("Timeout waiting for a connection to " + HttpConnection.routeOf(url) +
+						" (" + maxPerRoute + " connections in use)");
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a connection", ex);
+		}
+
+		try {
+			if ( !fresh ) {
+				long now = System.currentTimeMillis();
+				synchronized (route.idle) {
+					HttpConnection conn;
+					while ( (conn = route.idle.pollFirst()) != null ) {
+						if ( conn.isExpired(now, idleTimeoutMillis) || !conn.isReusable() ) {
+							conn.close();
+							evictions.incrementAndGet();
+							continue;
+						}
+						hits.incrementAndGet();
+						return conn;
+					}
+				}
+			}
+			misses.incrementAndGet();
+			return HttpConnection.open(url, connectTimeout, readTimeout);
+		} catch (IOException ex) {
+			route.permits.release();
+			throw ex;
+		} catch (RuntimeException ex) {
+			route.permits.release();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Gives back a leased connection; it is kept for reuse when it is still usable
+	 */
+	void release(HttpConnection conn) {
+		Route route = routes.get(conn.getRoute());
+		long now = System.currentTimeMillis();
+
+		if ( !closed && conn.isReusable() ) {
+			conn.markIdle(now);
+			synchronized (route.idle) {
+				route.idle.addFirst(conn);
+				evictExpired(route, now);
+			}
+		} else {
+			conn.close();
+		}
+		route.permits.release();
+
+		if ( closed )
+			evictIdle();
+	}
+
+	// the oldest idle connections are at the tail; caller holds the lock on route.idle
+	private void evictExpired(Route route, long now) {
+		HttpConnection conn;
+		while ( (conn = route.idle.peekLast()) != null && conn.isExpired(now, idleTimeoutMillis) ) {
+			route.idle.pollLast();
+			conn.close();
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Closes the idle connections that have expired (all of them if the pool is closed)
+	 */
+	void evictIdle() {
+		long now = System.currentTimeMillis();
+		for ( Route route : routes.values() ) {
+			synchronized (route.idle) {
+				if ( closed ) {
+					HttpConnection conn;
+					while ( (conn = route.idle.pollFirst()) != null )
+						conn.close();
+				} else {
+					evictExpired(route, now);
+				}
+			}
+		}
+	}
+
+	void close() {
+		closed = true;
+		evictIdle();
+	}
+
+	int getIdleCount() {
+		int count = 0;
+		for ( Route route : routes.values() ) {
+			synchronized (route.idle) {
+				count += route.idle.size();
+			}
+		}
+		return count;
+	}
+
+	int getLeasedCount() {
+		int count = 0;
+		for ( Route route : routes.values() )
+			count += maxPerRoute - route.permits.availablePermits();
+		return count;
+	}
+
+	int getMaxPerRoute() {
+		return maxPerRoute;
+	}
+
+	long getHits() {
+		return hits.get();
+	}
+
+	long getMisses() {
+		return misses.get();
+	}
+
+	long getEvictions() {
+		return evictions.get();
+	}
+}
@@ -0,0 +1,161 @@
+package com.intacct.ws.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * application/x-www-form-urlencoded body with a single parameter, e.g. xmlrequest=<request ...>
+ *
+ * The value is UTF-8 encoded and URL encoded on the fly (same output as URLEncoder.encode(value, "UTF-8"))
+ * through a small fixed buffer, so a large request is never copied: the exact Content-Length is computed
+ * with a first pass over the characters and the second pass writes the bytes to the connection.
+ */
+public class FormEncodedBody implements RequestBody {
+
+	public final static String XML_REQUEST = "xmlrequest";
+
+	final static int BUFFER_SIZE = 8192;
+
+	private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+
+	// characters URLEncoder leaves as they are
+	private static final boolean[] UNRESERVED = new boolean[128];
+	static {
+		for ( char c = 'a'; c <= 'z'; c++ )
+			UNRESERVED[c] = true;
+		for ( char c = 'A'; c <= 'Z'; c++ )
+			UNRESERVED[c] = true;
+		for ( char c = '0'; c <= '9'; c++ )
+			UNRESERVED[c] = true;
+		UNRESERVED['.'] = true;
+		UNRESERVED['-'] = true;
+		UNRESERVED['*'] = true;
+		UNRESERVED['_'] = true;
+	}
+
+	private final String name;
+	private final CharSequence value;
+	private long length = -1;
+
+	/**
+	 * @param value the XML request posted as the xmlrequest parameter
+	 */
+	public FormEncodedBody(CharSequence value) {
+		this(XML_REQUEST, value);
+	}
+
+	/**
+	 * @param name	the parameter name; must not need encoding
+	 * @param value	the parameter value
+	 */
+	public FormEncodedBody(String name, CharSequence value) {
+		this.name = name;
+		this.value = value;
+	}
+
+	public long contentLength() {
+		if ( length < 0 )
+			length = name.length() + 1 + encodedLength(value);
+		return length;
+	}
+
+	public String contentType() {
+		return "application/x-www-form-urlencoded";
+	}
+
+	public String contentEncoding() {
+		return null;
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		byte[] buf = new byte[BUFFER_SIZE];
+		int pos = 0;
+		for ( int ix = 0; ix < name.length(); ix++ )
+			buf[pos++] = (byte) name.charAt(ix);
+		buf[pos++] = '=';
+		pos = encode(value, out, buf, pos);
+		out.write(buf, 0, pos);
+	}
+
+	/**
+	 * @return the number of bytes of the URL encoded UTF-8 form of the characters
+	 */
+	public static long encodedLength(CharSequence s) {
+		long length = 0;
+		int len = s.length();
+		for ( int ix = 0; ix < len; ix++ ) {
+			char c = s.charAt(ix);
+			if ( c < 0x80 ) {
+				length += (UNRESERVED[c] || c == ' ') ? 1 : 3;
+			} else if ( c < 0x800 ) {
+				length += 6;
+			} else if ( Character.isHighSurrogate(c) && ix + 1 < len && Character.isLowSurrogate(s.charAt(ix + 1)) ) {
+				length += 12;
+				ix++;
+			} else if ( Character.isSurrogate(c) ) {
+				// unpaired surrogate, encoded as '?' like the JDK encoder does
+				length += 3;
+			} else {
+				length += 9;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * URL encodes the UTF-8 form of the characters into buf, writing buf to out whenever it is full
+	 *
+	 * @param s		the characters to encode
+	 * @param out	destination of the full buffers
+	 * @param buf	buffer of at least 12 bytes
+	 * @param pos	number of bytes already in buf
+	 *
+	 * @return the number of bytes left in buf (not yet written to out)
+	 */
+	public static int encode(CharSequence s, OutputStream out, byte[] buf, int pos) throws IOException {
+		int limit = buf.length - 12;
+		int len = s.length();
+		for ( int ix = 0; ix < len; ix++ ) {
+			if ( pos > limit ) {
+				out.write(buf, 0, pos);
+				pos = 0;
+			}
+			char c = s.charAt(ix);
+			if ( c < 0x80 ) {
+				if ( UNRESERVED[c] )
+					buf[pos++] = (byte) c;
+				else if ( c == ' ' )
+					buf[pos++] = '+';
+				else
+					pos = hex(buf, pos, c);
+			} else if ( c < 0x800 ) {
+				pos = hex(buf, pos, 0xC0 | (c >> 6));
+				pos = hex(buf, pos, 0x80 | (c & 0x3F));
+			} else if ( Character.isHighSurrogate(c) && ix + 1 < len && Character.isLowSurrogate(s.charAt(ix + 1)) ) {
+				int cp = Character.toCodePoint(c, s.charAt(++ix));
+				pos = hex(buf, pos, 0xF0 | (cp >> 18));
+				pos = hex(buf, pos, 0x80 | ((cp >> 12) & 0x3F));
+				pos = hex(buf, pos, 0x80 | ((cp >> 6) & 0x3F));
+				pos = hex(buf, pos, 0x80 | (cp & 0x3F));
+			} else if ( Character.isSurrogate(c) ) {
+				pos = hex(buf, pos, '?');
+			} else {
+				pos = hex(buf, pos, 0xE0 | (c >> 12));
+				pos = hex(buf, pos, 0x80 | ((c >> 6) & 0x3F));
+				pos = hex(buf, pos, 0x80 | (c & 0x3F));
+			}
+		}
+		return pos;
+	}
+
+	private static int hex(byte[] buf, int pos, int b) {
+		buf[pos++] = '%';
+		buf[pos++] = HEX[(b >> 4) & 0x0F];
+		buf[pos++] = HEX[b & 0x0F];
+		return pos;
+	}
+}
@@ -0,0 +1,71 @@
+package com.intacct.ws.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Wraps a request body to send it gzip compressed (Content-Encoding: gzip)
+ * The compressed length is not known in advance so the body goes with chunked transfer encoding.
+ *
+ * Opt-in only (see APISession.setCompressRequests()); the endpoint must accept compressed requests.
+ */
+public class GzipRequestBody implements RequestBody {
+
+	private final RequestBody body;
+
+	public GzipRequestBody(RequestBody body) {
+		this.body = body;
+	}
+
+	public long contentLength() {
+		return -1;
+	}
+
+	public String contentType() {
+		return body.contentType();
+	}
+
+	public String contentEncoding() {
+		return "gzip";
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		GZIPOutputStream gzip = new GZIPOutputStream(new NonClosingOutputStream(out), FormEncodedBody.BUFFER_SIZE);
+		try {
+			body.writeTo(gzip);
+			gzip.finish();
+		} finally {
+			// ends the deflater (native memory); the connection stream is not closed
+			gzip.close();
+		}
+	}
+
+	// the connection stream stays open after the body is written
+	private static final class NonClosingOutputStream extends OutputStream {
+
+		private final OutputStream out;
+
+		NonClosingOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
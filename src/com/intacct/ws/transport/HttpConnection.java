@@ -0,0 +1,737 @@
+package com.intacct.ws.transport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * A single persistent HTTP/1.1 (optionally TLS) connection to one route (scheme://host:port)
+ * Only the small subset of HTTP needed to talk to the gateway is implemented: POST with a
+ * Content-Length or chunked body and responses framed by Content-Length, chunked encoding or connection close,
+ * optionally gzip or deflate compressed. The interim 1xx responses before the final one are skipped; the
+ * final status, redirects included, is left to the caller.
+ *
+ * The proxy is the one of the default ProxySelector, as for HttpURLConnection (http.proxyHost, https.proxyHost,
+ * socksProxyHost, http.nonProxyHosts): an HTTP proxy is sent the absolute URL of the request, or a CONNECT
+ * for a TLS tunnel; proxies asking for authentication are not supported. The TLS sockets come from
+ * HttpsURLConnection.getDefaultSSLSocketFactory().
+ *
+ * NOT thread safe; a connection is used by one caller at a time while leased from the ConnectionPool
+ */
+final class HttpConnection {
+
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	private final String route;
+	private final String host;
+	private final String hostHeader;
+	// scheme://host[:port] before the path of the requests sent to an HTTP proxy, else ""
+	private final String target;
+	private final Socket socket;
+	private final CountingInputStream wireIn;
+	private final CountingOutputStream wireOut;
+	private final InputStream in;
+	private final OutputStream out;
+
+	private long idleSince;
+	private long keepAliveMillis = -1;
+	private boolean reusable = true;
+	private int requestCount = 0;
+
+	private HttpConnection(String route, String host, String hostHeader, String target, Socket socket)
+			throws IOException {
+		this.route = route;
+		this.host = host;
+		this.hostHeader = hostHeader;
+		this.target = target;
+		this.socket = socket;
+		this.wireIn = new CountingInputStream(socket.getInputStream());
+		this.wireOut = new CountingOutputStream(socket.getOutputStream());
+		this.in = new BufferedInputStream(wireIn, 8192);
+		this.out = new BufferedOutputStream(wireOut, 8192);
+	}
+
+	/**
+	 * Builds the pool key of an endpoint URL
+	 */
+	static String routeOf(URL url) {
+		return url.getProtocol().toLowerCase() + "://" + url.getHost().toLowerCase() + ":" + portOf(url);
+	}
+
+	private static int portOf(URL url) {
+		if ( url.getPort() != -1 )
+			return url.getPort();
+		return url.getDefaultPort();
+	}
+
+	static HttpConnection open(URL url, int connectTimeout, int readTimeout) throws IOException {
+		String protocol = url.getProtocol().toLowerCase();
+		String host = url.getHost();
+		int port = portOf(url);
+
+		if ( !protocol.equals("http") && !protocol.equals("https") )
+			throw new IOException("Unsupported protocol: " + protocol);
+
+		String hostHeader = url.getPort() == -1 ? host : host + ":" + port;
+		Proxy proxy = proxyOf(url);
+		boolean httpProxy = proxy.type() == Proxy.Type.HTTP;
+		Socket socket = proxy.type() == Proxy.Type.SOCKS ? new Socket(proxy) : new Socket();
+		try {
+			socket.setTcpNoDelay(true);
+			socket.setKeepAlive(true);
+			if ( httpProxy ) {
+				// the selector gives the proxy address unresolved
+				InetSocketAddress address = (InetSocketAddress) proxy.address();
+				socket.connect(new InetSocketAddress(address.getHostString(), address.getPort()), connectTimeout);
+			}
+			else if ( proxy.type() == Proxy.Type.SOCKS )
+				socket.connect(InetSocketAddress.createUnresolved(host, port), connectTimeout);
+			else
+				socket.connect(new InetSocketAddress(host, port), connectTimeout);
+			socket.setSoTimeout(readTimeout);
+
+			if ( protocol.equals("https") ) {
+				if ( httpProxy )
+					tunnel(socket, host + ":" + port);
+				SSLSocket sslSocket = (SSLSocket) HttpsURLConnection.getDefaultSSLSocketFactory()
+						.createSocket(socket, host, port, true);
+				SSLParameters params = sslSocket.getSSLParameters();
+				params.setEndpointIdentificationAlgorithm("HTTPS");
+				sslSocket.setSSLParameters(params);
+				sslSocket.startHandshake();
+				socket = sslSocket;
+			}
+		} catch (IOException ex) {
+			socket.close();
+			throw ex;
+		}
+
+		String target = httpProxy && protocol.equals("http") ? "http://" + hostHeader : "";
+		return new HttpConnection(routeOf(url), host, hostHeader, target, socket);
+	}
+
+	/**
+	 * @return the first HTTP or SOCKS proxy the default ProxySelector gives for the URL, Proxy.NO_PROXY if none
+	 */
+	private static Proxy proxyOf(URL url) {
+		ProxySelector selector = ProxySelector.getDefault();
+		if ( selector == null )
+			return Proxy.NO_PROXY;
+		List<Proxy> proxies;
+		try {
+			proxies = selector.select(url.toURI());
+		} catch (URISyntaxException ex) {
+			return Proxy.NO_PROXY;
+		} catch (IllegalArgumentException ex) {
+			return Proxy.NO_PROXY;
+		}
+		for ( Proxy proxy : proxies ) {
+			if ( proxy.type() != Proxy.Type.DIRECT && proxy.address() instanceof InetSocketAddress )
+				return proxy;
+			if ( proxy.type() == Proxy.Type.DIRECT )
+				break;
+		}
+		return Proxy.NO_PROXY;
+	}
+
+	/**
+	 * Opens a tunnel to host:port through the HTTP proxy the socket is connected to (CONNECT)
+	 */
+	private static void tunnel(Socket socket, String authority) throws IOException {
+		OutputStream out = socket.getOutputStream();
+		String connect = "CONNECT " + authority + " HTTP/1.1\r\nHost: " + authority + "\r\n\r\n";
+		out.write(connect.getBytes(StandardCharsets.ISO_8859_1));
+		out.flush();
+
+		// unbuffered: the bytes after the headers are the TLS ones of the server
+		InputStream in = socket.getInputStream();
+		String statusLine = readLine(in);
+		if ( statusLine == null )
+			throw new EOFException("Connection closed by the proxy");
+		String line;
+		while ( (line = readLine(in)) != null && line.length() > 0 )
+			;
+		int status = parseStatus(statusLine);
+		if ( status != 200 )
+			throw new IOException("Proxy returned HTTP response code: " + status + " for CONNECT " + authority);
+	}
+
+	String getRoute() {
+		return route;
+	}
+
+	String getHost() {
+		return host;
+	}
+
+	int getRequestCount() {
+		return requestCount;
+	}
+
+	boolean isReusable() {
+		return reusable && !socket.isClosed();
+	}
+
+	/**
+	 * @return number of bytes received on the socket (after TLS decryption) since the connection was opened
+	 */
+	long getBytesReceived() {
+		return wireIn.count;
+	}
+
+	/**
+	 * @return number of bytes sent on the socket (before TLS encryption) since the connection was opened
+	 */
+	long getBytesSent() {
+		return wireOut.count;
+	}
+
+	void markIdle(long now) {
+		idleSince = now;
+	}
+
+	/**
+	 * @return true if the connection has been idle for longer than the pool timeout or than the
+	 * keep-alive timeout announced by the server
+	 */
+	boolean isExpired(long now, long idleTimeoutMillis) {
+		long limit = idleTimeoutMillis;
+		if ( keepAliveMillis >= 0 && keepAliveMillis < limit )
+			limit = keepAliveMillis;
+		return now - idleSince >= limit;
+	}
+
+	/**
+	 * Sends a POST and reads the complete response
+	 *
+	 * @param path		request path and query
+	 * @param body		the request body, written straight to the socket
+	 * @param pool		buffers for the response body
+	 * @param acceptCompressed	true to ask for a gzip or deflate compressed response
+	 *
+	 * @throws NoResponseException if the server closed or reset the connection before any byte of the
+	 * response was received (never on a timeout); the request can safely be sent again on a new connection
+	 * if this one was reused from the pool
+	 * @throws IOException
+	 */
+	HttpResponse post(String path, RequestBody body, BufferPool pool, boolean acceptCompressed) throws IOException {
+		requestCount++;
+		try {
+			long length = body.contentLength();
+			writeAscii("POST " + target + path + " HTTP/1.1\r\n");
+			writeHeader("Host", hostHeader);
+			writeHeader("Content-Type", body.contentType());
+			if ( body.contentEncoding() != null )
+				writeHeader("Content-Encoding", body.contentEncoding());
+			if ( length >= 0 )
+				writeHeader("Content-Length", Long.toString(length));
+			else
+				writeHeader("Transfer-Encoding", "chunked");
+			writeHeader("Content-Language", "en-US");
+			writeHeader("Accept", "*/*");
+			if ( acceptCompressed )
+				writeHeader("Accept-Encoding", "gzip, deflate");
+			writeHeader("Connection", "keep-alive");
+			out.write(CRLF);
+			if ( length >= 0 ) {
+				body.writeTo(out);
+			} else {
+				ChunkedOutputStream chunked = new ChunkedOutputStream(out);
+				body.writeTo(chunked);
+				chunked.finish();
+			}
+			out.flush();
+		} catch (IOException ex) {
+			reusable = false;
+			throw closedByPeer(ex) ? new NoResponseException(ex) : ex;
+		} catch (RuntimeException ex) {
+			reusable = false;
+			throw ex;
+		}
+
+		try {
+			return readResponse(pool);
+		} catch (IOException ex) {
+			reusable = false;
+			throw ex;
+		} catch (RuntimeException ex) {
+			// the rest of the response is still on the connection
+			reusable = false;
+			throw ex;
+		}
+	}
+
+	/*
+	 * true if the exception says the peer has closed or reset the connection; a timeout is not one of
+	 * them: the server may be processing the request
+	 */
+	private static boolean closedByPeer(IOException ex) {
+		return ex instanceof EOFException || ex instanceof SocketException;
+	}
+
+	private HttpResponse readResponse(BufferPool pool) throws IOException {
+		long received = wireIn.count;
+		int status;
+		boolean http10;
+		Map<String, String> headers;
+		// the interim responses (100 Continue, 102 Processing, 103 Early Hints) have no body and are skipped
+		do {
+			String statusLine;
+			try {
+				statusLine = readLine();
+			} catch (IOException ex) {
+				// only if the server has closed the connection without sending anything
+				if ( wireIn.count == received && closedByPeer(ex) )
+					throw new NoResponseException(ex);
+				throw ex;
+			}
+			if ( statusLine == null ) {
+				if ( wireIn.count == received )
+					throw new NoResponseException(new EOFException("Connection closed by the server"));
+				throw new EOFException("Connection closed by the server after an interim response");
+			}
+
+			status = parseStatus(statusLine);
+			http10 = statusLine.startsWith("HTTP/1.0");
+			headers = readHeaders();
+		} while ( status >= 100 && status < 200 && status != 101 );
+		if ( status == 101 )
+			throw new IOException("Unexpected HTTP response code: 101 (protocol switch)");
+
+		String connection = headers.get("connection");
+		if ( connection != null && connection.equalsIgnoreCase("close") )
+			reusable = false;
+		else if ( http10 && (connection == null || !connection.equalsIgnoreCase("keep-alive")) )
+			reusable = false;
+		keepAliveMillis = parseKeepAlive(headers.get("keep-alive"));
+
+		InputStream framed;
+		int sizeHint = -1;
+		String transferEncoding = headers.get("transfer-encoding");
+		String contentLength = headers.get("content-length");
+		if ( status == 204 || status == 304 ) {
+			// never a body, whatever the headers say
+			sizeHint = 0;
+			framed = new FixedLengthInputStream(0);
+		} else if ( transferEncoding != null && transferEncoding.toLowerCase().contains("chunked") ) {
+			framed = new ChunkedInputStream();
+		} else if ( contentLength != null ) {
+			sizeHint = parseLength(contentLength, 10);
+			framed = new FixedLengthInputStream(sizeHint);
+		} else {
+			// no framing, the body ends with the connection
+			reusable = false;
+			framed = in;
+		}
+
+		// the compressed body is inflated while it is captured, never buffered compressed
+		InputStream raw = framed;
+		String contentEncoding = headers.get("content-encoding");
+		if ( contentEncoding != null && !contentEncoding.equalsIgnoreCase("identity") && sizeHint != 0 ) {
+			framed = decoder(raw, contentEncoding.trim().toLowerCase());
+			sizeHint = sizeHint > 0 ? (int) Math.min(sizeHint * 4L, Integer.MAX_VALUE - 8) : -1;
+		}
+
+		ResponseBody body = capture(framed, sizeHint, charsetOf(headers.get("content-type")), pool);
+		// for a compressed body the decoder may stop before the end of the framed body
+		if ( raw != in )
+			drain(raw);
+		return new HttpResponse(status, headers, body);
+	}
+
+	/**
+	 * Reads the header lines up to the empty one
+	 *
+	 * @return the headers by lower case name
+	 */
+	private Map<String, String> readHeaders() throws IOException {
+		Map<String, String> headers = new HashMap<String, String>();
+		String line;
+		while ( (line = readLine()) != null && line.length() > 0 ) {
+			int idx = line.indexOf(':');
+			if ( idx > 0 )
+				headers.put(line.substring(0, idx).trim().toLowerCase(), line.substring(idx + 1).trim());
+		}
+		return headers;
+	}
+
+	private static int parseStatus(String statusLine) throws IOException {
+		// HTTP/1.1 200 OK
+		int first = statusLine.indexOf(' ');
+		if ( !statusLine.startsWith("HTTP/") || first < 0 )
+			throw new IOException("Invalid HTTP status line: " + statusLine);
+		int second = statusLine.indexOf(' ', first + 1);
+		String code = second < 0 ? statusLine.substring(first + 1) : statusLine.substring(first + 1, second);
+		try {
+			return Integer.parseInt(code.trim());
+		} catch (NumberFormatException ex) {
+			throw new IOException("Invalid HTTP status line: " + statusLine);
+		}
+	}
+
+	/**
+	 * @return the Content-Length or chunk size
+	 * @throws IOException if it is not a number or is out of range
+	 */
+	private static int parseLength(String length, int radix) throws IOException {
+		try {
+			int value = Integer.parseInt(length.trim(), radix);
+			if ( value >= 0 )
+				return value;
+		} catch (NumberFormatException ex) {
+			// reported below
+		}
+		throw new IOException("Invalid HTTP body length: " + length);
+	}
+
+	private static long parseKeepAlive(String keepAlive) {
+		// Keep-Alive: timeout=5, max=100
+		if ( keepAlive == null )
+			return -1;
+		for ( String param : keepAlive.split(",") ) {
+			param = param.trim();
+			if ( param.startsWith("timeout=") ) {
+				try {
+					return Long.parseLong(param.substring("timeout=".length()).trim()) * 1000L;
+				} catch (NumberFormatException ex) {
+					return -1;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads the whole (framed) body into a pooled buffer sized from the expected length when known
+	 */
+	private static ResponseBody capture(InputStream body, int sizeHint, Charset charset, BufferPool pool) throws IOException {
+		byte[] buf = pool.acquire(sizeHint > 0 ? sizeHint : BufferPool.MIN_BUFFER_SIZE);
+		int count = 0;
+		try {
+			int n;
+			while ( true ) {
+				if ( count == buf.length ) {
+					// Content-Length is exact: probe before growing
+					int b = body.read();
+					if ( b < 0 )
+						break;
+					buf = pool.grow(buf, count, count + 1);
+					buf[count++] = (byte) b;
+				}
+				n = body.read(buf, count, buf.length - count);
+				if ( n < 0 )
+					break;
+				count += n;
+			}
+		} catch (IOException ex) {
+			pool.release(buf);
+			throw ex;
+		} catch (RuntimeException ex) {
+			pool.release(buf);
+			throw ex;
+		}
+		return new ResponseBody(buf, count, charset, pool);
+	}
+
+	private static InputStream decoder(InputStream body, String contentEncoding) throws IOException {
+		if ( contentEncoding.equals("gzip") || contentEncoding.equals("x-gzip") )
+			return new GZIPInputStream(body, 8192);
+		if ( contentEncoding.equals("deflate") ) {
+			// should be zlib wrapped (RFC 1950) but some servers send a raw deflate stream
+			PushbackInputStream peek = new PushbackInputStream(body, 2);
+			int b0 = peek.read();
+			int b1 = b0 < 0 ? -1 : peek.read();
+			if ( b1 >= 0 )
+				peek.unread(b1);
+			if ( b0 >= 0 )
+				peek.unread(b0);
+			boolean zlib = b0 >= 0 && b1 >= 0 && (b0 & 0x0F) == 8 && ((b0 << 8) | b1) % 31 == 0;
+			return new InflaterInputStream(peek, new Inflater(!zlib), 8192);
+		}
+		throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+	}
+
+	private static void drain(InputStream body) throws IOException {
+		byte[] skip = new byte[512];
+		while ( body.read(skip) >= 0 )
+			;
+	}
+
+	private static Charset charsetOf(String contentType) {
+		// Content-Type: text/xml; charset=UTF-8
+		if ( contentType != null ) {
+			for ( String param : contentType.split(";") ) {
+				param = param.trim();
+				if ( param.toLowerCase().startsWith("charset=") ) {
+					String name = param.substring("charset=".length()).trim().replace("\"", "");
+					try {
+						return Charset.forName(name);
+					} catch (IllegalArgumentException ex) {
+						break;
+					}
+				}
+			}
+		}
+		return ResponseBody.UTF8;
+	}
+
+	/**
+	 * Reads an ISO-8859-1 header line without the line terminator
+	 *
+	 * @return the line or null at the end of the stream
+	 */
+	private String readLine() throws IOException {
+		return readLine(in);
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder(64);
+		int c;
+		while ( (c = in.read()) >= 0 ) {
+			if ( c == '\n' ) {
+				int len = line.length();
+				if ( len > 0 && line.charAt(len - 1) == '\r' )
+					line.setLength(len - 1);
+				return line.toString();
+			}
+			line.append((char) c);
+		}
+		return line.length() == 0 ? null : line.toString();
+	}
+
+	private void writeHeader(String name, String value) throws IOException {
+		writeAscii(name + ": " + value + "\r\n");
+	}
+
+	private void writeAscii(String s) throws IOException {
+		int len = s.length();
+		for ( int ix = 0; ix < len; ix++ )
+			out.write(s.charAt(ix));
+	}
+
+	void close() {
+		reusable = false;
+		try {
+			socket.close();
+		} catch (IOException ex) {
+			// nothing to do, the connection is discarded
+		}
+	}
+
+	/**
+	 * Counts the bytes going through the socket
+	 */
+	private static final class CountingInputStream extends FilterInputStream {
+
+		long count = 0;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if ( b >= 0 )
+				count++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = in.read(b, off, len);
+			if ( n > 0 )
+				count += n;
+			return n;
+		}
+	}
+
+	private static final class CountingOutputStream extends FilterOutputStream {
+
+		long count = 0;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	/**
+	 * Body delimited by Content-Length
+	 */
+	private final class FixedLengthInputStream extends InputStream {
+
+		private int remaining;
+
+		FixedLengthInputStream(int length) {
+			remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if ( remaining == 0 )
+				return -1;
+			int b = in.read();
+			if ( b < 0 )
+				throw new EOFException("Unexpected end of response body");
+			remaining--;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if ( remaining == 0 )
+				return -1;
+			int n = in.read(b, off, Math.min(len, remaining));
+			if ( n < 0 )
+				throw new EOFException("Unexpected end of response body");
+			remaining -= n;
+			return n;
+		}
+	}
+
+	/**
+	 * Body with chunked transfer encoding; the trailers are consumed after the last chunk
+	 */
+	private final class ChunkedInputStream extends InputStream {
+
+		private int remaining = 0;
+		private boolean eof = false;
+
+		private boolean nextChunk() throws IOException {
+			if ( eof )
+				return false;
+			if ( remaining == 0 ) {
+				String sizeLine = readLine();
+				if ( sizeLine == null )
+					throw new EOFException("Unexpected end of chunked response body");
+				int ext = sizeLine.indexOf(';');
+				if ( ext >= 0 )
+					sizeLine = sizeLine.substring(0, ext);
+				remaining = parseLength(sizeLine, 16);
+				if ( remaining == 0 ) {
+					eof = true;
+					String line;
+					while ( (line = readLine()) != null && line.length() > 0 )
+						;
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if ( !nextChunk() )
+				return -1;
+			int b = in.read();
+			if ( b < 0 )
+				throw new EOFException("Unexpected end of chunked response body");
+			if ( --remaining == 0 )
+				readLine();
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if ( !nextChunk() )
+				return -1;
+			int n = in.read(b, off, Math.min(len, remaining));
+			if ( n < 0 )
+				throw new EOFException("Unexpected end of chunked response body");
+			remaining -= n;
+			if ( remaining == 0 )
+				readLine();
+			return n;
+		}
+	}
+
+	/**
+	 * Frames what is written as HTTP chunks; every write() of the body becomes one chunk so the
+	 * body is expected to write through a buffer
+	 */
+	private static final class ChunkedOutputStream extends OutputStream {
+
+		private final OutputStream out;
+
+		ChunkedOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if ( len == 0 )
+				return;
+			String size = Integer.toHexString(len);
+			for ( int ix = 0; ix < size.length(); ix++ )
+				out.write(size.charAt(ix));
+			out.write(CRLF);
+			out.write(b, off, len);
+			out.write(CRLF);
+		}
+
+		void finish() throws IOException {
+			out.write('0');
+			out.write(CRLF);
+			out.write(CRLF);
+		}
+	}
+
+	/**
+	 * Signals that the server closed or reset the connection before sending any byte of the response;
+	 * used to retry requests sent on a stale pooled connection
+	 */
+	static final class NoResponseException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		NoResponseException(IOException cause) {
+			super(cause.getMessage(), cause);
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package com.intacct.ws.transport;
+
+import java.util.Map;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Status, headers (lower case names) and body of a gateway HTTP response
+ */
+final class HttpResponse {
+
+	private final int status;
+	private final Map<String, String> headers;
+	private final ResponseBody body;
+
+	HttpResponse(int status, Map<String, String> headers, ResponseBody body) {
+		this.status = status;
+		this.headers = headers;
+		this.body = body;
+	}
+
+	int getStatus() {
+		return status;
+	}
+
+	String getHeader(String name) {
+		return headers.get(name.toLowerCase());
+	}
+
+	ResponseBody getBody() {
+		return body;
+	}
+}
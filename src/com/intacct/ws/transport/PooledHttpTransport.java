@@ -0,0 +1,201 @@
+package com.intacct.ws.transport;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Default APITransport: HTTP/1.1 POST over a bounded pool of keep-alive connections per endpoint
+ * so steady-state calls reuse warm TCP/TLS connections instead of paying a new handshake per call.
+ *
+ * 	maxPerRoute			maximum number of connections (idle + in use) per scheme://host:port
+ * 	idleTimeoutMillis	idle connections older than this are closed (the server Keep-Alive timeout is honored too)
+ * 	leaseTimeoutMillis	maximum wait for a free connection when maxPerRoute are in use
+ * 	connectTimeout, readTimeout	socket timeouts in milliseconds; 0 means no timeout
+ *
+ * Compressed (gzip or deflate) responses are negotiated with Accept-Encoding unless disabled with
+ * setAcceptCompressed(false), and inflated on the fly while they are captured.
+ *
+ * Responses are captured in buffers reused across calls (see BufferPool); the ResponseBody returned
+ * by execute() must be released once consumed so its buffer goes back to the pool.
+ *
+ * A request sent on a pooled connection that the server has closed in the meantime is sent again
+ * on a new connection, but only if the server closed or reset the connection without sending any byte
+ * of the response; never after a read timeout, as the server may have processed the request.
+ *
+ * Redirects (3xx) are not followed: the request is a POST that can't be replayed blindly to another location,
+ * so they fail with an IOException giving the Location to configure as the endpoint; 4xx and 5xx fail too.
+ *
+ * The proxy settings of the JVM (http.proxyHost, https.proxyHost, socksProxyHost, http.nonProxyHosts
+ * through the default ProxySelector) and HttpsURLConnection.getDefaultSSLSocketFactory() are used as by
+ * HttpURLConnection; proxy authentication is not supported.
+ *
+ * Thread safe; one instance is shared by default by all the sessions (see APISession.getDefaultTransport())
+ */
+public class PooledHttpTransport implements APITransport {
+
+	public final static int DEFAULT_MAX_PER_ROUTE = 8;
+	public final static long DEFAULT_IDLE_TIMEOUT = 30000;
+	public final static long DEFAULT_LEASE_TIMEOUT = 60000;
+
+	private final ConnectionPool pool;
+	private final BufferPool buffers = new BufferPool();
+
+	private volatile boolean acceptCompressed = true;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+	private final AtomicLong bytesSent = new AtomicLong();
+	private final AtomicLong bytesReceived = new AtomicLong();
+
+	public PooledHttpTransport() {
+		this(DEFAULT_MAX_PER_ROUTE, DEFAULT_IDLE_TIMEOUT, DEFAULT_LEASE_TIMEOUT, 0, 0);
+	}
+
+	public PooledHttpTransport(int maxPerRoute, long idleTimeoutMillis) {
+		this(maxPerRoute, idleTimeoutMillis, DEFAULT_LEASE_TIMEOUT, 0, 0);
+	}
+
+	public PooledHttpTransport(int maxPerRoute, long idleTimeoutMillis, long leaseTimeoutMillis,
+			int connectTimeout, int readTimeout) {
+		pool = new ConnectionPool(maxPerRoute, idleTimeoutMillis, leaseTimeoutMillis, connectTimeout, readTimeout);
+	}
+
+	public ResponseBody execute(RequestBody body, String endpoint) throws IOException {
+		URL url = new URL(endpoint);
+		String path = url.getFile();
+		if ( path == null || path.length() == 0 )
+			path = "/";
+
+		requests.incrementAndGet();
+		HttpResponse response = null;
+		boolean fresh = false;
+		while ( response == null ) {
+			HttpConnection conn = pool.lease(url, fresh);
+			boolean reused = conn.getRequestCount() > 0;
+			long sent = conn.getBytesSent(), received = conn.getBytesReceived();
+			try {
+				response = conn.post(path, body, buffers, acceptCompressed);
+			} catch (HttpConnection.NoResponseException ex) {
+				// the server has closed the idle connection without reading the request: safe to send again
+				if ( !reused )
+					throw ex;
+				retries.incrementAndGet();
+				fresh = true;
+			} finally {
+				bytesSent.addAndGet(conn.getBytesSent() - sent);
+				bytesReceived.addAndGet(conn.getBytesReceived() - received);
+				pool.release(conn);
+			}
+		}
+
+		if ( response.getStatus() >= 300 && response.getStatus() < 400 ) {
+			String location = response.getHeader("Location");
+			response.getBody().release();
+			throw new IOException("Server returned HTTP redirect " + response.getStatus()
+					+ (location == null ? "" : " to " + location) + " for URL: " + endpoint
+					+ "; redirects are not followed, use the new location as the endpoint");
+		}
+		if ( response.getStatus() >= 400 ) {
+			response.getBody().release();
+			throw new IOException("Server returned HTTP response code: " + response.getStatus() + " for URL: " + endpoint);
+		}
+
+		return response.getBody();
+	}
+
+	/**
+	 * @return true if the transport asks for gzip/deflate compressed responses (the default)
+	 */
+	public boolean isAcceptCompressed() {
+		return acceptCompressed;
+	}
+
+	/**
+	 * @param acceptCompressed true to send Accept-Encoding: gzip, deflate; the compressed responses
+	 * are inflated while they are read
+	 */
+	public void setAcceptCompressed(boolean acceptCompressed) {
+		this.acceptCompressed = acceptCompressed;
+	}
+
+	/**
+	 * Closes the idle connections that have been idle for longer than the idle timeout
+	 */
+	public void evictIdleConnections() {
+		pool.evictIdle();
+	}
+
+	public void close() {
+		pool.close();
+	}
+
+	/**
+	 * @return number of requests served with a warm connection from the pool
+	 */
+	public long getPoolHits() {
+		return pool.getHits();
+	}
+
+	/**
+	 * @return number of requests that had to open a new connection
+	 */
+	public long getPoolMisses() {
+		return pool.getMisses();
+	}
+
+	/**
+	 * @return number of idle connections closed because they expired
+	 */
+	public long getEvictions() {
+		return pool.getEvictions();
+	}
+
+	/**
+	 * @return number of requests sent again because the pooled connection was closed by the server
+	 */
+	public long getRetries() {
+		return retries.get();
+	}
+
+	/**
+	 * @return number of bytes written on the sockets (HTTP headers and body, before TLS)
+	 */
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	/**
+	 * @return number of bytes read from the sockets (HTTP headers and body as sent, before inflating)
+	 */
+	public long getBytesReceived() {
+		return bytesReceived.get();
+	}
+
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	public int getIdleConnections() {
+		return pool.getIdleCount();
+	}
+
+	public int getLeasedConnections() {
+		return pool.getLeasedCount();
+	}
+
+	/**
+	 * @return the pool of the buffers capturing the responses
+	 */
+	public BufferPool getBufferPool() {
+		return buffers;
+	}
+
+	public int getMaxPerRoute() {
+		return pool.getMaxPerRoute();
+	}
+}
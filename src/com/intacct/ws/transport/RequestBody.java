@@ -0,0 +1,38 @@
+package com.intacct.ws.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Body of a request posted by an APITransport, written straight into the connection output stream
+ *
+ * A body may be written more than once (the transport sends it again when a pooled connection turned
+ * out to be closed by the server) so writeTo() must not consume its source.
+ */
+public interface RequestBody {
+
+	/**
+	 * @return the exact number of bytes writeTo() will write, or -1 if not known in advance
+	 * (the body is then sent with chunked transfer encoding)
+	 */
+	public long contentLength();
+
+	/**
+	 * @return the value of the Content-Type header
+	 */
+	public String contentType();
+
+	/**
+	 * @return the value of the Content-Encoding header, null for a body sent as it is
+	 */
+	public String contentEncoding();
+
+	/**
+	 * Writes the body; the stream is neither flushed nor closed
+	 */
+	public void writeTo(OutputStream out) throws IOException;
+}
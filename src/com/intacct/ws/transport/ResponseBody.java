@@ -0,0 +1,116 @@
+package com.intacct.ws.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Body of a gateway response captured as bytes in a buffer borrowed from a BufferPool
+ *
+ * openStream() and openReader() give a view on the bytes that the parsers can consume without another copy;
+ * toString() decodes the body (UTF-8 unless the response declared another charset).
+ * release() (or close()) gives the buffer back to the pool; the body must not be used afterwards.
+ *
+ * NOT thread safe
+ */
+public class ResponseBody implements Closeable {
+
+	public final static Charset UTF8 = Charset.forName("UTF-8");
+
+	private byte[] buffer;
+	private final int length;
+	private final Charset charset;
+	private final BufferPool pool;
+
+	public ResponseBody(byte[] buffer, int length, Charset charset, BufferPool pool) {
+		this.buffer = buffer;
+		this.length = length;
+		this.charset = charset == null ? UTF8 : charset;
+		this.pool = pool;
+	}
+
+	/**
+	 * @return a body holding the UTF-8 bytes of the string, not pooled
+	 */
+	public static ResponseBody of(String s) {
+		byte[] bytes = s.getBytes(UTF8);
+		return new ResponseBody(bytes, bytes.length, UTF8, null);
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * @return the underlying buffer; only the first length() bytes belong to the body
+	 */
+	public byte[] getBuffer() {
+		checkReleased();
+		return buffer;
+	}
+
+	public InputStream openStream() {
+		checkReleased();
+		return new ByteArrayInputStream(buffer, 0, length);
+	}
+
+	public Reader openReader() {
+		return new InputStreamReader(openStream(), charset);
+	}
+
+	/**
+	 * @return true if the body has only white space
+	 */
+	public boolean isBlank() {
+		return firstToken() < 0;
+	}
+
+	/**
+	 * @return the first byte of the body that is not white space (after a UTF-8 byte order mark), -1 if
+	 * the body has only white space: '<' for an XML document, '[' or '{' for a JSON text
+	 */
+	public int firstToken() {
+		checkReleased();
+		int ix = 0;
+		if ( length >= 3 && buffer[0] == (byte) 0xEF && buffer[1] == (byte) 0xBB && buffer[2] == (byte) 0xBF )
+			ix = 3;
+		for ( ; ix < length; ix++ ) {
+			byte b = buffer[ix];
+			if ( b != ' ' && b != '\r' && b != '\n' && b != '\t' )
+				return b & 0xFF;
+		}
+		return -1;
+	}
+
+	@Override
+	public String toString() {
+		checkReleased();
+		return new String(buffer, 0, length, charset);
+	}
+
+	public void release() {
+		if ( buffer != null && pool != null )
+			pool.release(buffer);
+		buffer = null;
+	}
+
+	public void close() {
+		release();
+	}
+
+	private void checkReleased() {
+		if ( buffer == null )
+			throw new IllegalStateException("Response body already released");
+	}
+}
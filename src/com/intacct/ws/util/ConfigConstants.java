@@ -9,5 +9,9 @@ public interface ConfigConstants {
 	final String DB_ID			=	"DBID";
 	final String DB_PASSWD		=	"DBPasswd";
 	final String END_POINT_URL 	= 	"END_POINT_URL";
+	
+	// session token store (APIEncryptedTokenStore.getDefault()) 
+	final String TOKEN_STORE_FILE	=	"TOKEN_STORE_FILE";
+	final String TOKEN_STORE_KEY	=	"TOKEN_STORE_KEY";
 
 }
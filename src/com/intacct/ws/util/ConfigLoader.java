@@ -13,7 +13,7 @@ import com.intacct.ws.exception.IntacctSDKRuntimeException;
 
 /**
  * Simple config file loader for Intacct
- * Will load the config parameters from the env and if not defined will attempt to load from the config file 
+ * Will load the config parameters from the system properties, then the env and if not defined will attempt to load from the config file 
  * Exception if not found  
  * 
  * @author habrudan
@@ -43,7 +43,11 @@ public final class ConfigLoader {
 	}
 	
 	public static String getProperty(String key){
-		String configValue = env.get(key); 
+		// a system property (-Dkey=value) overrides the environment, e.g. to point the tests to a local gateway
+		String configValue = System.getProperty(key);
+		if (configValue == null) {
+			configValue = env.get(key);
+		}
 		if (configValue == null) {
 			configValue = getFromFile(key);
 		}
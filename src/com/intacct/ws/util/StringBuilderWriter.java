@@ -0,0 +1,66 @@
+package com.intacct.ws.util;
+
+import java.io.Writer;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Writer into a StringBuilder: a StringWriter without the lock of its StringBuffer on every write, for the
+ * serializers that write many small pieces (XML.write). Not thread safe.
+ */
+public final class StringBuilderWriter extends Writer {
+
+	private final StringBuilder builder;
+
+	public StringBuilderWriter(int capacity) {
+		builder = new StringBuilder(capacity);
+	}
+
+	@Override
+	public void write(int c) {
+		builder.append((char) c);
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) {
+		builder.append(cbuf, off, len);
+	}
+
+	@Override
+	public void write(String str) {
+		builder.append(str);
+	}
+
+	@Override
+	public void write(String str, int off, int len) {
+		builder.append(str, off, off + len);
+	}
+
+	@Override
+	public Writer append(CharSequence csq) {
+		builder.append(csq);
+		return this;
+	}
+
+	/**
+	 * @return the builder the characters are written into
+	 */
+	public StringBuilder getBuilder() {
+		return builder;
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public String toString() {
+		return builder.toString();
+	}
+}
@@ -0,0 +1,378 @@
+package org.json;
+
+/*
+Copyright (c) 2002 JSON.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+The Software shall be used for Good, not Evil.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The map of the properties of a JSONObject. Most objects are small records,
+ * so the keys and the values are kept in two parallel arrays, in the order
+ * they were put, with an index of the keys: a table of positions in a byte
+ * array, searched by linear probing from the hash of the key. There is no
+ * entry object per property. Past THRESHOLD properties the map moves them to
+ * a LinkedHashMap, keeping their order.
+ * <p>
+ * The iteration order is the insertion order. Not thread safe.
+ * @author JSON.org
+ * @version 2026-10-18
+ */
+final class CompactMap extends AbstractMap<Object, Object> {
+
+    /** the largest number of properties kept in the arrays */
+    static final int THRESHOLD = 64;
+
+    private static final Object[] EMPTY = new Object[0];
+
+    private Object[] keys = EMPTY;
+    private Object[] values = EMPTY;
+    /** position + 1 of the key in keys, 0 for an empty slot; null while empty */
+    private byte[] index;
+    private int size;
+    /** the properties once there are more than THRESHOLD, else null */
+    private Map<Object, Object> large;
+    private int modifications;
+
+
+    public int size() {
+        return this.large != null ? this.large.size() : this.size;
+    }
+
+
+    public boolean containsKey(Object key) {
+        return this.large != null ? this.large.containsKey(key)
+                : this.find(key) >= 0;
+    }
+
+
+    public Object get(Object key) {
+        if (this.large != null) {
+            return this.large.get(key);
+        }
+        int position = this.find(key);
+        return position < 0 ? null : this.values[position];
+    }
+
+
+    public Object put(Object key, Object value) {
+        if (this.large != null) {
+            return this.large.put(key, value);
+        }
+        int position = this.find(key);
+        if (position >= 0) {
+            Object previous = this.values[position];
+            this.values[position] = value;
+            return previous;
+        }
+        if (this.size == THRESHOLD) {
+            this.large = new LinkedHashMap<Object, Object>(THRESHOLD * 4);
+            for (int i = 0; i < this.size; i += 1) {
+                this.large.put(this.keys[i], this.values[i]);
+            }
+            this.keys = EMPTY;
+            this.values = EMPTY;
+            this.index = null;
+            this.size = 0;
+            this.modifications += 1;
+            return this.large.put(key, value);
+        }
+        if (this.size == this.keys.length) {
+            this.grow();
+        }
+        this.keys[this.size] = key;
+        this.values[this.size] = value;
+        this.size += 1;
+        this.insert(this.size - 1);
+        this.modifications += 1;
+        return null;
+    }
+
+
+    public Object remove(Object key) {
+        if (this.large != null) {
+            return this.large.remove(key);
+        }
+        int position = this.find(key);
+        if (position < 0) {
+            return null;
+        }
+        Object previous = this.values[position];
+        this.removeAt(position);
+        return previous;
+    }
+
+
+    public void clear() {
+        if (this.large != null) {
+            this.large.clear();
+            return;
+        }
+        for (int i = 0; i < this.size; i += 1) {
+            this.keys[i] = null;
+            this.values[i] = null;
+        }
+        if (this.index != null) {
+            Arrays.fill(this.index, (byte) 0);
+        }
+        this.size = 0;
+        this.modifications += 1;
+    }
+
+
+    public Set<Object> keySet() {
+        if (this.large != null) {
+            return this.large.keySet();
+        }
+        return new AbstractSet<Object>() {
+            public Iterator<Object> iterator() {
+                return new Cursor<Object>() {
+                    Object element(int position) {
+                        return CompactMap.this.keys[position];
+                    }
+                };
+            }
+
+            public int size() {
+                return CompactMap.this.size();
+            }
+
+            public boolean contains(Object key) {
+                return CompactMap.this.containsKey(key);
+            }
+
+            public boolean remove(Object key) {
+                if (!CompactMap.this.containsKey(key)) {
+                    return false;
+                }
+                CompactMap.this.remove(key);
+                return true;
+            }
+        };
+    }
+
+
+    public Set<Map.Entry<Object, Object>> entrySet() {
+        if (this.large != null) {
+            return this.large.entrySet();
+        }
+        return new AbstractSet<Map.Entry<Object, Object>>() {
+            public Iterator<Map.Entry<Object, Object>> iterator() {
+                return new Cursor<Map.Entry<Object, Object>>() {
+                    Map.Entry<Object, Object> element(int position) {
+                        return new Entry(position);
+                    }
+                };
+            }
+
+            public int size() {
+                return CompactMap.this.size();
+            }
+        };
+    }
+
+
+    /**
+     * Iterator over the keys or the entries of the arrays.
+     */
+    private abstract class Cursor<E> implements Iterator<E> {
+        private int next;
+        private int last = -1;
+        private int expected = CompactMap.this.modifications;
+
+        /**
+         * @return the key or the entry at the position.
+         */
+        abstract E element(int position);
+
+        public boolean hasNext() {
+            // after the switch to the LinkedHashMap, next() fails
+            return this.next < CompactMap.this.size
+                    || CompactMap.this.large != null;
+        }
+
+        public E next() {
+            if (this.expected != CompactMap.this.modifications
+                    || CompactMap.this.large != null) {
+                throw new ConcurrentModificationException();
+            }
+            if (this.next >= CompactMap.this.size) {
+                throw new NoSuchElementException();
+            }
+            this.last = this.next;
+            this.next += 1;
+            return this.element(this.last);
+        }
+
+        public void remove() {
+            if (this.last < 0) {
+                throw new IllegalStateException();
+            }
+            if (this.expected != CompactMap.this.modifications) {
+                throw new ConcurrentModificationException();
+            }
+            CompactMap.this.removeAt(this.last);
+            this.next = this.last;
+            this.last = -1;
+            this.expected = CompactMap.this.modifications;
+        }
+    }
+
+
+    /**
+     * A property of the arrays, writing through to them.
+     */
+    private final class Entry implements Map.Entry<Object, Object> {
+        private final int position;
+
+        Entry(int position) {
+            this.position = position;
+        }
+
+        public Object getKey() {
+            return CompactMap.this.keys[this.position];
+        }
+
+        public Object getValue() {
+            return CompactMap.this.values[this.position];
+        }
+
+        public Object setValue(Object value) {
+            Object previous = CompactMap.this.values[this.position];
+            CompactMap.this.values[this.position] = value;
+            return previous;
+        }
+
+        public boolean equals(Object object) {
+            if (!(object instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) object;
+            return same(this.getKey(), e.getKey())
+                    && same(this.getValue(), e.getValue());
+        }
+
+        public int hashCode() {
+            Object key = this.getKey();
+            Object value = this.getValue();
+            return (key == null ? 0 : key.hashCode())
+                    ^ (value == null ? 0 : value.hashCode());
+        }
+
+        public String toString() {
+            return this.getKey() + "=" + this.getValue();
+        }
+    }
+
+
+    /**
+     * @return the position of the key in the arrays, -1 if it is not there.
+     */
+    private int find(Object key) {
+        byte[] index = this.index;
+        if (index == null) {
+            return -1;
+        }
+        int mask = index.length - 1;
+        int slot = hash(key) & mask;
+        int position;
+        while ((position = index[slot]) != 0) {
+            if (same(this.keys[position - 1], key)) {
+                return position - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+
+    /**
+     * Put the key at the position in the index.
+     */
+    private void insert(int position) {
+        byte[] index = this.index;
+        int mask = index.length - 1;
+        int slot = hash(this.keys[position]) & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = (byte) (position + 1);
+    }
+
+
+    /**
+     * Remove the property at the position, keeping the order of the others.
+     */
+    private void removeAt(int position) {
+        int moved = this.size - position - 1;
+        System.arraycopy(this.keys, position + 1, this.keys, position, moved);
+        System.arraycopy(this.values, position + 1, this.values, position, moved);
+        this.size -= 1;
+        this.keys[this.size] = null;
+        this.values[this.size] = null;
+        this.reindex();
+        this.modifications += 1;
+    }
+
+
+    /**
+     * Double the arrays; the index has twice as many slots as the arrays.
+     */
+    private void grow() {
+        int capacity = this.keys.length == 0 ? 8 : this.keys.length * 2;
+        this.keys = Arrays.copyOf(this.keys, capacity);
+        this.values = Arrays.copyOf(this.values, capacity);
+        this.index = new byte[capacity * 2];
+        this.reindex();
+    }
+
+
+    private void reindex() {
+        Arrays.fill(this.index, (byte) 0);
+        for (int i = 0; i < this.size; i += 1) {
+            this.insert(i);
+        }
+    }
+
+
+    private static int hash(Object key) {
+        if (key == null) {
+            return 0;
+        }
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+
+    private static boolean same(Object a, Object b) {
+        return a == b || (a != null && a.equals(b));
+    }
+}
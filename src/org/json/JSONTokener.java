@@ -1,11 +1,10 @@
 package org.json;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.StringReader;
+import java.util.Arrays;
 
 /*
 Copyright (c) 2002 JSON.org
@@ -35,11 +34,18 @@ SOFTWARE.
  * A JSONTokener takes a source string and extracts characters and tokens from
  * it. It is used by the JSONObject and JSONArray constructors to parse
  * JSON source strings.
+ * <p>
+ * The characters are read from a window: the whole source string, or a
+ * buffer filled from the reader by blocks. Strings and unquoted values are
+ * scanned in the window and taken with a single copy when they have no
+ * escapes.
  * @author JSON.org
  * @version 2012-02-16
  */
 public class JSONTokener {
 
+    private static final int BUFFER_SIZE = 8192;
+
     private long    character;
     private boolean eof;
     private long    index;
@@ -48,6 +54,16 @@ public class JSONTokener {
     private Reader  reader;
     private boolean usePrevious;
 
+    /**
+     * the window: the characters of buffer from 0 to limit, pos is the next
+     * one; the scanners of XMLTokener read it directly
+     */
+    char[]          buffer;
+    int             pos;
+    int             limit;
+    /** position of the window to keep when it is refilled (skipTo), -1 for none */
+    private int     mark = -1;
+
 
     /**
      * Construct a JSONTokener from a Reader.
@@ -55,15 +71,9 @@ public class JSONTokener {
      * @param reader     A reader.
      */
     public JSONTokener(Reader reader) {
-        this.reader = reader.markSupported()
-            ? reader
-            : new BufferedReader(reader);
-        this.eof = false;
-        this.usePrevious = false;
-        this.previous = 0;
-        this.index = 0;
-        this.character = 1;
-        this.line = 1;
+        this.reader = reader;
+        this.buffer = new char[BUFFER_SIZE];
+        this.init();
     }
 
 
@@ -81,7 +91,108 @@ public class JSONTokener {
      * @param s     A source string.
      */
     public JSONTokener(String s) {
-        this(new StringReader(s));
+        this.reader = null;
+        this.buffer = s.toCharArray();
+        this.limit = this.buffer.length;
+        this.init();
+    }
+
+
+    private void init() {
+        this.eof = false;
+        this.usePrevious = false;
+        this.previous = 0;
+        this.index = 0;
+        this.character = 1;
+        this.line = 1;
+    }
+
+
+    /**
+     * Read the next block of the reader into the window, keeping the last
+     * character read (and the characters from the mark, if any).
+     *
+     * @return false at the end of the source.
+     */
+    private boolean fill() throws JSONException {
+        if (this.reader == null) {
+            return false;
+        }
+        int keep = this.mark >= 0 ? this.mark : Math.max(this.pos - 1, 0);
+        if (keep > 0) {
+            System.arraycopy(this.buffer, keep, this.buffer, 0, this.limit - keep);
+            this.pos -= keep;
+            this.limit -= keep;
+            if (this.mark >= 0) {
+                this.mark = 0;
+            }
+        }
+        if (this.limit == this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+        }
+        try {
+            int n;
+            do {
+                n = this.reader.read(this.buffer, this.limit,
+                        this.buffer.length - this.limit);
+            } while (n == 0);
+            if (n < 0) {
+                return false;
+            }
+            this.limit += n;
+            return true;
+        } catch (IOException exception) {
+            throw new JSONException(exception);
+        }
+    }
+
+
+    /**
+     * @return true if back() has been called and the next character is the
+     * previous one, not the one at pos in the window.
+     */
+    boolean backedUp() {
+        return this.usePrevious;
+    }
+
+
+    /**
+     * Take the characters of the window from pos up to (not including) to,
+     * counting the lines like next() does.
+     */
+    void advance(int to) {
+        char[] buf = this.buffer;
+        for (int ix = this.pos; ix < to; ix += 1) {
+            char c = buf[ix];
+            if (this.previous == '\r') {
+                this.line += 1;
+                this.character = c == '\n' ? 0 : 1;
+            } else if (c == '\n') {
+                this.line += 1;
+                this.character = 0;
+            } else {
+                this.character += 1;
+            }
+            this.previous = c;
+        }
+        this.index += to - this.pos;
+        this.pos = to;
+    }
+
+
+    /**
+     * Account for count characters taken from the window in a block, the
+     * last one being last; none of them is a line break.
+     */
+    private void skipped(int count, char last) {
+        this.index += count;
+        if (this.previous == '\r') {
+            this.line += 1;
+            this.character = count;
+        } else {
+            this.character += count;
+        }
+        this.previous = last;
     }
 
 
@@ -151,10 +262,10 @@ public class JSONTokener {
             this.usePrevious = false;
             c = this.previous;
         } else {
-            try {
-                c = this.reader.read();
-            } catch (IOException exception) {
-                throw new JSONException(exception);
+            if (this.pos < this.limit || this.fill()) {
+                c = this.buffer[this.pos++];
+            } else {
+                c = -1;
             }
 
             if (c <= 0) { // End of stream
@@ -250,7 +361,25 @@ public class JSONTokener {
      */
     public String nextString(char quote) throws JSONException {
         char c;
-        StringBuffer sb = new StringBuffer();
+        int start = this.pos;
+        if (!this.usePrevious) {
+            // no escape up to the closing quote in the window: one copy
+            char[] buf = this.buffer;
+            int end = this.limit;
+            for (int ix = start; ix < end; ix++) {
+                c = buf[ix];
+                if (c == quote) {
+                    String string = new String(buf, start, ix - start);
+                    this.pos = ix + 1;
+                    this.skipped(ix + 1 - start, quote);
+                    return string;
+                }
+                if (c == '\\' || c == '\n' || c == '\r' || c == 0) {
+                    break;
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder();
         for (;;) {
             c = this.next();
             switch (c) {
@@ -375,14 +504,38 @@ public class JSONTokener {
          * formatting character.
          */
 
-        StringBuffer sb = new StringBuffer();
-        while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
-            sb.append(c);
-            c = this.next();
+        string = null;
+        if (!this.usePrevious && this.pos > 0 && this.buffer[this.pos - 1] == c
+                && isUnquoted(c)) {
+            // the value is taken from the window if it ends there
+            char[] buf = this.buffer;
+            int start = this.pos - 1;
+            int end = this.limit;
+            int ix = this.pos;
+            while (ix < end && isUnquoted(buf[ix])) {
+                ix += 1;
+            }
+            if (ix < end) {
+                string = new String(buf, start, ix - start);
+                if (ix > this.pos) {
+                    this.skipped(ix - this.pos, buf[ix - 1]);
+                }
+                this.pos = ix;
+                this.next();
+                this.back();
+            }
+        }
+        if (string == null) {
+            StringBuilder sb = new StringBuilder();
+            while (isUnquoted(c)) {
+                sb.append(c);
+                c = this.next();
+            }
+            this.back();
+            string = sb.toString();
         }
-        this.back();
 
-        string = sb.toString().trim();
+        string = string.trim();
         if ("".equals(string)) {
             throw this.syntaxError("Missing value");
         }
@@ -390,6 +543,14 @@ public class JSONTokener {
     }
 
 
+    /**
+     * @return true for a character of an unquoted value.
+     */
+    private static boolean isUnquoted(char c) {
+        return c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0;
+    }
+
+
     /**
      * Skip characters until the next character is the requested character.
      * If the requested character is not found, no characters are skipped.
@@ -399,23 +560,29 @@ public class JSONTokener {
      */
     public char skipTo(char to) throws JSONException {
         char c;
+        long startIndex = this.index;
+        long startCharacter = this.character;
+        long startLine = this.line;
+        char startPrevious = this.previous;
+        boolean startUsePrevious = this.usePrevious;
+        boolean startEof = this.eof;
+        this.mark = this.pos;
         try {
-            long startIndex = this.index;
-            long startCharacter = this.character;
-            long startLine = this.line;
-            this.reader.mark(1000000);
             do {
                 c = this.next();
                 if (c == 0) {
-                    this.reader.reset();
+                    this.pos = this.mark;
                     this.index = startIndex;
                     this.character = startCharacter;
                     this.line = startLine;
+                    this.previous = startPrevious;
+                    this.usePrevious = startUsePrevious;
+                    this.eof = startEof;
                     return c;
                 }
             } while (c != to);
-        } catch (IOException exc) {
-            throw new JSONException(exc);
+        } finally {
+            this.mark = -1;
         }
 
         this.back();
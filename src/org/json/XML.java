@@ -24,6 +24,11 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 SOFTWARE.
 */
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
 import java.util.Iterator;
 
 
@@ -100,6 +105,43 @@ public class XML {
         return sb.toString();
     }
 
+    /**
+     * Write the string with the XML escapes of escape(string), copying the
+     * runs of plain characters as they are.
+     * @param string The string to be escaped.
+     * @param writer The destination of the escaped string.
+     * @throws IOException
+     */
+    static void escape(String string, Writer writer) throws IOException {
+        int start = 0;
+        for (int i = 0, length = string.length(); i < length; i++) {
+            String entity;
+            switch (string.charAt(i)) {
+            case '&':
+                entity = "&amp;";
+                break;
+            case '<':
+                entity = "&lt;";
+                break;
+            case '>':
+                entity = "&gt;";
+                break;
+            case '"':
+                entity = "&quot;";
+                break;
+            case '\'':
+                entity = "&apos;";
+                break;
+            default:
+                continue;
+            }
+            writer.write(string, start, i - start);
+            writer.write(entity);
+            start = i + 1;
+        }
+        writer.write(string, start, string.length() - start);
+    }
+
     /**
      * Throw an exception if the string contains whitespace.
      * Whitespace is not allowed in tagNames and attributes.
@@ -291,6 +333,16 @@ public class XML {
     }
 
 
+    /**
+     * How stringToValue converts the decimal numbers, such as the money
+     * amounts: to a Double if the Double gives back the same text (the
+     * default), to an exact BigDecimal, or not at all (the text is kept).
+     */
+    public enum DecimalMode {
+        DOUBLE, BIG_DECIMAL, STRING
+    }
+
+
     /**
      * Try to convert a string into a number, boolean, or null. If the string
      * can't be converted, return the string. This is much less ambitious than
@@ -301,37 +353,118 @@ public class XML {
      * @return A simple JSON value.
      */
     public static Object stringToValue(String string) {
-        if ("true".equalsIgnoreCase(string)) {
-            return Boolean.TRUE;
+        return stringToValue(string, DecimalMode.DOUBLE);
+    }
+
+
+    /**
+     * Try to convert a string into a number, boolean, or null, like
+     * stringToValue(String), the decimal numbers being converted as the mode
+     * says. The string is classified in a single pass, without exceptions: a
+     * Long is returned for an integer written as Long.toString would write
+     * it, a decimal number for digits, a point, digits and an optional
+     * exponent (E, optional minus, digits).
+     * @param string A String.
+     * @param decimals The conversion of the decimal numbers.
+     * @return A simple JSON value.
+     */
+    public static Object stringToValue(String string, DecimalMode decimals) {
+        int length = string.length();
+        if (length == 0) {
+            return string;
+        }
+        char initial = string.charAt(0);
+        if (initial == '-' || (initial >= '0' && initial <= '9')) {
+            return numberToValue(string, decimals);
         }
-        if ("false".equalsIgnoreCase(string)) {
+        if (length == 4) {
+            if ("true".equalsIgnoreCase(string)) {
+                return Boolean.TRUE;
+            }
+            if ("null".equalsIgnoreCase(string)) {
+                return JSONObject.NULL;
+            }
+        } else if (length == 5 && "false".equalsIgnoreCase(string)) {
             return Boolean.FALSE;
         }
-        if ("null".equalsIgnoreCase(string)) {
-            return JSONObject.NULL;
+        return string;
+    }
+
+
+    /**
+     * The value of a string starting with a digit or a minus.
+     */
+    private static Object numberToValue(String string, DecimalMode decimals) {
+        int length = string.length();
+        int start = string.charAt(0) == '-' ? 1 : 0;
+        int i = skipDigits(string, start);
+
+// Integer: a Long if it has no leading zero, no minus zero and fits.
+// Too long for a Long, it could only be a Double written with an exponent.
+
+        if (i == length) {
+            int count = length - start;
+            if (count == 0 || (string.charAt(start) == '0' && (count > 1 || start > 0))) {
+                return string;
+            }
+            if (count < 19 || (count == 19 && string.compareTo(start > 0
+                    ? "-9223372036854775808" : "9223372036854775807") <= 0)) {
+                return Long.valueOf(Long.parseLong(string));
+            }
+            return string;
         }
 
-// If it might be a number, try converting it, first as a Long, and then as a
-// Double. If that doesn't work, return the string.
+// Decimal: digits '.' digits [ 'E' [ '-' ] digits ], the form of Double.toString
 
-        try {
-            char initial = string.charAt(0);
-            if (initial == '-' || (initial >= '0' && initial <= '9')) {
-                Long value = new Long(string);
-                if (value.toString().equals(string)) {
-                    return value;
-                }
+        if (i == start || string.charAt(i) != '.') {
+            if (decimals == DecimalMode.DOUBLE && string.equals("-Infinity")) {
+                return Double.NEGATIVE_INFINITY;
             }
-        }  catch (Exception ignore) {
-            try {
-                Double value = new Double(string);
-                if (value.toString().equals(string)) {
-                    return value;
-                }
-            }  catch (Exception ignoreAlso) {
+            return string;
+        }
+        int fraction = i + 1;
+        i = skipDigits(string, fraction);
+        if (i == fraction) {
+            return string;
+        }
+        if (i < length) {
+            if (string.charAt(i) != 'E') {
+                return string;
+            }
+            int exponent = i + 1;
+            if (exponent < length && string.charAt(exponent) == '-') {
+                exponent += 1;
+            }
+            i = skipDigits(string, exponent);
+            if (i == exponent || i < length) {
+                return string;
             }
         }
-        return string;
+        switch (decimals) {
+        case BIG_DECIMAL:
+            if (string.charAt(start) == '0' && fraction - start > 2) {
+                return string;
+            }
+            return new BigDecimal(string);
+        case STRING:
+            return string;
+        default:
+            Double value = Double.valueOf(string);
+            return value.toString().equals(string) ? value : string;
+        }
+    }
+
+
+    private static int skipDigits(String string, int i) {
+        int length = string.length();
+        while (i < length) {
+            char c = string.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            i += 1;
+        }
+        return i;
     }
 
 
@@ -350,8 +483,24 @@ public class XML {
      * @throws JSONException
      */
     public static JSONObject toJSONObject(String string) throws JSONException {
+        return toJSONObject(new XMLTokener(string));
+    }
+
+
+    /**
+     * Convert a well-formed (but not necessarily valid) XML text read from
+     * a Reader into a JSONObject. See toJSONObject(String).
+     * @param reader The source reader.
+     * @return A JSONObject containing the structured data from the XML text.
+     * @throws JSONException
+     */
+    public static JSONObject toJSONObject(Reader reader) throws JSONException {
+        return toJSONObject(new XMLTokener(reader));
+    }
+
+
+    private static JSONObject toJSONObject(XMLTokener x) throws JSONException {
         JSONObject jo = new JSONObject();
-        XMLTokener x = new XMLTokener(string);
         while (x.more() && x.skipPast("<")) {
             parse(x, jo, null);
         }
@@ -379,23 +528,50 @@ public class XML {
      */
     public static String toString(Object object, String tagName)
             throws JSONException {
-        StringBuffer sb = new StringBuffer();
+        StringWriter sw = new StringWriter();
+        write(object, tagName, sw);
+        return sw.toString();
+    }
+
+
+    /**
+     * Write a JSONObject as a well-formed, element-normal XML text, the same
+     * text as toString(object, tagName). The nested objects are written in
+     * place, no intermediate string is built.
+     * @param object A JSONObject.
+     * @param tagName The optional name of the enclosing tag.
+     * @param writer The destination of the XML text.
+     * @return The writer.
+     * @throws JSONException
+     */
+    public static Writer write(Object object, String tagName, Writer writer)
+            throws JSONException {
+        try {
+            writeValue(object, tagName, writer);
+            return writer;
+        } catch (IOException exception) {
+            throw new JSONException(exception);
+        }
+    }
+
+
+    private static void writeValue(Object object, String tagName, Writer writer)
+            throws IOException {
         int          i;
         JSONArray    ja;
         JSONObject   jo;
         String       key;
         Iterator     keys;
         int          length;
-        String       string;
         Object       value;
         if (object instanceof JSONObject) {
 
 // Emit <tagName>
 
             if (tagName != null) {
-                sb.append('<');
-                sb.append(tagName);
-                sb.append('>');
+                writer.write('<');
+                writer.write(tagName);
+                writer.write('>');
             }
 
 // Loop thru the keys.
@@ -408,11 +584,6 @@ public class XML {
                 if (value == null) {
                     value = "";
                 }
-                if (value instanceof String) {
-                    string = (String)value;
-                } else {
-                    string = null;
-                }
 
 // Emit content in body
 
@@ -422,12 +593,12 @@ public class XML {
                         length = ja.length();
                         for (i = 0; i < length; i += 1) {
                             if (i > 0) {
-                                sb.append('\n');
+                                writer.write('\n');
                             }
-                            sb.append(escape(ja.get(i).toString()));
+                            escape(ja.get(i).toString(), writer);
                         }
                     } else {
-                        sb.append(escape(value.toString()));
+                        escape(value.toString(), writer);
                     }
 
 // Emit an array of similar keys
@@ -438,57 +609,69 @@ public class XML {
                     for (i = 0; i < length; i += 1) {
                         value = ja.get(i);
                         if (value instanceof JSONArray) {
-                            sb.append('<');
-                            sb.append(key);
-                            sb.append('>');
-                            sb.append(toString(value));
-                            sb.append("</");
-                            sb.append(key);
-                            sb.append('>');
+                            writer.write('<');
+                            writer.write(key);
+                            writer.write('>');
+                            writeValue(value, null, writer);
+                            writer.write("</");
+                            writer.write(key);
+                            writer.write('>');
                         } else {
-                            sb.append(toString(value, key));
+                            writeValue(value, key, writer);
                         }
                     }
                 } else if ("".equals(value)) {
-                    sb.append('<');
-                    sb.append(key);
-                    sb.append("/>");
+                    writer.write('<');
+                    writer.write(key);
+                    writer.write("/>");
 
 // Emit a new tag <k>
 
                 } else {
-                    sb.append(toString(value, key));
+                    writeValue(value, key, writer);
                 }
             }
             if (tagName != null) {
 
 // Emit the </tagname> close tag
 
-                sb.append("</");
-                sb.append(tagName);
-                sb.append('>');
+                writer.write("</");
+                writer.write(tagName);
+                writer.write('>');
             }
-            return sb.toString();
 
 // XML does not have good support for arrays. If an array appears in a place
 // where XML is lacking, synthesize an <array> element.
 
         } else {
-            if (object.getClass().isArray()) {
+            if (object != null && object.getClass().isArray()) {
                 object = new JSONArray(object);
             }
             if (object instanceof JSONArray) {
                 ja = (JSONArray)object;
                 length = ja.length();
                 for (i = 0; i < length; i += 1) {
-                    sb.append(toString(ja.opt(i), tagName == null ? "array" : tagName));
+                    writeValue(ja.opt(i), tagName == null ? "array" : tagName, writer);
                 }
-                return sb.toString();
             } else {
-                string = (object == null) ? "null" : escape(object.toString());
-                return (tagName == null) ? "\"" + string + "\"" :
-                    (string.length() == 0) ? "<" + tagName + "/>" :
-                    "<" + tagName + ">" + string + "</" + tagName + ">";
+                String string = (object == null) ? "null" : object.toString();
+                if (tagName == null) {
+                    writer.write('"');
+                    escape(string, writer);
+                    writer.write('"');
+                } else if (string.length() == 0) {
+                    writer.write('<');
+                    writer.write(tagName);
+                    writer.write("/>");
+                } else {
+                    writer.write('<');
+                    writer.write(tagName);
+                    writer.write('>');
+                    escape(string, writer);
+                    writer.write("</");
+                    writer.write(tagName);
+                    writer.write('>');
+                }
             }
         }
     }
@@ -27,6 +27,11 @@ SOFTWARE.
 /**
  * The XMLTokener extends the JSONTokener to provide additional methods
  * for the parsing of XML texts.
+ * <p>
+ * The content, names, quoted values and CDATA blocks are looked for in bulk
+ * in the window of the JSONTokener and taken with a single copy when they
+ * end in the window and have no entity; otherwise they are read character by
+ * character.
  * @author JSON.org
  * @version 2012-11-13
  */
@@ -55,6 +60,14 @@ public class XMLTokener extends JSONTokener {
         super(s);
     }
 
+    /**
+     * Construct an XMLTokener from a Reader.
+     * @param reader A reader.
+     */
+    public XMLTokener(java.io.Reader reader) {
+        super(reader);
+    }
+
     /**
      * Get the text in the CDATA block.
      * @return The string up to the <code>]]&gt;</code>.
@@ -63,7 +76,21 @@ public class XMLTokener extends JSONTokener {
     public String nextCDATA() throws JSONException {
         char         c;
         int          i;
-        StringBuffer sb = new StringBuffer();
+        if (!backedUp()) {
+            char[] buf = this.buffer;
+            int end = this.limit - 2;
+            for (i = this.pos; i < end; i += 1) {
+                if (buf[i] == ']' && buf[i + 1] == ']' && buf[i + 2] == '>') {
+                    String string = new String(buf, this.pos, i - this.pos);
+                    advance(i + 3);
+                    return string;
+                }
+                if (buf[i] == 0) {
+                    break;
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder();
         for (;;) {
             c = next();
             if (end()) {
@@ -90,8 +117,8 @@ public class XMLTokener extends JSONTokener {
      * @throws JSONException
      */
     public Object nextContent() throws JSONException {
-        char         c;
-        StringBuffer sb;
+        char          c;
+        StringBuilder sb;
         do {
             c = next();
         } while (Character.isWhitespace(c));
@@ -101,7 +128,30 @@ public class XMLTokener extends JSONTokener {
         if (c == '<') {
             return XML.LT;
         }
-        sb = new StringBuffer();
+        if (c != '&' && !backedUp() && this.pos > 0 && this.buffer[this.pos - 1] == c) {
+            char[] buf = this.buffer;
+            int start = this.pos - 1;
+            int end = this.limit;
+            int i = this.pos;
+            while (i < end && buf[i] != '<' && buf[i] != '&' && buf[i] != 0) {
+                i += 1;
+            }
+            if (i < end && buf[i] == '<') {
+                int last = i;
+                while (last > start && buf[last - 1] <= ' ') {
+                    last -= 1;
+                }
+                while (start < last && buf[start] <= ' ') {
+                    start += 1;
+                }
+                String string = new String(buf, start, last - start);
+                advance(i);
+                next();
+                back();
+                return string;
+            }
+        }
+        sb = new StringBuilder();
         for (;;) {
             if (c == '<' || c == 0) {
                 back();
@@ -125,7 +175,22 @@ public class XMLTokener extends JSONTokener {
      * @throws JSONException If missing ';' in XML entity.
      */
     public Object nextEntity(char ampersand) throws JSONException {
-        StringBuffer sb = new StringBuffer();
+        if (!backedUp()) {
+            char[] buf = this.buffer;
+            int end = this.limit;
+            int i = this.pos;
+            while (i < end && (Character.isLetterOrDigit(buf[i]) || buf[i] == '#')) {
+                i += 1;
+            }
+            if (i < end && buf[i] == ';') {
+                Character known = knownEntity(buf, this.pos, i);
+                if (known != null) {
+                    advance(i + 1);
+                    return known;
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder();
         for (;;) {
             char c = next();
             if (Character.isLetterOrDigit(c) || c == '#') {
@@ -142,6 +207,47 @@ public class XMLTokener extends JSONTokener {
     }
 
 
+    /**
+     * The built-in entities without a lookup in the entity table.
+     * @return the Character of the entity between start and end (its name
+     *  in any case), or null if it is not amp, apos, gt, lt or quot.
+     */
+    private static Character knownEntity(char[] buf, int start, int end) {
+        switch (end - start) {
+        case 2:
+            if (is(buf, start, "gt")) {
+                return XML.GT;
+            }
+            if (is(buf, start, "lt")) {
+                return XML.LT;
+            }
+            return null;
+        case 3:
+            return is(buf, start, "amp") ? XML.AMP : null;
+        case 4:
+            if (is(buf, start, "apos")) {
+                return XML.APOS;
+            }
+            if (is(buf, start, "quot")) {
+                return XML.QUOT;
+            }
+            return null;
+        default:
+            return null;
+        }
+    }
+
+
+    private static boolean is(char[] buf, int start, String name) {
+        for (int i = 0; i < name.length(); i += 1) {
+            if (Character.toLowerCase(buf[start + i]) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
     /**
      * Returns the next XML meta token. This is used for skipping over <!...>
      * and <?...?> structures.
@@ -219,7 +325,7 @@ public class XMLTokener extends JSONTokener {
     public Object nextToken() throws JSONException {
         char c;
         char q;
-        StringBuffer sb;
+        StringBuilder sb;
         do {
             c = next();
         } while (Character.isWhitespace(c));
@@ -244,7 +350,20 @@ public class XMLTokener extends JSONTokener {
         case '"':
         case '\'':
             q = c;
-            sb = new StringBuffer();
+            if (!backedUp()) {
+                char[] buf = this.buffer;
+                int end = this.limit;
+                int i = this.pos;
+                while (i < end && buf[i] != q && buf[i] != '&' && buf[i] != 0) {
+                    i += 1;
+                }
+                if (i < end && buf[i] == q) {
+                    String string = new String(buf, this.pos, i - this.pos);
+                    advance(i + 1);
+                    return string;
+                }
+            }
+            sb = new StringBuilder();
             for (;;) {
                 c = next();
                 if (c == 0) {
@@ -263,7 +382,30 @@ public class XMLTokener extends JSONTokener {
 
 // Name
 
-            sb = new StringBuffer();
+            if (!backedUp() && this.pos > 0 && this.buffer[this.pos - 1] == c) {
+                char[] buf = this.buffer;
+                int end = this.limit;
+                int i = this.pos;
+                while (i < end && isNameChar(buf[i])) {
+                    i += 1;
+                }
+                if (i < end) {
+                    char stop = buf[i];
+                    if (Character.isWhitespace(stop)) {
+                        String string = new String(buf, this.pos - 1, i + 1 - this.pos);
+                        advance(i + 1);
+                        return string;
+                    }
+                    if (stop != '<' && stop != '"' && stop != '\'' && stop != 0) {
+                        String string = new String(buf, this.pos - 1, i + 1 - this.pos);
+                        advance(i);
+                        next();
+                        back();
+                        return string;
+                    }
+                }
+            }
+            sb = new StringBuilder();
             for (;;) {
                 sb.append(c);
                 c = next();
@@ -292,6 +434,29 @@ public class XMLTokener extends JSONTokener {
     }
 
 
+    /**
+     * @return true for a character that doesn't end a name.
+     */
+    private static boolean isNameChar(char c) {
+        switch (c) {
+        case 0:
+        case '>':
+        case '/':
+        case '=':
+        case '!':
+        case '?':
+        case '[':
+        case ']':
+        case '<':
+        case '"':
+        case '\'':
+            return false;
+        default:
+            return !Character.isWhitespace(c);
+        }
+    }
+
+
     /**
      * Skip characters until past the requested string.
      * If it is not found, we are left at the end of the source with a result of false.
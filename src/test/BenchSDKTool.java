@@ -0,0 +1,468 @@
+package test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.json.XML;
+
+import com.intacct.ws.APIJsonParser;
+import com.intacct.ws.APIResponseParser;
+import com.intacct.ws.APISession;
+import com.intacct.ws.transport.FormEncodedBody;
+import com.intacct.ws.transport.PooledHttpTransport;
+import com.intacct.ws.transport.RequestBody;
+import com.intacct.ws.transport.ResponseBody;
+import com.intacct.ws.util.ConfigConstants;
+import com.intacct.ws.util.StringBuilderWriter;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Micro benchmarks of the SDK hot paths against the local MockGateway (no credentials needed)
+ *
+ * Run with:  java -cp <classes> test.BenchSDKTool [benchmark]
+ * Each benchmark warms up first and then prints the average time per operation;
+ * the numbers are only comparable between runs on the same machine.
+ */
+public class BenchSDKTool {
+
+	final static int WARMUP = 20;
+	final static int ITERATIONS = 100;
+
+	public static void main(String[] args) throws Exception {
+		String only = args.length > 0 ? args[0] : null;
+
+		if ( only == null || only.equals("compression") )
+			benchCompression();
+		if ( only == null || only.equals("createxml") )
+			benchCreateXml();
+		if ( only == null || only.equals("responseparse") )
+			benchResponseParse();
+		if ( only == null || only.equals("rawxml") )
+			benchRawXml();
+		if ( only == null || only.equals("jsonread") )
+			benchJsonRead();
+		if ( only == null || only.equals("jsontokener") )
+			benchJsonTokener();
+		if ( only == null || only.equals("xmltokener") )
+			benchXmlTokener();
+		if ( only == null || only.equals("stringtovalue") )
+			benchStringToValue();
+		if ( only == null || only.equals("recordheap") )
+			benchRecordHeap();
+	}
+
+	/**
+	 * readByQuery page of 1000 records (xml format): tree of the whole response (XML.toJSONObject) against
+	 * the pull parser handing the records to a sink; time and bytes allocated per response
+	 */
+	static void benchResponseParse() throws IOException {
+		final String response = readByQueryResponse(1000);
+
+		measure("responseparse XML.toJSONObject", ITERATIONS, () -> {
+			return XML.toJSONObject(response).getJSONObject("response").getJSONObject("operation")
+					.getJSONObject("result").getJSONObject("data").getJSONArray("glentry").length();
+		});
+		measure("responseparse pull parser     ", ITERATIONS, () -> {
+			final JSONArray records = new JSONArray();
+			APIResponseParser.parseResult(new StringReader(response), new APIResponseParser.RecordSink() {
+				public void record(String object, JSONObject record) {
+					records.put(record);
+				}
+			});
+			return records.length();
+		});
+	}
+
+	/**
+	 * readByQuery page of 1000 records for an XML session: XML to JSON to XML (the result document of the
+	 * services) against the pass-through scan of the data element (APISession.setRawXml)
+	 */
+	static void benchRawXml() throws IOException {
+		final String response = readByQueryResponse(1000);
+
+		measure("rawxml XML to JSON to XML", ITERATIONS, () -> {
+			JSONObject result = APIResponseParser.parseResult(new StringReader(response), null);
+			return "<?xml version=\"1.0\" encoding=\"UTF-8\"?> \n <result>" + XML.toString(result.get("data"))
+					+ "</result>";
+		});
+		measure("rawxml pass-through      ", ITERATIONS, () -> {
+			return APIResponseParser.rawData(response);
+		});
+	}
+
+	/**
+	 * readByQuery pages of 1000 and 100000 records (json format): JSONTokener over the decoded response
+	 * (new JSONArray(String)) against the byte level parser over the response bytes (APIJsonParser)
+	 */
+	static void benchJsonRead() throws IOException {
+		for ( int records : new int[] { 1000, 100000 } ) {
+			final String response = readByQueryResponse(records, "json");
+			final byte[] bytes = response.getBytes(ResponseBody.UTF8);
+			int iterations = ITERATIONS * 1000 / records + 5;
+
+			measure("jsonread " + records + " new JSONArray(String)", iterations, () -> {
+				return new JSONArray(response).length();
+			});
+			measure("jsonread " + records + " APIJsonParser        ", iterations, () -> {
+				return ((JSONArray) APIJsonParser.parse(new ByteArrayInputStream(bytes))).length();
+			});
+		}
+	}
+
+	/**
+	 * JSONTokener on a readByQuery page of 1000 records (json format): from the String (JSONArray(String)),
+	 * from a Reader and the strings of the records alone (nextString), in a text with escapes too
+	 */
+	static void benchJsonTokener() throws IOException {
+		final String response = readByQueryResponse(1000, "json");
+		final String escaped = response.replace("glentry ", "glentry\\t\\u00e9 ");
+
+		measure("jsontokener String          ", ITERATIONS, () -> {
+			return new JSONArray(response).length();
+		});
+		measure("jsontokener Reader          ", ITERATIONS, () -> {
+			return new JSONArray(new JSONTokener(new StringReader(response))).length();
+		});
+		measure("jsontokener String, escapes ", ITERATIONS, () -> {
+			return new JSONArray(escaped).length();
+		});
+		measure("jsontokener nextString      ", ITERATIONS, () -> {
+			JSONTokener tokener = new JSONTokener(response);
+			int count = 0;
+			for ( char c = tokener.next(); c != 0; c = tokener.next() )
+				if ( c == '"' ) {
+					tokener.nextString('"');
+					count++;
+				}
+			return count;
+		});
+	}
+
+	/**
+	 * XML.toJSONObject (XMLTokener) on the responses of the MockGateway: readByQuery page of 1000 records
+	 * from the String and from a Reader, the same page with entities in the values, detailed inspect
+	 */
+	static void benchXmlTokener() throws IOException {
+		final String response = readByQueryResponse(1000);
+		final String entities = response.replace("glentry ", "glentry &amp; &lt;co&gt; ");
+		final String inspect = inspectResponse();
+
+		measure("xmltokener readByQuery String   ", ITERATIONS, () -> {
+			return XML.toJSONObject(response).length();
+		});
+		measure("xmltokener readByQuery Reader   ", ITERATIONS, () -> {
+			return XML.toJSONObject(new StringReader(response)).length();
+		});
+		measure("xmltokener readByQuery entities ", ITERATIONS, () -> {
+			return XML.toJSONObject(entities).length();
+		});
+		measure("xmltokener inspect detail       ", ITERATIONS * 10, () -> {
+			return XML.toJSONObject(inspect).length();
+		});
+	}
+
+	/**
+	 * XML.stringToValue on the values of a readByQuery page of 1000 GL entries (dates, account codes,
+	 * amounts, ids): the exception driven conversion (before the classifier) against the classifier in
+	 * each decimal mode
+	 */
+	static void benchStringToValue() throws IOException {
+		JSONArray page = new JSONArray(readByQueryResponse(1000, "json"));
+		List<String> list = new ArrayList<String>();
+		for ( int ix = 0; ix < page.length(); ix++ ) {
+			JSONObject record = page.getJSONObject(ix);
+			Iterator<?> keys = record.keys();
+			while ( keys.hasNext() )
+				list.add(record.get((String) keys.next()).toString());
+		}
+		final String[] values = list.toArray(new String[list.size()]);
+
+		measure("stringtovalue exceptions  ", ITERATIONS, () -> {
+			int numbers = 0;
+			for ( String value : values )
+				if ( legacyStringToValue(value) instanceof Number )
+					numbers++;
+			return numbers;
+		});
+		for ( final XML.DecimalMode mode : XML.DecimalMode.values() ) {
+			measure("stringtovalue " + mode + "     ".substring(0, Math.max(0, 11 - mode.name().length())), ITERATIONS, () -> {
+				int numbers = 0;
+				for ( String value : values )
+					if ( XML.stringToValue(value, mode) instanceof Number )
+						numbers++;
+				return numbers;
+			});
+		}
+	}
+
+	/**
+	 * Heap retained by the JSONObjects of 100000 records of 20 fields (a json readByQuery page of the
+	 * MockGateway parsed by APIJsonParser), measured after a full GC with the records alive
+	 */
+	static void benchRecordHeap() throws IOException {
+		final int records = 100000;
+		byte[] response = readByQueryResponse(records, "json").getBytes(ResponseBody.UTF8);
+
+		long before = usedHeap();
+		JSONArray page = (JSONArray) APIJsonParser.parse(new ByteArrayInputStream(response));
+		long after = usedHeap();
+		System.out.println("recordheap " + page.length() + " records of " + page.getJSONObject(0).length()
+				+ " fields (" + response.length / 1024 + " KB of JSON)  retained: " + (after - before) / 1024 + " KB  per record: " + (after - before) / records
+				+ " bytes");
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for ( int ix = 0; ix < 3; ix++ )
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/*
+	 * XML.stringToValue before the classifier: Long, then Double on the exception, compared with their text
+	 */
+	private static Object legacyStringToValue(String string) {
+		if ( "true".equalsIgnoreCase(string) )
+			return Boolean.TRUE;
+		if ( "false".equalsIgnoreCase(string) )
+			return Boolean.FALSE;
+		if ( "null".equalsIgnoreCase(string) )
+			return JSONObject.NULL;
+		try {
+			char initial = string.charAt(0);
+			if ( initial == '-' || (initial >= '0' && initial <= '9') ) {
+				Long value = Long.valueOf(string);
+				if ( value.toString().equals(string) )
+					return value;
+			}
+		} catch (Exception ignore) {
+			try {
+				Double value = Double.valueOf(string);
+				if ( value.toString().equals(string) )
+					return value;
+			} catch (Exception ignoreAlso) {
+			}
+		}
+		return string;
+	}
+
+	/*
+	 * raw response of a detailed inspect of the MockGateway
+	 */
+	private static String inspectResponse() throws IOException {
+		MockGateway gateway = new MockGateway();
+		try {
+			PooledHttpTransport transport = new PooledHttpTransport();
+			ResponseBody body = transport.execute(new FormEncodedBody(request("<inspect detail=\"1\">"
+					+ "<object>glentry</object></inspect>")), gateway.getEndpoint());
+			try {
+				return body.toString();
+			} finally {
+				body.release();
+				transport.close();
+			}
+		} finally {
+			gateway.stop();
+		}
+	}
+
+	/*
+	 * raw response of a readByQuery page (xml format) of the MockGateway
+	 */
+	private static String readByQueryResponse(int records) throws IOException {
+		return readByQueryResponse(records, "xml");
+	}
+
+	private static String readByQueryResponse(int records, String format) throws IOException {
+		MockGateway gateway = new MockGateway();
+		try {
+			gateway.setRecords(records);
+			PooledHttpTransport transport = new PooledHttpTransport();
+			ResponseBody body = transport.execute(new FormEncodedBody(request("<readByQuery><object>glentry</object>"
+					+ "<query></query><fields>*</fields><returnFormat>" + format + "</returnFormat><pagesize>" + records 
+					+ "</pagesize></readByQuery>")), gateway.getEndpoint());
+			try {
+				return body.toString();
+			} finally {
+				body.release();
+				transport.close();
+			}
+		} finally {
+			gateway.stop();
+		}
+	}
+
+	/**
+	 * create payload of 100 records of 50 fields, from the records to the form encoded bytes of the request:
+	 * one string per record and per field (the serializer before XML.write) against the streaming writer;
+	 * then the whole create() of a session against the MockGateway (records to XML, envelope, post, result);
+	 * time and bytes allocated per request
+	 */
+	static void benchCreateXml() throws Exception {
+		final JSONArray records = new JSONArray();
+		for ( int ix = 0; ix < 100; ix++ ) {
+			JSONObject fields = new JSONObject();
+			for ( int field = 0; field < 50; field++ )
+				fields.put("FIELD" + field, field % 5 == 0 ? ix * 1000 + field : "value " + ix + " & " + field);
+			fields.put("ADDRESS", new JSONObject().put("CITY", "San Jose").put("ZIP", "95110"));
+			records.put(new JSONObject().put("customer", fields));
+		}
+
+		measure("createxml per record strings", ITERATIONS * 10, () -> {
+			StringBuffer b = new StringBuffer();
+			for ( int ix = 0; ix < records.length(); ix++ )
+				b.append(concatXml(records.getJSONObject(ix), null));
+			return new FormEncodedBody(request("<create>" + b.toString() + "</create>"));
+		});
+		measure("createxml streaming writer    ", ITERATIONS * 10, () -> {
+			StringBuilderWriter b = new StringBuilderWriter(512 * records.length());
+			b.write("<create>");
+			for ( int ix = 0; ix < records.length(); ix++ )
+				XML.write(records.getJSONObject(ix), null, b);
+			b.write("</create>");
+			return new FormEncodedBody(request(b.toString()));
+		});
+
+		MockGateway gateway = new MockGateway();
+		System.setProperty(ConfigConstants.END_POINT_URL, gateway.getEndpoint());
+		try {
+			final APISession<JSONObject> session = APISession.getJSONInstance("mock", "mock", "mock", "mock", "mock");
+			final List<String> objects = Collections.singletonList("customer");
+			measure("createxml APISession.create   ", ITERATIONS, () -> {
+				try {
+					return session.create(objects, records);
+				} catch (IOException ex) {
+					throw ex;
+				} catch (Exception ex) {
+					throw new IOException(ex);
+				}
+			});
+		} finally {
+			System.clearProperty(ConfigConstants.END_POINT_URL);
+			gateway.stop();
+		}
+	}
+
+	interface Operation {
+		Object run() throws IOException;
+	}
+
+	/*
+	 * time and bytes allocated of one operation; a request body returned by the operation is written to a
+	 * null stream
+	 */
+	private static void measure(String name, int iterations, Operation operation) throws IOException {
+		for ( int ix = 0; ix < WARMUP * iterations / ITERATIONS; ix++ )
+			consume(operation.run());
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		long allocated = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		for ( int ix = 0; ix < iterations; ix++ )
+			consume(operation.run());
+		long elapsed = System.nanoTime() - start;
+		allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+		System.out.println(name + "  latency: " + elapsed / iterations / 1000 + " us  allocated: "
+				+ allocated / iterations / 1024 + " KB");
+	}
+
+	private static void consume(Object result) throws IOException {
+		if ( result instanceof RequestBody )
+			((RequestBody) result).writeTo(new OutputStream() {
+				public void write(int b) {
+				}
+
+				public void write(byte[] b, int off, int len) {
+				}
+			});
+	}
+
+	/*
+	 * the XML serializer before XML.write: each element returns its own string, copied by its parent
+	 */
+	private static String concatXml(Object value, String tagName) {
+		if ( value instanceof JSONObject ) {
+			JSONObject object = (JSONObject) value;
+			StringBuffer sb = new StringBuffer();
+			if ( tagName != null )
+				sb.append('<').append(tagName).append('>');
+			Iterator<?> keys = object.keys();
+			while ( keys.hasNext() ) {
+				String key = (String) keys.next();
+				sb.append(concatXml(object.opt(key), key));
+			}
+			if ( tagName != null )
+				sb.append("</").append(tagName).append('>');
+			return sb.toString();
+		}
+		String string = XML.escape(value.toString());
+		return string.length() == 0 ? "<" + tagName + "/>" : "<" + tagName + ">" + string + "</" + tagName + ">";
+	}
+
+	/**
+	 * readByQuery page of 1000 records (xml format), with and without gzip on the wire;
+	 * bytes on the wire and end-to-end latency (post + inflate + XML parse)
+	 */
+	static void benchCompression() throws IOException {
+		MockGateway gateway = new MockGateway();
+		try {
+			gateway.setRecords(1000);
+			String request = request("<readByQuery><object>glentry</object><query></query><fields>*</fields>"
+					+ "<returnFormat>xml</returnFormat><pagesize>1000</pagesize></readByQuery>");
+
+			for ( boolean compressed : new boolean[] { false, true } ) {
+				gateway.setCompression(compressed);
+				PooledHttpTransport transport = new PooledHttpTransport();
+				transport.setAcceptCompressed(compressed);
+
+				for ( int ix = 0; ix < WARMUP; ix++ )
+					parse(transport, request, gateway.getEndpoint());
+
+				long received = transport.getBytesReceived();
+				long start = System.nanoTime();
+				for ( int ix = 0; ix < ITERATIONS; ix++ )
+					parse(transport, request, gateway.getEndpoint());
+				long elapsed = System.nanoTime() - start;
+
+				System.out.println("compression " + (compressed ? "on " : "off")
+						+ "  bytes on the wire per response: " + (transport.getBytesReceived() - received) / ITERATIONS
+						+ "  latency: " + elapsed / ITERATIONS / 1000 + " us");
+				transport.close();
+			}
+		} finally {
+			gateway.stop();
+		}
+	}
+
+	private static JSONObject parse(PooledHttpTransport transport, String request, String endpoint) throws IOException {
+		ResponseBody body = transport.execute(new FormEncodedBody(request), endpoint);
+		try {
+			return XML.toJSONObject(body.openReader());
+		} finally {
+			body.release();
+		}
+	}
+
+	static String request(String function) {
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><request><control><senderid>bench</senderid>"
+				+ "<password>bench</password><controlid>bench</controlid><uniqueid>false</uniqueid>"
+				+ "<dtdversion>3.0</dtdversion></control><operation><authentication><sessionid>"
+				+ MockGateway.SESSION_ID + "</sessionid></authentication><content><function controlid=\"bench\">"
+				+ function + "</function></content></operation></request>";
+	}
+}
@@ -0,0 +1,544 @@
+package test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.XML;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Local stand-in for the Intacct XML gateway used by the tests and benchmarks that can't run against
+ * the real gateway.
+ *
+ * Implements just enough of the 3.0 protocol: login / getAPISession, read, readByName, readByQuery / readMore
+ * (xml, json and csv formats), create, update, delete and inspect, several functions per request.
+ * Every object has RECORDNO, ID and NAME plus a set of GL-like fields; readByQuery returns getRecords()
+ * records. A create or update fails on the first record with a field set to BAD_VALUE, the records
+ * before it are reported in the data like the gateway does; with a field set to LATE_BAD_VALUE it fails after
+ * all its records (the error doesn't tell the bad record); one on DENIED_OBJECT fails as a whole (permission
+ * error, no record blamed), so does its inspect. In a transaction (transaction='true') the functions of a request with a failed one
+ * come back aborted. The readMore of a query on FAILING_QUERY_OBJECT fails (the first page is read). The
+ * inspects are counted and can be slowed down with setInspectDelay. After setReverseResults(true) the results
+ * of a request come back in the reverse order of its functions (the gateway doesn't promise any order). A
+ * create or update with a field set to SLOW_VALUE takes SLOW_MILLIS; getMaxConcurrentRequests tells how many
+ * requests were handled at the same time.
+ *
+ * Responses are gzip or deflate compressed when the client accepts it and setCompression was called, and
+ * chunked after setChunked(true). Gzip compressed requests are accepted.
+ */
+public class MockGateway {
+
+	public final static String SESSION_ID = "mock-session-id";
+	public final static String BAD_VALUE = "#BAD#";
+	public final static String LATE_BAD_VALUE = "#LATE#";
+	public final static String DENIED_OBJECT = "denied";
+	public final static String FAILING_QUERY_OBJECT = "failing";
+	public final static String SLOW_VALUE = "#SLOW#";
+	public final static long SLOW_MILLIS = 200;
+
+	private final HttpServer server;
+	// gzip, deflate, raw-deflate (deflate without the zlib wrapper) or null
+	private volatile String compression = null;
+	private volatile boolean chunked = false;
+	private volatile String lastContentEncoding;
+	private volatile boolean lastRequestChunked;
+	private volatile int records = 1000;
+	private volatile long inspectDelay = 0;
+	private volatile boolean reverseResults = false;
+
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger logins = new AtomicInteger();
+	private final AtomicInteger inspects = new AtomicInteger();
+	private final AtomicInteger concurrent = new AtomicInteger();
+	private final AtomicInteger maxConcurrent = new AtomicInteger();
+	private final AtomicInteger recordNo = new AtomicInteger(1000);
+	private final Map<String, int[]> queries = new ConcurrentHashMap<String, int[]>();
+	private final Map<String, String> queryObjects = new ConcurrentHashMap<String, String>();
+	private final AtomicInteger resultIds = new AtomicInteger();
+	private volatile String lastResultId = "";
+	private volatile String lastPassword;
+
+	public MockGateway() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+				try {
+					MockGateway.this.handle(exchange);
+				} catch (RuntimeException ex) {
+					ex.printStackTrace();
+					exchange.sendResponseHeaders(500, -1);
+				} finally {
+					concurrent.decrementAndGet();
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+	}
+
+	public String getEndpoint() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/ia/xml/xmlgw.phtml";
+	}
+
+	public void stop() {
+		server.stop(0);
+		((java.util.concurrent.ExecutorService) server.getExecutor()).shutdownNow();
+	}
+
+	public void setCompression(boolean compression) {
+		this.compression = compression ? "gzip" : null;
+	}
+
+	/**
+	 * @param compression gzip, deflate, raw-deflate (sent as deflate, without the zlib wrapper) or null for none
+	 */
+	public void setCompression(String compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * @param chunked true to send the responses with chunked transfer encoding instead of a Content-Length
+	 */
+	public void setChunked(boolean chunked) {
+		this.chunked = chunked;
+	}
+
+	/**
+	 * @return the Content-Encoding of the last request, null if it had none
+	 */
+	public String getLastContentEncoding() {
+		return lastContentEncoding;
+	}
+
+	/**
+	 * @return true if the last request came with chunked transfer encoding
+	 */
+	public boolean isLastRequestChunked() {
+		return lastRequestChunked;
+	}
+
+	public void setRecords(int records) {
+		this.records = records;
+	}
+
+	public int getRecords() {
+		return records;
+	}
+
+	public int getRequestCount() {
+		return requests.get();
+	}
+
+	public int getLoginCount() {
+		return logins.get();
+	}
+
+	/**
+	 * @param millis the time each inspect takes before its result is written
+	 */
+	public void setInspectDelay(long millis) {
+		this.inspectDelay = millis;
+	}
+
+	/**
+	 * @param reverseResults true to write the results in the reverse order of the functions
+	 */
+	public void setReverseResults(boolean reverseResults) {
+		this.reverseResults = reverseResults;
+	}
+
+	/**
+	 * @return the largest number of requests handled at the same time since the last reset
+	 */
+	public int getMaxConcurrentRequests() {
+		return maxConcurrent.get();
+	}
+
+	public void resetMaxConcurrentRequests() {
+		maxConcurrent.set(concurrent.get());
+	}
+
+	public int getInspectCount() {
+		return inspects.get();
+	}
+
+	/**
+	 * @return the password of the last login, null before the first one
+	 */
+	public String getLastPassword() {
+		return lastPassword;
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+
+		InputStream in = exchange.getRequestBody();
+		String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+		lastContentEncoding = encoding;
+		lastRequestChunked = "chunked".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Transfer-Encoding"));
+		if ( encoding != null && encoding.equalsIgnoreCase("gzip") )
+			in = new GZIPInputStream(in);
+		String form = new String(readAll(in), "US-ASCII");
+		String xml = URLDecoder.decode(form.substring(form.indexOf('=') + 1), "UTF-8");
+
+		JSONObject request = XML.toJSONObject(xml).getJSONObject("request");
+		JSONObject operation = request.getJSONObject("operation");
+		JSONObject auth = operation.optJSONObject("authentication");
+		String controlId = request.getJSONObject("control").optString("controlid");
+
+		StringBuilder response = new StringBuilder(64 * 1024);
+		String contentType = "text/xml; charset=UTF-8";
+
+		Object functions = operation.getJSONObject("content").get("function");
+		JSONArray list = functions instanceof JSONArray ? (JSONArray) functions : new JSONArray().put(functions);
+
+		String raw = rawResult(list);
+		if ( raw != null ) {
+			response.append(raw);
+			contentType = raw.startsWith("[") ? "application/json; charset=UTF-8" : "text/csv; charset=UTF-8";
+		} else {
+			response.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<response>\n");
+			response.append("<control><status>success</status><senderid>mock</senderid><controlid>")
+					.append(controlId).append("</controlid><uniqueid>false</uniqueid><dtdversion>3.0</dtdversion></control>\n");
+			response.append("<operation>\n<authentication><status>success</status><userid>mock</userid>")
+					.append("<companyid>mock</companyid><sessiontimestamp>2015-01-31T10:00:00-08:00</sessiontimestamp></authentication>\n");
+			if ( auth != null && auth.has("login") ) {
+				logins.incrementAndGet();
+				lastPassword = auth.getJSONObject("login").optString("password");
+			}
+			StringBuilder results = new StringBuilder();
+			for ( int ix = 0; ix < list.length(); ix++ )
+				result(list.getJSONObject(reverseResults ? list.length() - 1 - ix : ix), results);
+			// in a transaction a failed function rolls the other ones back
+			if ( operation.optBoolean("transaction") && results.indexOf("<status>failure</status>") >= 0 )
+				response.append(results.toString().replace("<status>success</status>", "<status>aborted</status>"));
+			else
+				response.append(results);
+			response.append("</operation>\n</response>\n");
+		}
+
+		byte[] body = response.toString().getBytes("UTF-8");
+		String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		exchange.getResponseHeaders().add("Content-Type", contentType);
+		String compression = this.compression;
+		if ( compression != null && accept != null && accept.contains(compression.equals("gzip") ? "gzip" : "deflate") ) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+			OutputStream deflater = compression.equals("gzip") ? new GZIPOutputStream(compressed)
+					: new DeflaterOutputStream(compressed, new Deflater(Deflater.DEFAULT_COMPRESSION,
+							compression.equals("raw-deflate")));
+			deflater.write(body);
+			deflater.close();
+			body = compressed.toByteArray();
+			exchange.getResponseHeaders().add("Content-Encoding", compression.equals("gzip") ? "gzip" : "deflate");
+		}
+		// 0: chunked
+		exchange.sendResponseHeaders(200, chunked ? 0 : body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	// a single read in json or csv format is answered with the bare records, like the gateway does
+	private String rawResult(JSONArray list) {
+		if ( list.length() != 1 )
+			return null;
+		JSONObject function = list.getJSONObject(0);
+		String name = functionName(function);
+		JSONObject call = function.optJSONObject(name);
+		String format = call == null ? null : call.optString("returnFormat", null);
+		if ( format == null || format.equals("xml") )
+			return null;
+		JSONArray rows = readRecords(name, call);
+		if ( rows == null )
+			return null;
+		if ( format.equals("json") )
+			return rows.toString();
+		StringBuilder csv = new StringBuilder();
+		for ( int ix = 0; ix < rows.length(); ix++ ) {
+			JSONObject row = rows.getJSONObject(ix);
+			if ( ix == 0 )
+				csv.append(org.json.CDL.rowToString(row.names()));
+			csv.append(org.json.CDL.rowToString(row.toJSONArray(row.names())));
+		}
+		return csv.toString();
+	}
+
+	private static String functionName(JSONObject function) {
+		Iterator<?> keys = function.keys();
+		while ( keys.hasNext() ) {
+			String key = (String) keys.next();
+			if ( !key.equals("controlid") )
+				return key;
+		}
+		return "";
+	}
+
+	private void result(JSONObject function, StringBuilder out) {
+		String name = functionName(function);
+		Object callObj = function.opt(name);
+		JSONObject call = callObj instanceof JSONObject ? (JSONObject) callObj : new JSONObject();
+
+		out.append("<result>");
+		if ( name.equals("getAPISession") ) {
+			out.append("<status>success</status><function>getAPISession</function>");
+			appendControlId(function, out);
+			out.append("<data><api><sessionid>").append(SESSION_ID).append("</sessionid><endpoint>")
+					.append(getEndpoint()).append("</endpoint></api></data>");
+		} else if ( name.equals("create") || name.equals("update") ) {
+			write(name, function, call, out);
+		} else if ( name.equals("delete") ) {
+			String[] keys = call.optString("keys").split(",");
+			out.append("<status>success</status><function>delete</function>");
+			appendControlId(function, out);
+			out.append("<data listtype=\"").append(call.optString("object")).append("\" count=\"").append(keys.length).append("\">");
+			for ( String key : keys )
+				out.append('<').append(call.optString("object")).append("><RECORDNO>").append(key.trim())
+						.append("</RECORDNO></").append(call.optString("object")).append('>');
+			out.append("</data>");
+		} else if ( name.equals("inspect") ) {
+			inspect(function, call, out);
+		} else if ( name.equals("readMore") && queryObject(call).equals(FAILING_QUERY_OBJECT) ) {
+			out.append("<status>failure</status><function>readMore</function>");
+			appendControlId(function, out);
+			out.append("<errormessage><error><errorno>DL02000001</errorno><description>The query has expired</description>")
+					.append("<description2></description2><correction></correction></error></errormessage>");
+		} else {
+			JSONArray rows = readRecords(name, call);
+			if ( rows == null ) {
+				out.append("<status>failure</status><function>").append(name).append("</function>");
+				appendControlId(function, out);
+				out.append("<errormessage><error><errorno>BL01001973</errorno><description>Unknown function</description>")
+						.append("<description2>").append(name).append("</description2><correction></correction></error></errormessage>");
+			} else {
+				String object = queryObject(call);
+				int[] state = queries.get(call.optString("resultId", object));
+				int remaining = state == null ? 0 : state[1];
+				String resultId = state == null ? "" : call.optString("resultId", lastResultId);
+				out.append("<status>success</status><function>").append(name).append("</function>");
+				appendControlId(function, out);
+				out.append("<data listtype=\"").append(object).append("\" count=\"").append(rows.length())
+						.append("\" totalcount=\"").append(records).append("\" numremaining=\"").append(remaining)
+						.append("\" resultId=\"").append(resultId).append("\">");
+				for ( int ix = 0; ix < rows.length(); ix++ )
+					out.append(XML.toString(rows.getJSONObject(ix), object));
+				out.append("</data>");
+			}
+		}
+		out.append("</result>\n");
+	}
+
+	/*
+	 * records answered by the read functions; null if the function is not a read
+	 */
+	private JSONArray readRecords(String name, JSONObject call) {
+		String object = call.optString("object");
+		JSONArray rows = new JSONArray();
+		if ( name.equals("read") || name.equals("readByName") || name.equals("readRelated") ) {
+			String keys = call.optString("keys");
+			if ( keys.length() > 0 )
+				for ( String key : keys.split(",") )
+					rows.put(record(object, key.trim()));
+			return rows;
+		}
+		if ( name.equals("readByQuery") ) {
+			int pageSize = call.optInt("pagesize", 1000);
+			int total = records;
+			int count = Math.min(pageSize, total);
+			String resultId = "rid-" + resultIds.incrementAndGet();
+			int[] state = new int[] { count, total - count, pageSize };
+			queries.put(resultId, state);
+			queries.put(object, state);
+			queryObjects.put(resultId, object);
+			lastResultId = resultId;
+			for ( int ix = 0; ix < count; ix++ )
+				rows.put(record(object, Integer.toString(ix + 1)));
+			return rows;
+		}
+		if ( name.equals("readMore") ) {
+			String key = call.has("resultId") ? call.optString("resultId") : object;
+			int[] state = queries.get(key);
+			if ( state == null )
+				return rows;
+			synchronized (state) {
+				int count = Math.min(state[2], state[1]);
+				for ( int ix = 0; ix < count; ix++ )
+					rows.put(record(queryObject(call), Integer.toString(state[0] + ix + 1)));
+				state[0] += count;
+				state[1] -= count;
+			}
+			return rows;
+		}
+		return null;
+	}
+
+	// a readMore names either the object or the resultId of the query
+	private String queryObject(JSONObject call) {
+		String object = call.optString("object");
+		if ( object.length() == 0 && call.has("resultId") )
+			object = queryObjects.get(call.optString("resultId"));
+		return object == null || object.length() == 0 ? "customer" : object;
+	}
+
+	private static JSONObject record(String object, String key) {
+		JSONObject r = new JSONObject();
+		r.put("RECORDNO", key);
+		r.put("ID", object.toUpperCase() + "-" + key);
+		r.put("NAME", object + " " + key);
+		r.put("STATUS", "active");
+		r.put("WHENCREATED", "01/31/2015");
+		r.put("WHENMODIFIED", "2015-01-31T10:00:00");
+		r.put("ACCOUNTNO", "1099-MISC");
+		r.put("DEPARTMENTID", "D" + (key.hashCode() % 10));
+		r.put("LOCATIONID", "L" + (key.hashCode() % 7));
+		r.put("AMOUNT", "1234.56");
+		r.put("TRX_AMOUNT", "-98.10");
+		r.put("CURRENCY", "USD");
+		r.put("EXCH_RATE", "1.0000000000");
+		r.put("MEMO", "Accrual for period ending 2015-01-31 & adjustments");
+		r.put("BATCHNO", "2015-" + key);
+		r.put("LINE_NO", key);
+		r.put("GLACCOUNTNO", "4000");
+		r.put("CUSTOMERID", "C-" + key);
+		r.put("VENDORID", "V-" + key);
+		r.put("PROJECTID", "");
+		return r;
+	}
+
+	private void write(String name, JSONObject function, JSONObject call, StringBuilder out) {
+		StringBuilder data = new StringBuilder();
+		String failure = null;
+		String lateFailure = null;
+		String listType = "";
+		int count = 0;
+
+		if ( call.toString().contains(SLOW_VALUE) ) {
+			try {
+				Thread.sleep(SLOW_MILLIS);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		Iterator<?> objects = call.keys();
+		outer:
+		while ( objects.hasNext() ) {
+			String object = (String) objects.next();
+			Object value = call.get(object);
+			JSONArray rows = value instanceof JSONArray ? (JSONArray) value : new JSONArray().put(value);
+			listType = object;
+			if ( object.equals(DENIED_OBJECT) ) {
+				out.append("<status>failure</status><function>").append(name).append("</function>");
+				appendControlId(function, out);
+				out.append("<data listtype=\"").append(object).append("\" count=\"0\"></data>");
+				out.append("<errormessage><error><errorno>BL03000018</errorno><description>Permission denied</description>")
+						.append("<description2>No ").append(name).append(" permission on ").append(object)
+						.append("</description2><correction></correction></error></errormessage>");
+				return;
+			}
+			for ( int ix = 0; ix < rows.length(); ix++ ) {
+				JSONObject row = rows.optJSONObject(ix);
+				if ( row != null && row.toString().contains(BAD_VALUE) ) {
+					failure = object;
+					break outer;
+				}
+				if ( row != null && row.toString().contains(LATE_BAD_VALUE) )
+					lateFailure = object;
+				String key = row != null && row.has("RECORDNO") ? row.get("RECORDNO").toString()
+						: Integer.toString(recordNo.incrementAndGet());
+				data.append('<').append(object).append("><RECORDNO>").append(key).append("</RECORDNO></").append(object).append('>');
+				count++;
+			}
+		}
+
+		if ( failure == null && lateFailure != null ) {
+			// the count is of all the records, none is blamed; they are rolled back
+			failure = lateFailure;
+			data.setLength(0);
+		}
+		out.append("<status>").append(failure == null ? "success" : "failure").append("</status><function>")
+				.append(name).append("</function>");
+		appendControlId(function, out);
+		out.append("<data listtype=\"").append(listType).append("\" count=\"").append(count).append("\">")
+				.append(data).append("</data>");
+		if ( failure != null )
+			out.append("<errormessage><error><errorno>BL34000061</errorno><description>Could not create ")
+					.append(failure).append(" record!</description><description2>Invalid value ").append(BAD_VALUE)
+					.append("</description2><correction>Fix the record</correction></error></errormessage>");
+	}
+
+	private void inspect(JSONObject function, JSONObject call, StringBuilder out) {
+		inspects.incrementAndGet();
+		if ( inspectDelay > 0 ) {
+			try {
+				Thread.sleep(inspectDelay);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		String object = call.optString("object");
+		boolean detail = call.has("detail");
+		if ( object.equals(DENIED_OBJECT) ) {
+			out.append("<status>failure</status><function>inspect</function>");
+			appendControlId(function, out);
+			out.append("<errormessage><error><errorno>BL03000018</errorno><description>Permission denied</description>")
+					.append("<description2>No inspect permission on ").append(object)
+					.append("</description2><correction></correction></error></errormessage>");
+			return;
+		}
+		out.append("<status>success</status><function>inspect</function>");
+		appendControlId(function, out);
+		out.append("<data listtype=\"").append(object).append("\" count=\"1\"><Type Name=\"").append(object).append("\"><Fields>");
+		String[] fields = { "RECORDNO", "ID", "NAME", "STATUS", "AMOUNT", "MEMO", "WHENCREATED" };
+		String[] types = { "integer", "text", "text", "enum", "currency", "text", "date" };
+		for ( int ix = 0; ix < fields.length; ix++ ) {
+			if ( !detail ) {
+				out.append("<Field>").append(fields[ix]).append("</Field>");
+				continue;
+			}
+			out.append("<Field><Name>").append(fields[ix]).append("</Name><GroupName>").append(fields[ix])
+					.append("</GroupName><dataName>").append(fields[ix]).append("</dataName><externalDataName>")
+					.append(types[ix]).append("</externalDataName><isRequired>").append(ix == 1 || ix == 2)
+					.append("</isRequired><isReadOnly>").append(ix == 0 || ix == 6).append("</isReadOnly><maxLength>")
+					.append(ix == 1 ? 20 : ix == 5 ? 1000 : 100).append("</maxLength><DisplayLabel>").append(fields[ix])
+					.append("</DisplayLabel><Description>").append(fields[ix].toLowerCase()).append("</Description><id>")
+					.append(ix + 1).append("</id></Field>");
+		}
+		out.append("</Fields></Type></data>");
+	}
+
+	private static void appendControlId(JSONObject function, StringBuilder out) {
+		out.append("<controlid>").append(function.optString("controlid")).append("</controlid>");
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int n;
+		while ( (n = in.read(buf)) >= 0 )
+			out.write(buf, 0, n);
+		return out.toByteArray();
+	}
+}
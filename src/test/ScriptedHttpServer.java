@@ -0,0 +1,234 @@
+package test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * HTTP/1.1 server on a raw socket for the tests of the transport framing: every request gets the next
+ * scripted response written as is, so the tests control the status lines, the headers and the framing byte by
+ * byte, and when the server closes the connection.
+ *
+ * The requests are read like a server would (Content-Length or chunked body) and kept, body as received
+ * (still compressed if it is).
+ */
+public class ScriptedHttpServer {
+
+	/**
+	 * One request as received
+	 */
+	public static final class Request {
+
+		public final String requestLine;
+		// lower case names
+		public final Map<String, String> headers;
+		public final byte[] body;
+		public final boolean chunked;
+
+		Request(String requestLine, Map<String, String> headers, byte[] body, boolean chunked) {
+			this.requestLine = requestLine;
+			this.headers = headers;
+			this.body = body;
+			this.chunked = chunked;
+		}
+	}
+
+	private static final class Reply {
+
+		final byte[] raw;
+		final boolean close;
+
+		Reply(byte[] raw, boolean close) {
+			this.raw = raw;
+			this.close = close;
+		}
+	}
+
+	private final ServerSocket server;
+	private final BlockingQueue<Reply> replies = new LinkedBlockingQueue<Reply>();
+	private final BlockingQueue<Request> requests = new LinkedBlockingQueue<Request>();
+	private final AtomicInteger connections = new AtomicInteger();
+	private volatile boolean stopped = false;
+
+	public ScriptedHttpServer() throws IOException {
+		server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				accept();
+			}
+		}, "scripted-http");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public String getEndpoint() {
+		return "http://127.0.0.1:" + server.getLocalPort() + "/ia/xml/xmlgw.phtml";
+	}
+
+	public void stop() {
+		stopped = true;
+		try {
+			server.close();
+		} catch (IOException ex) {
+			// nothing to do
+		}
+	}
+
+	/**
+	 * Queues the response to the next request; the connection is kept open
+	 */
+	public void reply(String raw) {
+		reply(raw.getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	public void reply(byte[] raw) {
+		replies.add(new Reply(raw, false));
+	}
+
+	/**
+	 * Queues the response to the next request, after which the server closes the connection
+	 */
+	public void replyAndClose(String raw) {
+		replies.add(new Reply(raw.getBytes(StandardCharsets.ISO_8859_1), true));
+	}
+
+	/**
+	 * The next request is read and the connection closed without any response
+	 */
+	public void drop() {
+		replies.add(new Reply(null, true));
+	}
+
+	/**
+	 * @return the next request received, null if none within a few seconds
+	 */
+	public Request takeRequest() throws InterruptedException {
+		return requests.poll(5, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * @return the number of connections accepted so far
+	 */
+	public int getConnectionCount() {
+		return connections.get();
+	}
+
+	/**
+	 * @return a response framed by Content-Length
+	 */
+	public static String response(int status, String body, String... headers) {
+		StringBuilder raw = new StringBuilder("HTTP/1.1 ").append(status).append(status < 300 ? " OK" : " Status").append("\r\n");
+		for ( String header : headers )
+			raw.append(header).append("\r\n");
+		return raw.append("Content-Length: ").append(body.length()).append("\r\n\r\n").append(body).toString();
+	}
+
+	private void accept() {
+		while ( !stopped ) {
+			final Socket socket;
+			try {
+				socket = server.accept();
+			} catch (IOException ex) {
+				return;
+			}
+			connections.incrementAndGet();
+			Thread t = new Thread(new Runnable() {
+				public void run() {
+					serve(socket);
+				}
+			}, "scripted-http-" + connections.get());
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	private void serve(Socket socket) {
+		try {
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream out = socket.getOutputStream();
+			while ( true ) {
+				String requestLine = readLine(in);
+				if ( requestLine == null )
+					return;
+				Map<String, String> headers = new TreeMap<String, String>();
+				String line;
+				while ( (line = readLine(in)) != null && line.length() > 0 ) {
+					int idx = line.indexOf(':');
+					headers.put(line.substring(0, idx).trim().toLowerCase(), line.substring(idx + 1).trim());
+				}
+				boolean chunked = "chunked".equalsIgnoreCase(headers.get("transfer-encoding"));
+				byte[] body = chunked ? readChunked(in) : readFully(in, Integer.parseInt(headers.get("content-length")));
+				requests.add(new Request(requestLine, headers, body, chunked));
+
+				Reply reply = replies.poll(5, TimeUnit.SECONDS);
+				if ( reply == null || reply.raw == null )
+					return;
+				out.write(reply.raw);
+				out.flush();
+				if ( reply.close )
+					return;
+			}
+		} catch (IOException ex) {
+			// the client has gone
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException ex) {
+				// nothing to do
+			}
+		}
+	}
+
+	private static byte[] readChunked(InputStream in) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		int size;
+		while ( (size = Integer.parseInt(readLine(in).trim(), 16)) > 0 ) {
+			body.write(readFully(in, size));
+			readLine(in);
+		}
+		while ( readLine(in).length() > 0 )
+			;
+		return body.toByteArray();
+	}
+
+	private static byte[] readFully(InputStream in, int length) throws IOException {
+		byte[] buf = new byte[length];
+		int count = 0, n;
+		while ( count < length && (n = in.read(buf, count, length - count)) > 0 )
+			count += n;
+		if ( count < length )
+			throw new IOException("Unexpected end of request body");
+		return buf;
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ( (c = in.read()) >= 0 && c != '\n' )
+			line.append((char) c);
+		if ( c < 0 && line.length() == 0 )
+			return null;
+		int len = line.length();
+		if ( len > 0 && line.charAt(len - 1) == '\r' )
+			line.setLength(len - 1);
+		return line.toString();
+	}
+}
@@ -0,0 +1,198 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.intacct.ws.APIBatch;
+import com.intacct.ws.APISession;
+import com.intacct.ws.exception.IntacctSDKRuntimeException;
+import com.intacct.ws.util.ConfigConstants;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * APIBatch against the local MockGateway: the results matched to the operations by controlid whatever their
+ * order in the response, the operations split over several requests, a failed function that doesn't fail
+ * the other ones, the functions aborted with a failed one in a transaction, and the records of the reads in
+ * one flat READ_RESULT list like the session services return them.
+ */
+public class TestBatch {
+
+	private final static List<String> CUSTOMER = Collections.singletonList("customer");
+
+	private static MockGateway gateway;
+	private static APISession<JSONObject> session;
+
+	@BeforeClass
+	public static void start() throws Exception {
+		gateway = new MockGateway();
+		System.setProperty(ConfigConstants.END_POINT_URL, gateway.getEndpoint());
+		session = APISession.getJSONInstance("mock", "mock", "mock", "mock", "mock");
+	}
+
+	@AfterClass
+	public static void stop() {
+		System.clearProperty(ConfigConstants.END_POINT_URL);
+		gateway.stop();
+	}
+
+	@After
+	public void reset() {
+		gateway.setReverseResults(false);
+	}
+
+	@Test
+	public void testControlIds() throws Exception {
+		gateway.setReverseResults(true);
+		int requests = gateway.getRequestCount();
+		APIBatch batch = session.newBatch();
+		CompletableFuture<JSONObject> customer = batch.read("customer", "7", "*");
+		CompletableFuture<JSONObject> vendor = batch.read("vendor", "3", "*");
+		CompletableFuture<JSONObject> created = batch.create(CUSTOMER, records(2));
+		CompletableFuture<Boolean> deleted = batch.delete("contact", "12,13");
+		CompletableFuture<JSONObject> inspect = batch.inspect("vendor", true);
+		assertEquals(5, batch.size());
+		batch.execute();
+		assertEquals(0, batch.size());
+		assertEquals(1, gateway.getRequestCount() - requests);
+
+		assertEquals("CUSTOMER-7", customer.get().getJSONArray("READ_RESULT").getJSONObject(0).getString("ID"));
+		assertEquals("VENDOR-3", vendor.get().getJSONArray("READ_RESULT").getJSONObject(0).getString("ID"));
+		assertEquals("Success", created.get().getString("OVERALL_STATUS"));
+		assertEquals(2, created.get().getJSONArray("CORRECT_RECORDS").getJSONArray(0).length());
+		assertTrue(deleted.get());
+		assertEquals("vendor", inspect.get().getString("OBJECT_TYPE"));
+
+		// the batch can be reused, the controlids go on
+		CompletableFuture<JSONObject> again = batch.read("customer", "8", "*");
+		batch.execute();
+		assertEquals("CUSTOMER-8", again.get().getJSONArray("READ_RESULT").getJSONObject(0).getString("ID"));
+	}
+
+	@Test
+	public void testMaxFunctions() throws Exception {
+		int requests = gateway.getRequestCount();
+		APIBatch batch = session.newBatch(2);
+		@SuppressWarnings("unchecked")
+		CompletableFuture<JSONObject>[] reads = new CompletableFuture[5];
+		for ( int ix = 0; ix < reads.length; ix++ )
+			reads[ix] = batch.read("customer", Integer.toString(ix + 1), "*");
+		batch.executeAsync().get();
+		// [1 2], [3 4], [5]
+		assertEquals(3, gateway.getRequestCount() - requests);
+		for ( int ix = 0; ix < reads.length; ix++ )
+			assertEquals("CUSTOMER-" + (ix + 1), reads[ix].get().getJSONArray("READ_RESULT").getJSONObject(0).getString("ID"));
+
+		try {
+			session.newBatch(0);
+			fail("no failure");
+		} catch (IntacctSDKRuntimeException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().startsWith("Invalid maximum number of functions"));
+		}
+	}
+
+	@Test
+	public void testFailedFunction() throws Exception {
+		APIBatch batch = session.newBatch();
+		CompletableFuture<JSONObject> before = batch.read("customer", "7", "*");
+		JSONArray records = records(3);
+		records.getJSONObject(1).getJSONObject("customer").put("NAME", MockGateway.BAD_VALUE);
+		CompletableFuture<JSONObject> created = batch.create(CUSTOMER, records);
+		CompletableFuture<JSONObject> denied = batch.create(Collections.singletonList(MockGateway.DENIED_OBJECT),
+				new JSONArray().put(new JSONObject().put(MockGateway.DENIED_OBJECT, new JSONObject().put("NAME", "x"))));
+		CompletableFuture<Boolean> after = batch.delete("customer", "12");
+		batch.execute();
+
+		assertEquals("CUSTOMER-7", before.get().getJSONArray("READ_RESULT").getJSONObject(0).getString("ID"));
+		assertTrue(after.get());
+
+		JSONObject details = failure(created).getJsonDetails();
+		assertEquals("Failure", details.getString("OVERALL_STATUS"));
+		// the record before the bad one is reported
+		assertEquals(1, details.getJSONArray("CORRECT_RECORDS").getJSONArray(0).length());
+		assertTrue(details.toString(), errorMessage(details).startsWith("BL34000061"));
+		assertTrue(errorMessage(failure(denied).getJsonDetails()).startsWith("BL03000018"));
+	}
+
+	@Test
+	public void testAborted() throws Exception {
+		APISession<JSONObject> trx = APISession.getTRXJSONInstance("mock", "mock", "mock", "mock", "mock");
+		APIBatch batch = trx.newBatch();
+		CompletableFuture<JSONObject> created = batch.create(CUSTOMER, records(2));
+		CompletableFuture<JSONObject> bad = batch.update(CUSTOMER, new JSONArray().put(new JSONObject().put("customer",
+				new JSONObject().put("RECORDNO", 10).put("NAME", MockGateway.BAD_VALUE))));
+		CompletableFuture<Boolean> deleted = batch.delete("customer", "12");
+		batch.execute();
+
+		assertTrue(errorMessage(failure(bad).getJsonDetails()).startsWith("BL34000061"));
+		// rolled back with the failed one: no record reported as created
+		JSONObject details = failure(created).getJsonDetails();
+		assertEquals("", details.get("CORRECT_RECORDS"));
+		assertTrue(errorMessage(details), errorMessage(details).startsWith("Function aborted"));
+		assertTrue(errorMessage(failure(deleted).getJsonDetails()).startsWith("Function aborted"));
+	}
+
+	@Test
+	public void testReadResult() throws Exception {
+		APIBatch batch = session.newBatch();
+		CompletableFuture<JSONObject> read = batch.read("customer", "7,8,9", "*");
+		CompletableFuture<JSONObject> query = batch.readByQuery("customer", "", "*", 25);
+		CompletableFuture<JSONObject> byName = batch.readByName("customer", "CUSTOMER-4", "*");
+		batch.execute();
+
+		checkFlat(read.get(), 3);
+		checkFlat(query.get(), 25);
+		checkFlat(byName.get(), 1);
+		// the same records as the service
+		JSONArray expected = session.read("customer", "7,8,9", "*").getJSONArray("READ_RESULT");
+		JSONArray records = read.get().getJSONArray("READ_RESULT");
+		for ( int ix = 0; ix < expected.length(); ix++ )
+			assertEquals(expected.getJSONObject(ix).getString("ID"), records.getJSONObject(ix).getString("ID"));
+	}
+
+	/*
+	 * READ_RESULT is the list of the records, not a list of lists
+	 */
+	private static void checkFlat(JSONObject result, int count) {
+		JSONArray records = result.getJSONArray("READ_RESULT");
+		assertEquals(count, records.length());
+		for ( int ix = 0; ix < records.length(); ix++ )
+			assertTrue(result.toString(), records.get(ix) instanceof JSONObject);
+	}
+
+	private static IntacctSDKRuntimeException failure(CompletableFuture<?> future) throws InterruptedException {
+		try {
+			future.get();
+			fail("no failure");
+			return null;
+		} catch (ExecutionException ex) {
+			return (IntacctSDKRuntimeException) ex.getCause();
+		}
+	}
+
+	private static String errorMessage(JSONObject details) {
+		return details.getJSONArray("ERROR").getJSONObject(0).getString("ERROR_MESSAGE");
+	}
+
+	private static JSONArray records(int count) {
+		JSONArray records = new JSONArray();
+		for ( int ix = 0; ix < count; ix++ )
+			records.put(new JSONObject().put("customer", new JSONObject().put("NAME", "name " + ix)));
+		return records;
+	}
+}
@@ -0,0 +1,243 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.intacct.ws.APIBulkWriter;
+import com.intacct.ws.APISession;
+import com.intacct.ws.exception.IntacctSDKRuntimeException;
+import com.intacct.ws.util.ConfigConstants;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * APIBulkWriter against the local MockGateway: the records split in batches, at most parallelism requests in
+ * flight, the results in the order of the input whatever the order the batches complete in. In salvage mode:
+ * the bad records next to each other are rejected one by one and the good ones still go through, the
+ * bisection when the error doesn't tell the bad record, and the errors of the whole request that fail the
+ * batch without rejecting its records.
+ */
+public class TestBulkWriter {
+
+	private final static List<String> CUSTOMER = Collections.singletonList("customer");
+
+	private static MockGateway gateway;
+	private static APISession<JSONObject> session;
+
+	@BeforeClass
+	public static void start() throws Exception {
+		gateway = new MockGateway();
+		System.setProperty(ConfigConstants.END_POINT_URL, gateway.getEndpoint());
+		session = APISession.getJSONInstance("mock", "mock", "mock", "mock", "mock");
+	}
+
+	@AfterClass
+	public static void stop() {
+		System.clearProperty(ConfigConstants.END_POINT_URL);
+		gateway.stop();
+	}
+
+	@Test
+	public void testAdjacentBadRecords() {
+		JSONObject result = salvage(3).create(CUSTOMER, records("customer", 4, 0, 1));
+		assertEquals("Partial", result.getString("OVERALL_STATUS"));
+		assertEquals("NO_ERROR", result.get("ERROR"));
+		assertEquals("[0,1]", rejected(result));
+		assertEquals(2, created(result));
+		// [0 1 2], [1 2], [2] and [3]
+		assertEquals(4, result.getJSONObject("STATS").getInt("REQUESTS"));
+		assertEquals(MockGateway.BAD_VALUE, result.getJSONArray("REJECTED_RECORDS").getJSONObject(1)
+				.getJSONObject("ERROR_RECORD").getJSONObject("customer").getString("NAME"));
+	}
+
+	@Test
+	public void testBadRecordsBeforeTheLast() {
+		// the same error at the head of every request, but the last record goes through
+		JSONObject result = salvage(5).create(CUSTOMER, records("customer", 5, 0, 1, 2, 3));
+		assertEquals("[0,1,2,3]", rejected(result));
+		assertEquals(1, created(result));
+		assertEquals("NO_ERROR", result.get("ERROR"));
+	}
+
+	@Test
+	public void testBisection() {
+		JSONArray records = records("customer", 8);
+		records.getJSONObject(5).getJSONObject("customer").put("NAME", MockGateway.LATE_BAD_VALUE);
+		records.getJSONObject(6).getJSONObject("customer").put("NAME", MockGateway.LATE_BAD_VALUE);
+		JSONObject result = salvage(8).create(CUSTOMER, records);
+		assertEquals("Partial", result.getString("OVERALL_STATUS"));
+		assertEquals("NO_ERROR", result.get("ERROR"));
+		assertEquals("[5,6]", rejected(result));
+		assertEquals(6, created(result));
+		// [0-7], [0-3], [4-7], [4 5], [4], [5], [6 7], [6], [7]
+		assertEquals(9, result.getJSONObject("STATS").getInt("REQUESTS"));
+	}
+
+	@Test
+	public void testRequestError() {
+		JSONObject result = salvage(4).create(Collections.singletonList(MockGateway.DENIED_OBJECT),
+				records(MockGateway.DENIED_OBJECT, 6));
+		assertEquals("Failure", result.getString("OVERALL_STATUS"));
+		assertFalse(result.has("REJECTED_RECORDS"));
+		assertEquals(0, created(result));
+		JSONArray errors = result.getJSONArray("ERROR");
+		assertEquals(2, errors.length());
+		for ( int ix = 0; ix < errors.length(); ix++ ) {
+			JSONObject error = errors.getJSONObject(ix);
+			assertEquals(ix * 4, error.getInt("FIRST_RECORD"));
+			assertFalse(error.has("ERROR_RECORD"));
+			assertEquals(true, error.getString("ERROR_MESSAGE").startsWith("BL03000018"));
+		}
+		// one request per record
+		assertEquals(6, result.getJSONObject("STATS").getInt("REQUESTS"));
+	}
+
+	@Test
+	public void testWithoutSalvage() {
+		APIBulkWriter writer = session.newBulkWriter();
+		writer.setBatchSize(3);
+		JSONObject result = writer.create(CUSTOMER, records("customer", 6, 4));
+		assertEquals("Partial", result.getString("OVERALL_STATUS"));
+		assertEquals(3, created(result));
+		JSONObject error = result.getJSONArray("ERROR").getJSONObject(0);
+		assertEquals(1, error.getInt("BATCH"));
+		assertEquals(3, error.getInt("FIRST_RECORD"));
+		assertEquals(MockGateway.BAD_VALUE, error.getJSONObject("ERROR_RECORD").getJSONObject("customer").getString("NAME"));
+		assertEquals(2, result.getJSONObject("STATS").getInt("REQUESTS"));
+	}
+
+	@Test
+	public void testChunking() {
+		int requests = gateway.getRequestCount();
+		JSONObject result = session.newBulkWriter().create(CUSTOMER, records("customer", 250));
+		assertEquals("Success", result.getString("OVERALL_STATUS"));
+		assertEquals("[100,100,50]", listSizes(result));
+		JSONObject stats = result.getJSONObject("STATS");
+		assertEquals(250, stats.getInt("RECORDS"));
+		assertEquals(3, stats.getInt("BATCHES"));
+		assertEquals(3, stats.getInt("REQUESTS"));
+		assertEquals(3, stats.getJSONArray("BATCH_LATENCY_MS").length());
+		assertEquals(3, gateway.getRequestCount() - requests);
+
+		// from an iterator
+		APIBulkWriter writer = session.newBulkWriter();
+		writer.setBatchSize(30);
+		List<JSONObject> list = new ArrayList<JSONObject>();
+		JSONArray records = records("customer", 70);
+		for ( int ix = 0; ix < records.length(); ix++ )
+			list.add(records.getJSONObject(ix));
+		assertEquals("[30,30,10]", listSizes(writer.create(CUSTOMER, list.iterator())));
+
+		for ( int size : new int[] { 0, 101 } ) {
+			try {
+				writer.setBatchSize(size);
+				fail("no failure");
+			} catch (IntacctSDKRuntimeException expected) {
+				assertTrue(expected.getMessage(), expected.getMessage().startsWith("Invalid batch size " + size));
+			}
+		}
+	}
+
+	@Test
+	public void testParallelism() {
+		for ( int parallelism : new int[] { 3, 1 } ) {
+			APIBulkWriter writer = session.newBulkWriter();
+			writer.setBatchSize(5);
+			writer.setParallelism(parallelism);
+			// a slow record in every batch: the requests overlap as much as the writer lets them
+			JSONArray records = records("customer", 40);
+			for ( int ix = 0; ix < records.length(); ix += 5 )
+				records.getJSONObject(ix).getJSONObject("customer").put("NAME", MockGateway.SLOW_VALUE);
+			gateway.resetMaxConcurrentRequests();
+			JSONObject result = writer.create(CUSTOMER, records);
+			assertEquals("Success", result.getString("OVERALL_STATUS"));
+			assertEquals(40, created(result));
+			assertEquals(8, result.getJSONObject("STATS").getInt("REQUESTS"));
+			assertEquals(parallelism, gateway.getMaxConcurrentRequests());
+		}
+	}
+
+	@Test
+	public void testResultOrder() {
+		APIBulkWriter writer = session.newBulkWriter();
+		writer.setBatchSize(10);
+		writer.setParallelism(4);
+		JSONArray records = new JSONArray();
+		for ( int ix = 0; ix < 40; ix++ )
+			records.put(new JSONObject().put("customer", new JSONObject().put("RECORDNO", ix).put("NAME", "name " + ix)));
+		// the first batch is answered last
+		records.getJSONObject(0).getJSONObject("customer").put("NAME", MockGateway.SLOW_VALUE);
+		JSONObject result = writer.update(CUSTOMER, records);
+		assertEquals("Success", result.getString("OVERALL_STATUS"));
+
+		// the records of the batches in the input order
+		JSONArray lists = result.getJSONArray("CORRECT_RECORDS");
+		assertEquals(4, lists.length());
+		int expected = 0;
+		for ( int ix = 0; ix < lists.length(); ix++ ) {
+			JSONArray list = lists.getJSONArray(ix);
+			for ( int jx = 0; jx < list.length(); jx++ )
+				assertEquals(result.toString(), expected++, list.getJSONObject(jx).getInt("RECORDNO"));
+		}
+		assertEquals(40, expected);
+		JSONArray latencies = result.getJSONObject("STATS").getJSONArray("BATCH_LATENCY_MS");
+		assertTrue(latencies.toString(), latencies.getLong(0) >= MockGateway.SLOW_MILLIS);
+	}
+
+	static APIBulkWriter salvage(int batchSize) {
+		APIBulkWriter writer = session.newBulkWriter();
+		writer.setBatchSize(batchSize);
+		writer.setSalvage(true);
+		return writer;
+	}
+
+	/*
+	 * count records of the object, the bad ones at the given positions
+	 */
+	static JSONArray records(String object, int count, int... bad) {
+		JSONArray records = new JSONArray();
+		for ( int ix = 0; ix < count; ix++ )
+			records.put(new JSONObject().put(object, new JSONObject().put("NAME", "name " + ix)));
+		for ( int ix : bad )
+			records.getJSONObject(ix).getJSONObject(object).put("NAME", MockGateway.BAD_VALUE);
+		return records;
+	}
+
+	static int created(JSONObject result) {
+		int count = 0;
+		JSONArray lists = result.getJSONArray("CORRECT_RECORDS");
+		for ( int ix = 0; ix < lists.length(); ix++ )
+			count += lists.getJSONArray(ix).length();
+		return count;
+	}
+
+	static String listSizes(JSONObject result) {
+		JSONArray sizes = new JSONArray();
+		JSONArray lists = result.getJSONArray("CORRECT_RECORDS");
+		for ( int ix = 0; ix < lists.length(); ix++ )
+			sizes.put(lists.getJSONArray(ix).length());
+		return sizes.toString();
+	}
+
+	static String rejected(JSONObject result) {
+		JSONArray indexes = new JSONArray();
+		JSONArray rejected = result.optJSONArray("REJECTED_RECORDS");
+		for ( int ix = 0; rejected != null && ix < rejected.length(); ix++ )
+			indexes.put(rejected.getJSONObject(ix).getInt("RECORD"));
+		return indexes.toString();
+	}
+}
@@ -0,0 +1,139 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * The properties of a JSONObject are kept in parallel arrays up to 64 keys, then in a LinkedHashMap. Random
+ * puts and removes (by the object, the keys iterator and the key set) are checked against a LinkedHashMap:
+ * the length, the values and the order of the names, on both sides of the switch.
+ */
+public class TestCompactMap {
+
+	@Test
+	public void testSameAsLinkedHashMap() {
+		Random random = new Random(11);
+		for ( int round = 0; round < 100; round++ ) {
+			JSONObject object = new JSONObject();
+			Map<String, Object> model = new LinkedHashMap<String, Object>();
+			// few keys stay in the arrays, many move to the LinkedHashMap
+			int keys = round % 3 == 0 ? 200 : 40;
+			for ( int op = 0; op < 400; op++ ) {
+				String key = "K" + random.nextInt(keys);
+				switch ( random.nextInt(10) ) {
+				case 0:
+					object.remove(key);
+					model.remove(key);
+					break;
+				case 1:
+					assertEquals(model.remove(key) != null, object.keySet().remove(key));
+					break;
+				case 2:
+					removeByIterator(object, model, key);
+					break;
+				case 3:
+					object.put(key, (Object) null);
+					model.remove(key);
+					break;
+				default:
+					object.put(key, op);
+					model.put(key, op);
+				}
+				assertSame(model, object);
+			}
+		}
+	}
+
+	@Test
+	public void testAcrossThreshold() {
+		JSONObject object = new JSONObject();
+		for ( int ix = 0; ix < 100; ix++ )
+			object.put("K" + ix, ix);
+		for ( int ix = 0; ix < 100; ix += 2 )
+			object.remove("K" + ix);
+		assertEquals(50, object.length());
+		JSONArray names = object.names();
+		for ( int ix = 0; ix < 50; ix++ )
+			assertEquals("K" + (ix * 2 + 1), names.getString(ix));
+		assertEquals("{\"K1\":1,\"K3\":3}", new JSONObject(object, new String[] { "K1", "K2", "K3" }).toString());
+	}
+
+	@Test
+	public void testPutWhileIterating() {
+		for ( int size : new int[] { 3, 64, 100 } ) {
+			JSONObject object = new JSONObject();
+			for ( int ix = 0; ix < size; ix++ )
+				object.put("K" + ix, ix);
+			Iterator<?> keys = object.keys();
+			keys.next();
+			// a new value for a key is not a change of the keys
+			object.put("K0", "zero");
+			keys.next();
+			object.put("NEW", 1);
+			try {
+				assertTrue(keys.hasNext());
+				keys.next();
+				fail("no ConcurrentModificationException at " + size);
+			} catch (ConcurrentModificationException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void testRemoveWhileIterating() {
+		JSONObject object = new JSONObject();
+		for ( int ix = 0; ix < 5; ix++ )
+			object.put("K" + ix, ix);
+		Iterator<?> keys = object.keys();
+		keys.next();
+		object.remove("K3");
+		try {
+			keys.remove();
+			fail("no ConcurrentModificationException");
+		} catch (ConcurrentModificationException expected) {
+		}
+		assertEquals(4, object.length());
+		assertFalse(object.has("K3"));
+	}
+
+	private static void removeByIterator(JSONObject object, Map<String, Object> model, String key) {
+		model.remove(key);
+		for ( Iterator<?> keys = object.keys(); keys.hasNext(); ) {
+			if ( keys.next().equals(key) )
+				keys.remove();
+		}
+	}
+
+	private static void assertSame(Map<String, Object> model, JSONObject object) {
+		assertEquals(model.size(), object.length());
+		List<String> names = new ArrayList<String>();
+		for ( Iterator<?> keys = object.keys(); keys.hasNext(); )
+			names.add((String) keys.next());
+		assertEquals(new ArrayList<String>(model.keySet()), names);
+		if ( !model.isEmpty() )
+			assertEquals(model.size(), object.names().length());
+		for ( int ix = 0; ix < 200; ix++ ) {
+			String key = "K" + ix;
+			assertEquals(key, model.containsKey(key), object.has(key));
+			assertEquals(key, model.get(key), object.opt(key));
+		}
+	}
+}
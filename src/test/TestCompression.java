@@ -0,0 +1,152 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.intacct.ws.APISession;
+import com.intacct.ws.transport.FormEncodedBody;
+import com.intacct.ws.transport.GzipRequestBody;
+import com.intacct.ws.transport.PooledHttpTransport;
+import com.intacct.ws.util.ConfigConstants;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Compression against the local MockGateway: the gzip, deflate and raw deflate responses (with a Content-Length
+ * or chunked) give the same results as the plain ones, the large create requests go gzip compressed and
+ * chunked, and GzipRequestBody gives back the bytes of the body it wraps.
+ */
+public class TestCompression {
+
+	private static MockGateway gateway;
+	private static APISession<JSONObject> session;
+
+	@BeforeClass
+	public static void start() throws Exception {
+		gateway = new MockGateway();
+		System.setProperty(ConfigConstants.END_POINT_URL, gateway.getEndpoint());
+		session = APISession.getJSONInstance("mock", "mock", "mock", "mock", "mock");
+	}
+
+	@AfterClass
+	public static void stop() {
+		System.clearProperty(ConfigConstants.END_POINT_URL);
+		gateway.stop();
+	}
+
+	@After
+	public void reset() {
+		gateway.setCompression((String) null);
+		gateway.setChunked(false);
+		session.setCompressRequests(false);
+	}
+
+	@Test
+	public void testGzipRequestBody() throws Exception {
+		StringBuilder xml = new StringBuilder();
+		for ( int ix = 0; ix < 5000; ix++ )
+			xml.append("<customer><NAME>caf\u00e9 ").append(ix).append("</NAME></customer>");
+		FormEncodedBody plain = new FormEncodedBody(xml);
+		GzipRequestBody gzip = new GzipRequestBody(plain);
+		assertEquals(-1, gzip.contentLength());
+		assertEquals("gzip", gzip.contentEncoding());
+		assertEquals(plain.contentType(), gzip.contentType());
+
+		final boolean[] closed = { false };
+		ByteArrayOutputStream out = new ByteArrayOutputStream() {
+			@Override
+			public void close() {
+				closed[0] = true;
+			}
+		};
+		gzip.writeTo(out);
+		// the connection stays open
+		assertFalse(closed[0]);
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		plain.writeTo(expected);
+		assertTrue(out.size() < expected.size() / 4);
+		assertEquals(new String(expected.toByteArray(), "US-ASCII"), new String(gunzip(out.toByteArray()), "US-ASCII"));
+	}
+
+	@Test
+	public void testCompressedResponses() throws Exception {
+		PooledHttpTransport transport = (PooledHttpTransport) session.getTransport();
+		long received = transport.getBytesReceived();
+		String plain = readAll();
+		long plainBytes = transport.getBytesReceived() - received;
+		assertEquals(1000, new JSONObject(plain).getJSONArray("READ_RESULT").length());
+		for ( String compression : new String[] { "gzip", "deflate", "raw-deflate" } ) {
+			gateway.setCompression(compression);
+			for ( boolean chunked : new boolean[] { false, true } ) {
+				gateway.setChunked(chunked);
+				received = transport.getBytesReceived();
+				assertEquals(compression + (chunked ? " chunked" : ""), plain, readAll());
+				// inflated by the transport
+				assertTrue(compression, transport.getBytesReceived() - received < plainBytes / 4);
+				// the XML results too
+				assertEquals("CUSTOMER-7", session.read("customer", "7", "*").getJSONArray("READ_RESULT")
+						.getJSONObject(0).getString("ID"));
+			}
+		}
+	}
+
+	@Test
+	public void testCompressedRequest() throws Exception {
+		JSONArray records = new JSONArray();
+		// 100 records (the maximum of a create) beyond the minimum length of the compressed requests
+		for ( int ix = 0; ix < 100; ix++ )
+			records.put(new JSONObject().put("customer", new JSONObject().put("NAME", "name " + ix).put("COMMENTS",
+					"a comment long enough for the request to be compressed, a comment long enough for the request "
+					+ "to be compressed")));
+
+		JSONObject plain = session.create(Collections.singletonList("customer"), records);
+		assertNull(gateway.getLastContentEncoding());
+		assertFalse(gateway.isLastRequestChunked());
+
+		session.setCompressRequests(true);
+		gateway.setCompression("gzip");
+		gateway.setChunked(true);
+		JSONObject compressed = session.create(Collections.singletonList("customer"), records);
+		assertEquals("gzip", gateway.getLastContentEncoding());
+		assertTrue(gateway.isLastRequestChunked());
+		assertEquals("Success", compressed.getString("OVERALL_STATUS"));
+		assertEquals(plain.getJSONArray("CORRECT_RECORDS").getJSONArray(0).length(),
+				compressed.getJSONArray("CORRECT_RECORDS").getJSONArray(0).length());
+
+		// the small requests are not compressed
+		session.create(Collections.singletonList("customer"), new JSONArray().put(records.get(0)));
+		assertNull(gateway.getLastContentEncoding());
+	}
+
+	private static String readAll() throws Exception {
+		return session.readByQuery("customer", "", "*", 1000).toString();
+	}
+
+	private static byte[] gunzip(byte[] compressed) throws IOException {
+		GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int n;
+		while ( (n = in.read(buf)) > 0 )
+			out.write(buf, 0, n);
+		return out.toByteArray();
+	}
+}
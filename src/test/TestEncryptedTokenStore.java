@@ -0,0 +1,116 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.intacct.ws.APIEncryptedTokenStore;
+import com.intacct.ws.APISessionToken;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * APIEncryptedTokenStore: the tokens saved by one store are read back by another one on the same file and
+ * passphrase, and only by it; a tampered file or a token past its expiry is not read.
+ */
+public class TestEncryptedTokenStore {
+
+	private Path dir, file;
+
+	@Before
+	public void createDir() throws Exception {
+		dir = Files.createTempDirectory("tokens");
+		file = dir.resolve("sub").resolve("tokens.bin");
+	}
+
+	@After
+	public void deleteDir() throws Exception {
+		Files.deleteIfExists(file);
+		Files.deleteIfExists(file.getParent());
+		Files.deleteIfExists(dir);
+	}
+
+	@Test
+	public void testRoundTrip() {
+		long expiresAt = System.currentTimeMillis() + APISessionToken.DEFAULT_TTL;
+		APIEncryptedTokenStore store = new APIEncryptedTokenStore(file, "secret".toCharArray());
+		store.save("c1/u1//", new APISessionToken("session1", "https://one", expiresAt));
+		store.save("c2/u2/LOCATION/10", new APISessionToken("session\u00e9", "https://two", expiresAt + 1));
+		assertTrue(Files.exists(file));
+
+		APIEncryptedTokenStore other = new APIEncryptedTokenStore(file, "secret".toCharArray());
+		APISessionToken token = other.load("c1/u1//");
+		assertEquals("session1", token.getSessionId());
+		assertEquals("https://one", token.getEndpoint());
+		assertEquals(expiresAt, token.getExpiresAt());
+		assertEquals("session\u00e9", other.load("c2/u2/LOCATION/10").getSessionId());
+		assertNull(other.load("c3/u3//"));
+
+		other.remove("c1/u1//");
+		APIEncryptedTokenStore third = new APIEncryptedTokenStore(file, "secret".toCharArray());
+		assertNull(third.load("c1/u1//"));
+		assertEquals(expiresAt + 1, third.load("c2/u2/LOCATION/10").getExpiresAt());
+	}
+
+	@Test
+	public void testEncrypted() throws Exception {
+		new APIEncryptedTokenStore(file, "secret".toCharArray()).save("c1/u1//",
+				new APISessionToken("plainsession", "https://one", System.currentTimeMillis() + 60000));
+		String content = new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1);
+		assertTrue(content.startsWith("ITS1"));
+		assertFalse(content.contains("plainsession"));
+		assertFalse(content.contains("c1/u1"));
+	}
+
+	@Test
+	public void testWrongKey() {
+		long expiresAt = System.currentTimeMillis() + 60000;
+		new APIEncryptedTokenStore(file, "secret".toCharArray()).save("c1/u1//", new APISessionToken("session1", "https://one", expiresAt));
+
+		APIEncryptedTokenStore wrong = new APIEncryptedTokenStore(file, "other".toCharArray());
+		assertNull(wrong.load("c1/u1//"));
+		// the unreadable file is replaced on the next save
+		wrong.save("c2/u2//", new APISessionToken("session2", "https://two", expiresAt));
+		assertNull(new APIEncryptedTokenStore(file, "secret".toCharArray()).load("c2/u2//"));
+		assertEquals("session2", new APIEncryptedTokenStore(file, "other".toCharArray()).load("c2/u2//").getSessionId());
+	}
+
+	@Test
+	public void testTamperedFile() throws Exception {
+		new APIEncryptedTokenStore(file, "secret".toCharArray()).save("c1/u1//",
+				new APISessionToken("session1", "https://one", System.currentTimeMillis() + 60000));
+		byte[] content = Files.readAllBytes(file);
+		content[content.length - 20] ^= 1;
+		Files.write(file, content);
+		assertNull(new APIEncryptedTokenStore(file, "secret".toCharArray()).load("c1/u1//"));
+
+		Files.write(file, "ITS1 but too short".getBytes(StandardCharsets.US_ASCII));
+		assertNull(new APIEncryptedTokenStore(file, "secret".toCharArray()).load("c1/u1//"));
+	}
+
+	@Test
+	public void testExpiry() {
+		long now = System.currentTimeMillis();
+		APIEncryptedTokenStore store = new APIEncryptedTokenStore(file, "secret".toCharArray());
+		store.save("old//", new APISessionToken("session1", "https://one", now - 1));
+		store.save("new//", new APISessionToken("session2", "https://two", now + 60000));
+		assertTrue(store.load("old//").isExpired());
+		assertFalse(store.load("new//").isExpired());
+
+		// the expired tokens are dropped when the file is read
+		APIEncryptedTokenStore other = new APIEncryptedTokenStore(file, "secret".toCharArray());
+		assertNull(other.load("old//"));
+		assertEquals("session2", other.load("new//").getSessionId());
+	}
+}
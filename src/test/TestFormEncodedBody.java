@@ -0,0 +1,99 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URLEncoder;
+
+import org.junit.Test;
+
+import com.intacct.ws.transport.FormEncodedBody;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * FormEncodedBody writes what URLEncoder.encode(value, "UTF-8") gives and contentLength() is the number of bytes
+ * it writes: ASCII, 2 and 3 byte characters, surrogate pairs, unpaired surrogates, and values longer than the
+ * buffer with the characters straddling its end.
+ */
+public class TestFormEncodedBody {
+
+	// larger than the buffer of the body
+	private final static int LONG = 3 * 8192 + 100;
+
+	@Test
+	public void testAscii() throws Exception {
+		StringBuilder all = new StringBuilder();
+		for ( char c = 0; c < 0x80; c++ )
+			all.append(c);
+		check(all.toString());
+		check("<request><control><senderid>a b</senderid></control></request>");
+		check("");
+	}
+
+	@Test
+	public void testMultiByte() throws Exception {
+		// 2 bytes
+		check("caf\u00e9 \u00df \u00a9 \u07ff \u0080");
+		// 3 bytes
+		check("\u20ac 100 \u4e2d\u6587 \u0800 \uffff \ufeff");
+	}
+
+	@Test
+	public void testSurrogates() throws Exception {
+		// pairs
+		check("\ud83d\ude00 smile \ud800\udc00 \udbff\udfff");
+		// unpaired: high alone, low alone, high before a non surrogate, high at the end
+		check("\ud83d");
+		check("\ude00");
+		check("a\ud83db\ude00c");
+		check("\ude00\ud83d");
+		check("end \ud83d");
+	}
+
+	@Test
+	public void testLongValue() throws Exception {
+		StringBuilder value = new StringBuilder();
+		String[] pieces = { "a", " ", "&", "\u00e9", "\u20ac", "\ud83d\ude00", "\ud83d", "<x>" };
+		for ( int ix = 0; value.length() < LONG; ix++ )
+			value.append(pieces[ix % pieces.length]);
+		check(value.toString());
+		check(value);
+
+		// a multi-byte character at every position around the end of the buffer
+		for ( int shift = 0; shift < 16; shift++ ) {
+			StringBuilder around = new StringBuilder();
+			for ( int ix = 0; ix < 8192 - 20 + shift; ix++ )
+				around.append('x');
+			around.append("\ud83d\ude00\u20ac\u00e9%\ud83d\ude00");
+			check(around.toString());
+		}
+	}
+
+	/*
+	 * the body is the one of URLEncoder, its length the one announced
+	 */
+	private static void check(CharSequence value) throws IOException {
+		FormEncodedBody body = new FormEncodedBody(value);
+		final int[] largest = { 0 };
+		ByteArrayOutputStream out = new ByteArrayOutputStream() {
+			@Override
+			public synchronized void write(byte[] b, int off, int len) {
+				largest[0] = Math.max(largest[0], len);
+				super.write(b, off, len);
+			}
+		};
+		body.writeTo(out);
+
+		String expected = "xmlrequest=" + URLEncoder.encode(value.toString(), "UTF-8");
+		assertEquals(expected, new String(out.toByteArray(), "US-ASCII"));
+		assertEquals(out.size(), body.contentLength());
+		assertEquals(expected.length() - "xmlrequest=".length(), FormEncodedBody.encodedLength(value));
+		// written through the buffer, never as one copy of the whole request
+		assertTrue("write of " + largest[0] + " bytes", largest[0] <= 8192);
+	}
+}
@@ -0,0 +1,177 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.intacct.ws.transport.FormEncodedBody;
+import com.intacct.ws.transport.PooledHttpTransport;
+import com.intacct.ws.transport.ResponseBody;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * PooledHttpTransport against the ScriptedHttpServer: the framing of the responses (Content-Length, chunked,
+ * connection close), the interim responses, the redirects and error statuses, and the reuse of the connections:
+ * kept alive, closed when the server says so, sent again once when the server has closed a pooled one.
+ */
+public class TestHttpTransport {
+
+	private ScriptedHttpServer server;
+	private PooledHttpTransport transport;
+
+	@Before
+	public void start() throws Exception {
+		server = new ScriptedHttpServer();
+		transport = new PooledHttpTransport(2, 30000, 1000, 1000, 5000);
+	}
+
+	@After
+	public void stop() {
+		transport.close();
+		server.stop();
+	}
+
+	@Test
+	public void testContentLength() throws Exception {
+		server.reply(ScriptedHttpServer.response(200, "<response>one</response>", "Content-Type: text/xml; charset=UTF-8"));
+		server.reply(ScriptedHttpServer.response(200, ""));
+		assertEquals("<response>one</response>", post("a=1"));
+		assertEquals("", post("a=2"));
+		assertEquals(1, server.getConnectionCount());
+		assertEquals(1, transport.getPoolHits());
+
+		ScriptedHttpServer.Request request = server.takeRequest();
+		assertEquals("POST /ia/xml/xmlgw.phtml HTTP/1.1", request.requestLine);
+		assertEquals("xmlrequest=a%3D1", new String(request.body, "US-ASCII"));
+		assertEquals(Long.toString(request.body.length), request.headers.get("content-length"));
+	}
+
+	@Test
+	public void testChunked() throws Exception {
+		server.reply("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+				+ "5;ext=1\r\n<resp\r\n" + "e\r\nonse>two</resp\r\n" + "5\r\nonse>\r\n" + "0\r\nX-Trailer: t\r\n\r\n");
+		server.reply(ScriptedHttpServer.response(200, "next"));
+		assertEquals("<response>two</response>", post("a"));
+		// the trailers are consumed: the next response is read from the start
+		assertEquals("next", post("b"));
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	@Test
+	public void testConnectionClose() throws Exception {
+		server.replyAndClose(ScriptedHttpServer.response(200, "closing", "Connection: close"));
+		server.reply(ScriptedHttpServer.response(200, "new"));
+		assertEquals("closing", post("a"));
+		assertEquals("new", post("b"));
+		assertEquals(2, server.getConnectionCount());
+		assertEquals(0, transport.getRetries());
+	}
+
+	@Test
+	public void testBodyUntilClose() throws Exception {
+		server.replyAndClose("HTTP/1.0 200 OK\r\nContent-Type: text/xml\r\n\r\n<response>until close</response>");
+		server.reply(ScriptedHttpServer.response(200, "new"));
+		assertEquals("<response>until close</response>", post("a"));
+		assertEquals("new", post("b"));
+		assertEquals(2, server.getConnectionCount());
+	}
+
+	@Test
+	public void testInterimResponses() throws Exception {
+		server.reply("HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 102 Processing\r\nX-Progress: 1\r\n\r\n"
+				+ ScriptedHttpServer.response(200, "final"));
+		server.reply(ScriptedHttpServer.response(200, "next"));
+		assertEquals("final", post("a"));
+		assertEquals("next", post("b"));
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	@Test
+	public void testNoContent() throws Exception {
+		// no body after a 204, even with a Content-Length
+		server.reply("HTTP/1.1 204 No Content\r\nContent-Length: 10\r\nContent-Encoding: gzip\r\n\r\n");
+		server.reply(ScriptedHttpServer.response(200, "next"));
+		assertEquals("", post("a"));
+		assertEquals("next", post("b"));
+	}
+
+	@Test
+	public void testRedirect() throws Exception {
+		server.reply(ScriptedHttpServer.response(301, "moved", "Location: https://api.example.com/ia/xml/xmlgw.phtml"));
+		server.reply(ScriptedHttpServer.response(200, "next"));
+		try {
+			post("a");
+			fail("redirect followed");
+		} catch (IOException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().startsWith(
+					"Server returned HTTP redirect 301 to https://api.example.com/ia/xml/xmlgw.phtml"));
+		}
+		// the redirect body was read, the connection is still usable
+		assertEquals("next", post("b"));
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	@Test
+	public void testErrorStatus() throws Exception {
+		server.reply(ScriptedHttpServer.response(503, "<html>unavailable</html>"));
+		server.reply(ScriptedHttpServer.response(404, ""));
+		server.reply(ScriptedHttpServer.response(200, "next"));
+		try {
+			post("a");
+			fail("no error");
+		} catch (IOException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().startsWith("Server returned HTTP response code: 503"));
+		}
+		try {
+			post("b");
+			fail("no error");
+		} catch (IOException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().startsWith("Server returned HTTP response code: 404"));
+		}
+		assertEquals("next", post("c"));
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	@Test
+	public void testStaleConnection() throws Exception {
+		// the server closes the connection after the response without saying it
+		server.replyAndClose(ScriptedHttpServer.response(200, "first"));
+		server.reply(ScriptedHttpServer.response(200, "second"));
+		assertEquals("first", post("a"));
+		Thread.sleep(100);
+		assertEquals("second", post("b"));
+		assertEquals(1, transport.getRetries());
+		assertEquals(2, server.getConnectionCount());
+	}
+
+	@Test
+	public void testNoRetryOnNewConnection() throws Exception {
+		server.drop();
+		try {
+			post("a");
+			fail("no error");
+		} catch (IOException expected) {
+			// closed without a response
+		}
+		assertEquals(0, transport.getRetries());
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	private String post(String value) throws IOException {
+		ResponseBody body = transport.execute(new FormEncodedBody(value), server.getEndpoint());
+		try {
+			return body.toString();
+		} finally {
+			body.release();
+		}
+	}
+}
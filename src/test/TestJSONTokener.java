@@ -0,0 +1,125 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Random;
+
+import org.json.JSONTokener;
+import org.junit.Test;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * JSONTokener reads through a char window with bulk scans of the strings and unquoted values. The values,
+ * errors and positions (line, character) are checked on fixed texts against the ones of the char by char
+ * tokener it replaced, and on random texts against the tokener fed by a Reader giving a few chars per read:
+ * with a window of one char the bulk scans always fall back to the char by char path.
+ */
+public class TestJSONTokener {
+
+	// the text, then the value and the position after it (or the error) of the char by char tokener
+	private final static String[] CASES = {
+			"[{\"A\":\"x\\\"y\\u00e9\",\"B\":12,\"C\":1.5,\"D\":true,\"E\":null}]", "[{\"A\":\"x\\\"y\u00e9\",\"B\":12,\"C\":1.5,\"D\":true,\"E\":null}] /  at 53 [character 54 line 1]",
+			" {\"a\" : [1,,2,], 'b':'q', c: abc }", "{\"a\":[1,null,2],\"b\":\"q\",\"c\":\"abc\"} /  at 34 [character 35 line 1]",
+			"[1 2]", "[\"1 2\"] /  at 5 [character 6 line 1]",
+			"{\"a\":1,\"a\":2}", "ERR Duplicate key \"a\"",
+			"[\"unterminated]", "ERR Unterminated string at 16 [character 17 line 1]",
+			"{\"a\":\"line\nbreak\"}", "ERR Unterminated string at 11 [character 0 line 2]",
+			"[12345678901, -3, 1e5]", "[12345678901,-3,100000] /  at 22 [character 23 line 1]",
+			"[]", "[] /  at 2 [character 3 line 1]",
+			"123", "123 /  at 3 [character 4 line 1]",
+			"\"abc\"", "abc /  at 5 [character 6 line 1]",
+			"abc", "abc /  at 3 [character 4 line 1]",
+			"{\r\n \"a\":\r\n\"b\",\r\n\"c\" : 12\r\n,\"d\":x y }", "{\"a\":\"b\",\"c\":12,\"d\":\"x y\"} /  at 36 [character 10 line 6]",
+			"{\"a\":\"b\"\r\n\r\n,,}", "ERR Missing value at 13 [character 1 line 3]",
+			"[\"a\u0000b\"]", "ERR Unterminated string at 4 [character 5 line 1]",
+			"{a:1 b}", "{\"a\":\"1 b\"} /  at 7 [character 8 line 1]",
+			"[1,\n2,\r3,\r\n\"x\" ]  ", "[1,2,3,\"x\"] /  at 16 [character 5 line 4]",
+			"{\"k\":\"\\q\"}", "ERR Illegal escape. at 8 [character 9 line 1]",
+			"[true,false,null,-0.5e-3,0x10,007]", "[true,false,null,-5.0E-4,\"0x10\",\"007\"] /  at 34 [character 35 line 1]",
+	};
+
+	@Test
+	public void testFixedTexts() {
+		for ( int ix = 0; ix < CASES.length; ix += 2 ) {
+			assertEquals(CASES[ix], CASES[ix + 1], parse(new JSONTokener(CASES[ix])));
+			assertEquals(CASES[ix], CASES[ix + 1], parse(new JSONTokener(chunked(CASES[ix], 1))));
+		}
+	}
+
+	@Test
+	public void testRandomTexts() {
+		Random random = new Random(1);
+		String alphabet = "{}[],:\"'\\ \n\rab1.-e\u00e9tu";
+		for ( int ix = 0; ix < 20000; ix++ ) {
+			StringBuilder text = new StringBuilder();
+			int length = random.nextInt(30);
+			for ( int c = 0; c < length; c++ )
+				text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			assertSameParse(text.toString());
+		}
+	}
+
+	@Test
+	public void testLargeText() {
+		// larger than the window of a Reader
+		StringBuilder text = new StringBuilder("[");
+		for ( int ix = 0; ix < 5000; ix++ )
+			text.append(ix > 0 ? ",\r\n" : "").append("{\"K\":\"v\u00e9\\n").append(ix).append("\",\"N\":").append(ix)
+					.append(",\"M\":\"plain value ").append(ix).append("\"}");
+		assertSameParse(text.append("]").toString());
+	}
+
+	@Test
+	public void testSkipTo() {
+		String[] cases = { "abcdefg", "e at 5 [character 6 line 1]e", "ab\ncd\rex", "e at 7 [character 1 line 3]e" };
+		for ( int ix = 0; ix < cases.length; ix += 2 ) {
+			assertEquals(cases[ix + 1], skipTo(new JSONTokener(cases[ix])));
+			assertEquals(cases[ix + 1], skipTo(new JSONTokener(chunked(cases[ix], 2))));
+		}
+		// not found: the tokener is left where it was
+		JSONTokener tokener = new JSONTokener(chunked("abc", 1));
+		tokener.next();
+		assertEquals(0, tokener.skipTo('z'));
+		assertEquals('b', tokener.next());
+	}
+
+	private static void assertSameParse(String text) {
+		String expected = parse(new JSONTokener(chunked(text, 1)));
+		assertEquals(text, expected, parse(new JSONTokener(text)));
+		for ( int chars : new int[] { 3, 7, 8192 } )
+			assertEquals(text, expected, parse(new JSONTokener(chunked(text, chars))));
+	}
+
+	private static String parse(JSONTokener tokener) {
+		try {
+			Object value = tokener.nextValue();
+			return value + " / " + tokener;
+		} catch (Exception ex) {
+			return "ERR " + ex.getMessage();
+		}
+	}
+
+	private static String skipTo(JSONTokener tokener) {
+		tokener.next();
+		return "" + tokener.skipTo('e') + tokener + tokener.next();
+	}
+
+	/*
+	 * a reader giving at most chars chars per read
+	 */
+	static Reader chunked(String text, final int chars) {
+		return new FilterReader(new StringReader(text)) {
+			@Override
+			public int read(char[] buf, int off, int len) throws IOException {
+				return super.read(buf, off, Math.min(len, chars));
+			}
+		};
+	}
+}
@@ -0,0 +1,159 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.intacct.ws.APIMetadataCache;
+import com.intacct.ws.APISession;
+import com.intacct.ws.exception.IntacctSDKRuntimeException;
+import com.intacct.ws.util.ConfigConstants;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * APIMetadataCache against the local MockGateway: one inspect for the threads asking for the same object at
+ * the same time, the reload after the TTL and after invalidate(), the failed loads not cached, and the
+ * snapshot file that warms up a new cache without calling the gateway.
+ */
+public class TestMetadataCache {
+
+	private static MockGateway gateway;
+	private static APISession<JSONObject> session;
+
+	@BeforeClass
+	public static void start() throws Exception {
+		gateway = new MockGateway();
+		System.setProperty(ConfigConstants.END_POINT_URL, gateway.getEndpoint());
+		session = APISession.getJSONInstance("mock", "mock", "mock", "mock", "mock");
+	}
+
+	@AfterClass
+	public static void stop() {
+		System.clearProperty(ConfigConstants.END_POINT_URL);
+		gateway.stop();
+	}
+
+	@After
+	public void reset() {
+		gateway.setInspectDelay(0);
+	}
+
+	@Test
+	public void testSingleFlight() throws Exception {
+		final APIMetadataCache cache = new APIMetadataCache(session);
+		gateway.setInspectDelay(300);
+		int inspects = gateway.getInspectCount();
+		final CountDownLatch go = new CountDownLatch(1);
+		ExecutorService threads = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<JSONObject>> results = new ArrayList<Future<JSONObject>>();
+			for ( int ix = 0; ix < 8; ix++ )
+				results.add(threads.submit(() -> {
+					go.await();
+					return cache.inspect("customer", true);
+				}));
+			go.countDown();
+			JSONObject first = results.get(0).get();
+			for ( Future<JSONObject> result : results )
+				assertSame(first, result.get());
+		} finally {
+			threads.shutdownNow();
+		}
+		assertEquals(1, gateway.getInspectCount() - inspects);
+		assertEquals(1, cache.getMissCount());
+		assertEquals(7, cache.getHitCount());
+
+		// the detail flag is a separate entry
+		cache.inspect("customer", false);
+		assertEquals(2, gateway.getInspectCount() - inspects);
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void testTtl() throws Exception {
+		APIMetadataCache cache = new APIMetadataCache(session, 300);
+		int inspects = gateway.getInspectCount();
+		JSONObject first = cache.inspect("vendor", true);
+		assertSame(first, cache.inspect("vendor", true));
+		assertEquals(1, gateway.getInspectCount() - inspects);
+
+		Thread.sleep(400);
+		JSONObject reloaded = cache.inspect("vendor", true);
+		assertTrue(first != reloaded);
+		assertEquals(first.toString(), reloaded.toString());
+		assertEquals(2, gateway.getInspectCount() - inspects);
+
+		cache.invalidate("vendor");
+		cache.inspect("vendor", true);
+		assertEquals(3, gateway.getInspectCount() - inspects);
+		assertEquals(3, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+	}
+
+	@Test
+	public void testFailureNotCached() throws Exception {
+		APIMetadataCache cache = new APIMetadataCache(session);
+		int inspects = gateway.getInspectCount();
+		for ( int ix = 0; ix < 2; ix++ ) {
+			try {
+				cache.inspect(MockGateway.DENIED_OBJECT, true);
+				fail("no failure");
+			} catch (IntacctSDKRuntimeException expected) {
+				assertTrue(expected.getMessage(), String.valueOf(expected.getJsonDetails()).contains("BL03000018"));
+			}
+		}
+		// each inspect() has tried again
+		assertEquals(2, gateway.getInspectCount() - inspects);
+		assertEquals(2, cache.getLoadFailureCount());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		Path dir = Files.createTempDirectory("metadata");
+		Path file = dir.resolve("snapshot.json");
+		try {
+			APIMetadataCache cache = new APIMetadataCache(session);
+			JSONObject customer = cache.inspect("customer", true);
+			JSONObject vendor = cache.inspect("vendor", false);
+			cache.saveSnapshot(file);
+
+			int inspects = gateway.getInspectCount();
+			APIMetadataCache warm = new APIMetadataCache(session);
+			assertEquals(2, warm.loadSnapshot(file));
+			assertEquals(customer.toString(), warm.inspect("customer", true).toString());
+			assertEquals(vendor.toString(), warm.inspect("vendor", false).toString());
+			assertEquals("customer", warm.getObjectDef("customer").getObjectType());
+			assertEquals(0, gateway.getInspectCount() - inspects);
+			assertEquals(0, warm.getMissCount());
+
+			// the entries keep their load time: expired ones are not added
+			Thread.sleep(50);
+			assertEquals(0, new APIMetadataCache(session, 10).loadSnapshot(file));
+			// a missing file is ignored
+			assertEquals(0, new APIMetadataCache(session).loadSnapshot(dir.resolve("missing.json")));
+		} finally {
+			Files.deleteIfExists(file);
+			Files.delete(dir);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.intacct.ws.APIFieldDef;
+import com.intacct.ws.APIObjectDef;
+import com.intacct.ws.APISession;
+import com.intacct.ws.exception.IntacctSDKRuntimeException;
+import com.intacct.ws.util.ConfigConstants;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * APIObjectDef: the index of the field names with colliding hashes and with as many fields as the table
+ * allows, the field names defined twice, and the objects built from the inspect of the local MockGateway
+ * and from an inspect with one field only (FIELDS an object, not an array).
+ */
+public class TestObjectDef {
+
+	private static MockGateway gateway;
+
+	@BeforeClass
+	public static void start() throws Exception {
+		gateway = new MockGateway();
+		System.setProperty(ConfigConstants.END_POINT_URL, gateway.getEndpoint());
+	}
+
+	@AfterClass
+	public static void stop() {
+		System.clearProperty(ConfigConstants.END_POINT_URL);
+		gateway.stop();
+	}
+
+	@Test
+	public void testCollisions() {
+		// "Aa" and "BB" have the same hash code, so have all their combinations
+		String[] names = { "Aa", "BB", "AaAa", "AaBB", "BBAa", "BBBB", "AaAaAa", "BBBBBB" };
+		APIObjectDef def = new APIObjectDef("test", fields(names));
+		for ( int ix = 0; ix < names.length; ix++ ) {
+			assertEquals(names[ix], ix, def.indexOf(names[ix]));
+			assertSame(def.getField(ix), def.getField(names[ix]));
+		}
+		// same hash, not a field: probes to an empty slot
+		assertEquals(-1, def.indexOf("AaAaBB"));
+		assertNull(def.getField("BBBBAa"));
+		// the names are case sensitive
+		assertEquals(-1, def.indexOf("aa"));
+	}
+
+	@Test
+	public void testSizes() {
+		// from no field to more than the table of the smallest size, every slot position
+		for ( int count = 0; count <= 70; count++ ) {
+			String[] names = new String[count];
+			for ( int ix = 0; ix < count; ix++ )
+				names[ix] = "FIELD_" + ix;
+			APIObjectDef def = new APIObjectDef("test", fields(names));
+			assertEquals(count, def.size());
+			for ( int ix = 0; ix < count; ix++ )
+				assertEquals(names[ix], ix, def.indexOf(names[ix]));
+			assertEquals(-1, def.indexOf("FIELD_" + count));
+			assertEquals(-1, def.indexOf(""));
+		}
+	}
+
+	@Test
+	public void testDuplicate() {
+		try {
+			new APIObjectDef("test", fields("ID", "NAME", "ID"));
+			fail("no failure");
+		} catch (IntacctSDKRuntimeException expected) {
+			assertEquals("Field ID defined twice in test", expected.getMessage());
+		}
+		// same hash code, different names
+		assertEquals(2, new APIObjectDef("test", fields("Aa", "BB")).size());
+	}
+
+	@Test
+	public void testInspect() throws Exception {
+		APISession<JSONObject> session = APISession.getJSONInstance("mock", "mock", "mock", "mock", "mock");
+		APIObjectDef def = APIObjectDef.fromInspect(session.inspect("customer", true));
+		assertEquals("customer", def.getObjectType());
+		assertEquals(7, def.size());
+		assertEquals("[RECORDNO, ID, NAME, STATUS, AMOUNT, MEMO, WHENCREATED]", names(def));
+		APIFieldDef id = def.getField("ID");
+		assertTrue(id.isRequired());
+		assertFalse(id.isReadOnly());
+		assertEquals(20, id.getMaxLength());
+		assertEquals(APIFieldDef.DATA_TYPE.CURRENCY, def.getField("AMOUNT").getDataType());
+		assertTrue(def.getField("RECORDNO").isReadOnly());
+
+		// the field names only
+		try {
+			APIObjectDef.fromInspect(session.inspect("customer", false));
+			fail("no failure");
+		} catch (IntacctSDKRuntimeException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().contains("use inspect(object, true)"));
+		}
+	}
+
+	@Test
+	public void testSingleField() {
+		// the XML to JSON translation of a Fields element with one Field
+		JSONObject field = new JSONObject().put("Name", "RECORDNO").put("externalDataName", "integer")
+				.put("isRequired", "false").put("isReadOnly", "true").put("maxLength", "8").put("id", "1");
+		APIObjectDef def = APIObjectDef.fromInspect(new JSONObject().put("OBJECT_TYPE", "one").put("FIELDS", field));
+		assertEquals(1, def.size());
+		assertEquals(0, def.indexOf("RECORDNO"));
+		assertTrue(def.getField("RECORDNO").isReadOnly());
+		assertEquals(8, def.getField("RECORDNO").getMaxLength());
+		assertEquals(APIFieldDef.DATA_TYPE.INTEGER, def.getField(0).getDataType());
+
+		// no FIELDS at all
+		assertEquals(0, APIObjectDef.fromInspect(new JSONObject().put("OBJECT_TYPE", "none")).size());
+		try {
+			APIObjectDef.fromInspect(new JSONObject().put("FIELDS", "RECORDNO"));
+			fail("no failure");
+		} catch (IntacctSDKRuntimeException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().contains("use inspect(object, true)"));
+		}
+	}
+
+	private static List<APIFieldDef> fields(String... names) {
+		List<APIFieldDef> fields = new ArrayList<APIFieldDef>();
+		for ( int ix = 0; ix < names.length; ix++ )
+			fields.add(new APIFieldDef(names[ix], names[ix], names[ix], "text", false, false, 0, names[ix], "", ix + 1));
+		return fields;
+	}
+
+	private static String names(APIObjectDef def) {
+		List<String> names = new ArrayList<String>();
+		for ( APIFieldDef field : def.getFields() )
+			names.add(field.getName());
+		return names.toString();
+	}
+}
@@ -0,0 +1,215 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.intacct.ws.APIPageReader;
+import com.intacct.ws.APIRecordIterator;
+import com.intacct.ws.APISession;
+import com.intacct.ws.exception.IntacctSDKRuntimeException;
+import com.intacct.ws.util.ConfigConstants;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * APIPageReader and APIRecordIterator against the local MockGateway: the pages of a query read to the end, a
+ * failure in the middle of the pages, and the background loop that stops when the reader or the stream of the
+ * records is closed early, when no page is taken for the idle timeout, or when the reader is dropped without
+ * close().
+ */
+public class TestPageReader {
+
+	private static MockGateway gateway;
+	private static APISession<JSONObject> session;
+
+	/*
+	 * runs the background loops of the readers, one thread each, and counts the ones still running
+	 */
+	private final static class LoopExecutor implements Executor {
+
+		final AtomicInteger running = new AtomicInteger();
+
+		public void execute(final Runnable loop) {
+			running.incrementAndGet();
+			Thread t = new Thread(() -> {
+				try {
+					loop.run();
+				} finally {
+					running.decrementAndGet();
+				}
+			});
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	private LoopExecutor loops;
+
+	@BeforeClass
+	public static void start() throws Exception {
+		gateway = new MockGateway();
+		System.setProperty(ConfigConstants.END_POINT_URL, gateway.getEndpoint());
+		session = APISession.getJSONInstance("mock", "mock", "mock", "mock", "mock");
+	}
+
+	@AfterClass
+	public static void stop() {
+		System.clearProperty(ConfigConstants.END_POINT_URL);
+		gateway.stop();
+	}
+
+	@Before
+	public void setExecutor() {
+		loops = new LoopExecutor();
+		session.setAsyncExecutor(loops);
+	}
+
+	@After
+	public void resetGateway() {
+		session.setAsyncExecutor(null);
+		gateway.setRecords(1000);
+	}
+
+	@Test
+	public void testPages() throws Exception {
+		gateway.setRecords(250);
+		int requests = gateway.getRequestCount();
+		APIPageReader reader = session.newPageReader("customer", "", "*");
+		reader.setPageSize(100);
+		int[] sizes = new int[3];
+		int count = 0;
+		while ( reader.hasNext() ) {
+			JSONArray page = reader.next();
+			sizes[count++] = page.length();
+			assertEquals("CUSTOMER-" + (reader.getRecordsRead() - page.length() + 1), page.getJSONObject(0).getString("ID"));
+		}
+		assertEquals("[100, 100, 50]", Arrays.toString(sizes));
+		assertEquals(250, reader.getTotalCount());
+		assertEquals(3, reader.getPagesRead());
+		// no empty readMore after the last page
+		assertEquals(requests + 3, gateway.getRequestCount());
+		awaitStopped();
+		reader.close();
+	}
+
+	@Test
+	public void testMaxRecords() throws Exception {
+		APIPageReader reader = session.newPageReader("customer", "", "*");
+		reader.setPageSize(100);
+		reader.setMaxRecords(150);
+		assertEquals(100, reader.next().length());
+		assertEquals(50, reader.next().length());
+		assertFalse(reader.hasNext());
+		assertEquals(150, reader.getRecordsRead());
+		awaitStopped();
+	}
+
+	@Test
+	public void testFailureMidStream() throws Exception {
+		gateway.setRecords(250);
+		APIPageReader reader = session.newPageReader(MockGateway.FAILING_QUERY_OBJECT, "", "*");
+		reader.setPageSize(100);
+		assertEquals(100, reader.next().length());
+		assertTrue(reader.hasNext());
+		try {
+			reader.next();
+			fail("no failure");
+		} catch (IntacctSDKRuntimeException expected) {
+			assertTrue(expected.getMessage(), String.valueOf(expected.getJsonDetails()).contains("DL02000001"));
+		}
+		// the reader is closed by the failure
+		assertFalse(reader.hasNext());
+		awaitStopped();
+	}
+
+	@Test
+	public void testEarlyClose() throws Exception {
+		APIPageReader reader = session.newPageReader("customer", "", "*");
+		reader.setPageSize(10);
+		reader.setPrefetch(1);
+		assertEquals(10, reader.next().length());
+		reader.close();
+		assertFalse(reader.hasNext());
+		awaitStopped();
+		// the 100 pages are not all fetched
+		int requests = gateway.getRequestCount();
+		Thread.sleep(300);
+		assertEquals(requests, gateway.getRequestCount());
+	}
+
+	@Test
+	public void testIdleTimeout() throws Exception {
+		APIPageReader reader = session.newPageReader("customer", "", "*");
+		reader.setPageSize(10);
+		reader.setPrefetch(1);
+		reader.setIdleTimeout(300);
+		assertEquals(10, reader.next().length());
+		// the caller doesn't come back for longer than the idle timeout
+		awaitStopped();
+		// the page already fetched is still there, then the reader fails
+		assertEquals(10, reader.next().length());
+		try {
+			reader.next();
+			fail("no failure");
+		} catch (IntacctSDKRuntimeException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().contains("has stopped"));
+		}
+	}
+
+	@Test
+	public void testDroppedWithoutClose() throws Exception {
+		read(1);
+		// the reader can't be reached any more: the loop stops once it is collected
+		for ( int ix = 0; ix < 20 && loops.running.get() > 0; ix++ ) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		awaitStopped();
+	}
+
+	@Test
+	public void testStreamClose() throws Exception {
+		gateway.setRecords(2500);
+		APIRecordIterator records = session.readByQueryIterator("customer", "", "*", 2500);
+		try ( Stream<JSONObject> stream = records.stream() ) {
+			assertEquals("CUSTOMER-1", stream.findFirst().get().getString("ID"));
+		}
+		// closing the stream has closed the iterator and its reader
+		assertFalse(records.hasNext());
+		awaitStopped();
+	}
+
+	/*
+	 * starts a reader and takes count pages, without closing it
+	 */
+	private static void read(int count) {
+		APIPageReader reader = session.newPageReader("customer", "", "*");
+		reader.setPageSize(10);
+		reader.setPrefetch(1);
+		for ( int ix = 0; ix < count; ix++ )
+			reader.next();
+	}
+
+	private void awaitStopped() throws InterruptedException {
+		for ( int ix = 0; ix < 50 && loops.running.get() > 0; ix++ )
+			Thread.sleep(100);
+		assertEquals("background loops running", 0, loops.running.get());
+	}
+}
@@ -0,0 +1,119 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.intacct.ws.APIMetadataCache;
+import com.intacct.ws.APIRecordValidator;
+import com.intacct.ws.APISession;
+import com.intacct.ws.util.ConfigConstants;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * APIRecordValidator with the field definitions of the local MockGateway (ID and NAME required, RECORDNO and
+ * WHENCREATED read only, ID at most 20 characters): the missing required fields of a create, the read only
+ * fields of a create and of an update, the values too long, the names in any case.
+ */
+public class TestRecordValidator {
+
+	private static MockGateway gateway;
+	private static APIMetadataCache metadata;
+
+	@BeforeClass
+	public static void start() throws Exception {
+		gateway = new MockGateway();
+		System.setProperty(ConfigConstants.END_POINT_URL, gateway.getEndpoint());
+		metadata = new APIMetadataCache(APISession.getJSONInstance("mock", "mock", "mock", "mock", "mock"));
+	}
+
+	@AfterClass
+	public static void stop() {
+		System.clearProperty(ConfigConstants.END_POINT_URL);
+		gateway.stop();
+	}
+
+	@Test
+	public void testRequired() {
+		APIRecordValidator validator = new APIRecordValidator(metadata);
+		assertNull(validator.validate("create", customer("ID", "C1", "NAME", "Acme")));
+		assertEquals("customer.ID is required", validator.validate("create", customer("NAME", "Acme")));
+		assertEquals("customer.ID is required; customer.NAME is required",
+				validator.validate("create", customer("ID", "", "NAME", JSONObject.NULL)));
+		// not for an update
+		assertNull(validator.validate("update", customer("RECORDNO", 10, "MEMO", "m")));
+
+		// left to the gateway
+		validator.setCheckRequired(false);
+		assertNull(validator.validate("create", customer("MEMO", "m")));
+	}
+
+	@Test
+	public void testReadOnly() {
+		APIRecordValidator validator = new APIRecordValidator(metadata);
+		assertEquals("customer.RECORDNO is read only", validator.validate("create",
+				customer("RECORDNO", 10, "ID", "C1", "NAME", "Acme")));
+		// the key of an update
+		assertNull(validator.validate("update", customer("RECORDNO", 10, "NAME", "Acme")));
+		assertEquals("customer.WHENCREATED is read only", validator.validate("update",
+				customer("RECORDNO", 10, "WHENCREATED", "01/31/2015")));
+	}
+
+	@Test
+	public void testMaxLength() {
+		APIRecordValidator validator = new APIRecordValidator(metadata);
+		assertNull(validator.validate("create", customer("ID", "12345678901234567890", "NAME", "Acme")));
+		assertEquals("customer.ID is too long (21 > 20)", validator.validate("create",
+				customer("ID", "123456789012345678901", "NAME", "Acme")));
+		assertEquals("customer.ID is too long (21 > 20)", validator.validate("update",
+				customer("RECORDNO", 10, "ID", "123456789012345678901")));
+		// the structures and the unknown fields are left to the gateway
+		assertNull(validator.validate("create", customer("ID", new JSONObject().put("A", "123456789012345678901"),
+				"NAME", "Acme", "CUSTOM_FIELD", "123456789012345678901234567890")));
+	}
+
+	@Test
+	public void testIgnoreCase() {
+		APIRecordValidator validator = new APIRecordValidator(metadata);
+		assertNull(validator.validate("create", customer("id", "C1", "Name", "Acme")));
+		assertEquals("customer.recordNo is read only", validator.validate("create",
+				customer("recordNo", 10, "id", "C1", "name", "Acme")));
+		assertNull(validator.validate("update", customer("recordno", 10)));
+		assertEquals("customer.Id is too long (21 > 20)", validator.validate("update",
+				customer("recordno", 10, "Id", "123456789012345678901")));
+	}
+
+	@Test
+	public void testSplit() {
+		APIRecordValidator validator = new APIRecordValidator(metadata);
+		JSONArray records = new JSONArray().put(customer("ID", "C1", "NAME", "Acme")).put(customer("NAME", "No id"))
+				.put(customer("ID", "C3", "NAME", "Other"));
+		JSONArray rejected = new JSONArray();
+		JSONArray valid = validator.split("create", records, rejected);
+		assertEquals(2, valid.length());
+		assertEquals("C3", valid.getJSONObject(1).getJSONObject("customer").getString("ID"));
+		assertEquals(1, rejected.length());
+		assertEquals(1, rejected.getJSONObject(0).getInt("RECORD"));
+		assertEquals("customer.ID is required", rejected.getJSONObject(0).getString("ERROR_MESSAGE"));
+		assertEquals("No id", rejected.getJSONObject(0).getJSONObject("ERROR_RECORD").getJSONObject("customer")
+				.getString("NAME"));
+	}
+
+	/*
+	 * a customer record with the names and values
+	 */
+	private static JSONObject customer(Object... namesAndValues) {
+		JSONObject values = new JSONObject();
+		for ( int ix = 0; ix < namesAndValues.length; ix += 2 )
+			values.put((String) namesAndValues[ix], namesAndValues[ix + 1]);
+		return new JSONObject().put("customer", values);
+	}
+}
@@ -0,0 +1,180 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.XML;
+import org.junit.Test;
+
+import com.intacct.ws.APIResponseParser;
+import com.intacct.ws.exception.IntacctSDKRuntimeException;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * APIResponseParser gives the result elements XML.toJSONObject gives for the same response: attributes,
+ * repeated and empty elements, CDATA, several results; the error of a rejected request; the records handed
+ * to a RecordSink; and the plain text scan of rawData.
+ */
+public class TestResponseParser {
+
+	private final static String HEAD = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<response><control><status>success</status>"
+			+ "<senderid>test</senderid><controlid>c1</controlid></control>"
+			+ "<operation><authentication><status>success</status><userid>u</userid></authentication>";
+	private final static String TAIL = "</operation></response>";
+
+	@Test
+	public void testAttributes() {
+		checkSameAsXML(response("<result><status>success</status><function>readByQuery</function>"
+				+ "<controlid>f1</controlid><data listtype=\"customer\" count=\"1\" totalcount=\"3\" numremaining=\"2\" "
+				+ "resultId=\"7765623330WNYxBsDQ\"><customer><RECORDNO>12</RECORDNO><NAME>Acme</NAME>"
+				+ "<AMOUNT currency=\"USD\">12.50</AMOUNT></customer></data></result>"));
+	}
+
+	@Test
+	public void testRepeatedElements() {
+		checkSameAsXML(response("<result><status>success</status><function>read</function><controlid>f1</controlid>"
+				+ "<data listtype=\"customer\" count=\"3\"><customer><RECORDNO>1</RECORDNO></customer>"
+				+ "<customer><RECORDNO>2</RECORDNO><LINE><NO>1</NO></LINE><LINE><NO>2</NO></LINE></customer>"
+				+ "<customer><RECORDNO>3</RECORDNO></customer></data></result>"));
+	}
+
+	@Test
+	public void testEmptyElements() {
+		checkSameAsXML(response("<result><status>success</status><function>read</function><controlid>f1</controlid>"
+				+ "<data><customer><NAME></NAME><EMAIL/><PHONE>  </PHONE><ID>C1</ID></customer></data></result>"));
+		checkSameAsXML(response("<result><status>success</status><function>delete</function><controlid>f1</controlid>"
+				+ "<data/></result>"));
+	}
+
+	@Test
+	public void testCData() {
+		checkSameAsXML(response("<result><status>success</status><function>read</function><controlid>f1</controlid>"
+				+ "<data><customer><DESC><![CDATA[a < b & \"c\"]]></DESC><NOTE><![CDATA[]]></NOTE>"
+				+ "<ESCAPED>x &amp; y &lt;z&gt; caf\u00e9</ESCAPED></customer></data></result>"));
+	}
+
+	@Test
+	public void testSeveralResults() {
+		String res = response("<result><status>success</status><function>create</function><controlid>f1</controlid>"
+				+ "<key>10</key></result>"
+				+ "<result><status>failure</status><function>update</function><controlid>f2</controlid>"
+				+ "<errormessage><error><errorno>BL01001973</errorno><description></description>"
+				+ "<description2>Invalid record</description2><correction></correction></error>"
+				+ "<error><errorno>BL03000018</errorno><description2>Could not update</description2></error>"
+				+ "</errormessage></result>");
+		List<JSONObject> results = APIResponseParser.parse(new StringReader(res), null);
+		JSONArray expected = XML.toJSONObject(res).getJSONObject("response").getJSONObject("operation")
+				.getJSONArray("result");
+		assertEquals(2, results.size());
+		for ( int ix = 0; ix < results.size(); ix++ )
+			assertEquals(canonical(expected.get(ix)), canonical(results.get(ix)));
+	}
+
+	@Test
+	public void testRequestError() {
+		// rejected before any function: no operation, only the errormessage of the response
+		String res = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><response><control><status>failure</status>"
+				+ "<senderid>test</senderid><controlid>c1</controlid></control><errormessage><error>"
+				+ "<errorno>XL03000006</errorno><description>Incorrect Intacct XML Partner ID or password.</description>"
+				+ "<description2></description2><correction></correction></error></errormessage></response>";
+		try {
+			APIResponseParser.parse(new StringReader(res), null);
+			fail("no error");
+		} catch (IntacctSDKRuntimeException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().startsWith(
+					"Request has failed: XL03000006   Incorrect Intacct XML Partner ID or password."));
+		}
+		try {
+			APIResponseParser.parse(new StringReader("<response><control>"), null);
+			fail("no error");
+		} catch (IntacctSDKRuntimeException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().startsWith("Invalid XML response"));
+		}
+	}
+
+	@Test
+	public void testRecordSink() {
+		String res = response("<result><status>success</status><function>readByQuery</function><controlid>f1</controlid>"
+				+ "<data listtype=\"customer\" count=\"3\"><customer><RECORDNO>1</RECORDNO></customer><customer/>"
+				+ "<CUSTOMER><RECORDNO>3</RECORDNO></CUSTOMER></data></result>");
+		final List<String> records = new ArrayList<String>();
+		JSONObject result = APIResponseParser.parseResult(new StringReader(res), new APIResponseParser.RecordSink() {
+			public void record(String object, JSONObject record) {
+				records.add(object + canonical(record));
+			}
+		});
+		assertEquals("[customer{RECORDNO:1(Long)}, customer{}, CUSTOMER{RECORDNO:3(Long)}]", records.toString());
+		// the data keeps its attributes only
+		assertEquals("{count:3(Long),listtype:\"customer\"}", canonical(result.getJSONObject("data")));
+		assertEquals("success", result.getString("status"));
+	}
+
+	@Test
+	public void testRawData() {
+		String data = "<data listtype=\"customer\" count=\"1\"><customer><RECORDNO>1</RECORDNO>"
+				+ "<data>nested</data></customer></data>";
+		assertEquals(data, APIResponseParser.rawData(response("<result><status>success</status><function>read</function>"
+				+ "<controlid>f1</controlid><dataSource>x</dataSource>" + data + "</result>")));
+		// empty, self closing or missing data
+		assertEquals("<data></data>", APIResponseParser.rawData(response("<result><status>success</status><data></data></result>")));
+		assertEquals("<data listtype=\"customer\" count=\"0\"/>", APIResponseParser.rawData(response(
+				"<result><status>success</status><data listtype=\"customer\" count=\"0\"/></result>")));
+		assertEquals("", APIResponseParser.rawData(response("<result><status>success</status><key>10</key></result>")));
+		// a failure or no result: parse for the details
+		assertNull(APIResponseParser.rawData(response("<result><status>failure</status><errormessage/></result>")));
+		assertNull(APIResponseParser.rawData("<response><errormessage><error/></errormessage></response>"));
+		assertNull(APIResponseParser.rawData(response("<result><status>success</status><data count=\"1\"><x/>")));
+	}
+
+	private static String response(String results) {
+		return HEAD + results + TAIL;
+	}
+
+	/*
+	 * the parsed result is the one of XML.toJSONObject
+	 */
+	private static void checkSameAsXML(String res) {
+		JSONObject expected = XML.toJSONObject(res).getJSONObject("response").getJSONObject("operation")
+				.getJSONObject("result");
+		assertEquals(canonical(expected), canonical(APIResponseParser.parseResult(new StringReader(res), null)));
+	}
+
+	/*
+	 * JSON text with the keys sorted and the type of the values shown
+	 */
+	private static String canonical(Object value) {
+		if ( value instanceof JSONObject ) {
+			JSONObject object = (JSONObject) value;
+			List<String> keys = new ArrayList<String>();
+			for ( Object key : object.keySet() )
+				keys.add((String) key);
+			Collections.sort(keys);
+			StringBuilder s = new StringBuilder("{");
+			for ( String key : keys )
+				s.append(s.length() > 1 ? "," : "").append(key).append(':').append(canonical(object.get(key)));
+			return s.append('}').toString();
+		}
+		if ( value instanceof JSONArray ) {
+			JSONArray array = (JSONArray) value;
+			StringBuilder s = new StringBuilder("[");
+			for ( int ix = 0; ix < array.length(); ix++ )
+				s.append(ix > 0 ? "," : "").append(canonical(array.get(ix)));
+			return s.append(']').toString();
+		}
+		if ( value instanceof String )
+			return JSONObject.quote((String) value);
+		return value + "(" + value.getClass().getSimpleName() + ")";
+	}
+}
@@ -0,0 +1,126 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.intacct.ws.APISession;
+import com.intacct.ws.transport.PooledHttpTransport;
+import com.intacct.ws.util.ConfigConstants;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * Stress test of one APISession shared by many threads against the local MockGateway: every thread works
+ * on its own object and keys, so a result crossed between two calls shows up as a wrong object or key. The
+ * async calls share the bounded default executor.
+ */
+public class TestSessionConcurrency {
+
+	final static int THREADS = 16;
+	final static int CALLS = 50;
+
+	private static MockGateway gateway;
+	private static APISession<JSONObject> session;
+
+	@BeforeClass
+	public static void start() throws Exception {
+		gateway = new MockGateway();
+		System.setProperty(ConfigConstants.END_POINT_URL, gateway.getEndpoint());
+		session = APISession.getJSONInstance("mock", "mock", "mock", "mock", "mock");
+	}
+
+	@AfterClass
+	public static void stop() {
+		System.clearProperty(ConfigConstants.END_POINT_URL);
+		gateway.stop();
+	}
+
+	@Test
+	public void testSharedSession() throws Exception {
+		final Queue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+		final CountDownLatch go = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+
+		for ( int ix = 0; ix < THREADS; ix++ ) {
+			final String object = "object" + ix;
+			Thread t = new Thread(new Runnable() {
+				public void run() {
+					try {
+						go.await();
+						for ( int call = 0; call < CALLS; call++ )
+							checkCall(object, call);
+					} catch (Throwable ex) {
+						failures.add(ex);
+					}
+				}
+			});
+			threads.add(t);
+			t.start();
+		}
+		go.countDown();
+		for ( Thread t : threads )
+			t.join();
+
+		if ( !failures.isEmpty() )
+			throw new AssertionError("calls have failed: " + failures, failures.peek());
+	}
+
+	@Test
+	public void testAsyncCalls() throws Exception {
+		List<CompletableFuture<JSONObject>> reads = new ArrayList<CompletableFuture<JSONObject>>();
+		for ( int ix = 0; ix < THREADS * CALLS; ix++ )
+			reads.add(session.readAsync("async" + (ix % THREADS), Integer.toString(ix), "*"));
+
+		for ( int ix = 0; ix < reads.size(); ix++ ) {
+			JSONArray records = reads.get(ix).get().getJSONArray("READ_RESULT");
+			assertEquals(1, records.length());
+			assertEquals("ASYNC" + (ix % THREADS) + "-" + ix, records.getJSONObject(0).getString("ID"));
+		}
+		// the calls beyond the connections of the transport are queued, not run on threads of their own
+		int threads = 0;
+		for ( Thread t : Thread.getAllStackTraces().keySet() )
+			if ( t.getName().startsWith("intacct-async-") )
+				threads++;
+		assertTrue("async threads: " + threads, threads <= PooledHttpTransport.DEFAULT_MAX_PER_ROUTE);
+	}
+
+	private static void checkCall(String object, int call) throws Exception {
+		String key = Integer.toString(call);
+		switch ( call % 4 ) {
+			case 0:
+			case 1:
+				JSONArray records = session.read(object, key, "*").getJSONArray("READ_RESULT");
+				assertEquals(1, records.length());
+				assertEquals(object.toUpperCase() + "-" + key, records.getJSONObject(0).getString("ID"));
+				break;
+			case 2:
+				JSONArray created = new JSONArray();
+				for ( int ix = 0; ix <= call % 5; ix++ )
+					created.put(new JSONObject().put(object, new JSONObject().put("NAME", object + " " + ix)));
+				JSONArray lists = session.create(Collections.singletonList(object), created).getJSONArray("CORRECT_RECORDS");
+				assertEquals(1, lists.length());
+				assertEquals(created.length(), lists.getJSONArray(0).length());
+				break;
+			default:
+				assertTrue(session.delete(object, key));
+				JSONObject inspect = session.inspect(object, true);
+				assertEquals(object, inspect.getString("OBJECT_TYPE"));
+		}
+	}
+}
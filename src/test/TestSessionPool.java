@@ -0,0 +1,146 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.intacct.ws.APISession;
+import com.intacct.ws.APISessionPool;
+import com.intacct.ws.exception.IntacctSDKRuntimeException;
+import com.intacct.ws.util.ConfigConstants;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * APISessionPool against the local MockGateway: the reuse of the released sessions, the new logins after an
+ * expiry or an invalidate, the lease timeout and the change of a password.
+ */
+public class TestSessionPool {
+
+	private final static long HOUR = 60 * 60 * 1000;
+
+	private static MockGateway gateway;
+
+	@BeforeClass
+	public static void start() throws Exception {
+		gateway = new MockGateway();
+		System.setProperty(ConfigConstants.END_POINT_URL, gateway.getEndpoint());
+	}
+
+	@AfterClass
+	public static void stop() {
+		System.clearProperty(ConfigConstants.END_POINT_URL);
+		gateway.stop();
+	}
+
+	@Test
+	public void testLeaseRelease() throws Exception {
+		APISessionPool pool = new APISessionPool("mock", "mock", 2, HOUR, 1000);
+		try {
+			int logins = gateway.getLoginCount();
+			APISession<JSONObject> first = pool.lease("c1", "u1", "p1", null, null);
+			APISession<JSONObject> second = pool.lease("c1", "u1", "p1", null, null);
+			assertTrue(first != second);
+			assertEquals(2, pool.getLeasedCount());
+			// one login for all the sessions of a key
+			assertEquals(logins + 1, gateway.getLoginCount());
+			assertEquals(1, first.read("customer", "1", "*").getJSONArray("READ_RESULT").length());
+
+			pool.release(first);
+			pool.release(second);
+			assertEquals(0, pool.getLeasedCount());
+			assertEquals(2, pool.getIdleCount());
+			// the last released first
+			assertSame(second, pool.lease("c1", "u1", "p1", null, null));
+
+			pool.lease("c2", "u1", "p1", null, null);
+			assertEquals(2, pool.getKeyCount());
+			assertEquals(logins + 2, gateway.getLoginCount());
+			assertEquals(4, pool.getLeaseCount());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testReloginAfterExpiry() throws Exception {
+		APISessionPool pool = new APISessionPool("mock", "mock", 2, 300, 1000);
+		try {
+			int logins = gateway.getLoginCount();
+			pool.release(pool.lease("c1", "u1", "p1", null, null));
+			pool.release(pool.lease("c1", "u1", "p1", null, null));
+			assertEquals(logins + 1, gateway.getLoginCount());
+
+			Thread.sleep(400);
+			pool.release(pool.lease("c1", "u1", "p1", null, null));
+			assertEquals(logins + 2, gateway.getLoginCount());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testInvalidate() throws Exception {
+		APISessionPool pool = new APISessionPool("mock", "mock", 2, HOUR, 1000);
+		try {
+			int logins = gateway.getLoginCount();
+			APISession<JSONObject> session = pool.lease("c1", "u1", "p1", null, null);
+			pool.invalidate(session);
+			assertEquals(0, pool.getIdleCount());
+			APISession<JSONObject> next = pool.lease("c1", "u1", "p1", null, null);
+			assertTrue(next != session);
+			assertEquals(logins + 2, gateway.getLoginCount());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testLeaseTimeout() throws Exception {
+		APISessionPool pool = new APISessionPool("mock", "mock", 1, HOUR, 200);
+		try {
+			APISession<JSONObject> session = pool.lease("c1", "u1", "p1", null, null);
+			long start = System.currentTimeMillis();
+			try {
+				pool.lease("c1", "u1", "p1", null, null);
+				fail("no timeout");
+			} catch (IntacctSDKRuntimeException expected) {
+				assertTrue(expected.getMessage().startsWith("Timeout"));
+			}
+			assertTrue(System.currentTimeMillis() - start >= 200);
+			assertEquals(1, pool.getLeaseWaitCount());
+
+			// the other keys are not blocked
+			pool.release(pool.lease("c2", "u1", "p1", null, null));
+			pool.release(session);
+			assertSame(session, pool.lease("c1", "u1", "p1", null, null));
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testPasswordChange() throws Exception {
+		APISessionPool pool = new APISessionPool("mock", "mock", 2, HOUR, 1000);
+		try {
+			pool.invalidate(pool.lease("c1", "u1", "old-password", null, null));
+			assertEquals("old-password", gateway.getLastPassword());
+
+			int logins = gateway.getLoginCount();
+			pool.release(pool.lease("c1", "u1", "new-password", null, null));
+			assertEquals(logins + 1, gateway.getLoginCount());
+			assertEquals("new-password", gateway.getLastPassword());
+			assertEquals(1, pool.getKeyCount());
+		} finally {
+			pool.close();
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import org.json.JSONObject;
+import org.json.XML;
+import org.json.XML.DecimalMode;
+import org.junit.Test;
+
+import com.intacct.ws.APIBatch;
+import com.intacct.ws.APISession;
+import com.intacct.ws.util.ConfigConstants;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * XML.stringToValue and its decimal modes: the values of the gateway that look like numbers but are not
+ * (dates, account numbers, codes with leading zeros), the bounds of Long, and in the DOUBLE mode the same
+ * values as the conversion with exceptions it replaced, on generated and random strings.
+ */
+public class TestStringToValue {
+
+	@Test
+	public void testNotNumbers() {
+		for ( DecimalMode mode : DecimalMode.values() ) {
+			for ( String string : new String[] { "", "-", "01/31/2015", "2015-01-31", "2015-01-31T10:00:00", "1099-MISC",
+					"007", "00", "00.5", "-0", "-007", "1.", ".5", "1e5", "1.0E", "1.0E+5", "+1", "0x10", "NaN", "Infinity",
+					"9223372036854775808", "-9223372036854775809", "99999999999999999999" } )
+				assertEquals(mode + " " + string, string, XML.stringToValue(string, mode));
+		}
+	}
+
+	@Test
+	public void testIntegers() {
+		for ( DecimalMode mode : DecimalMode.values() ) {
+			assertEquals(Long.valueOf(0), XML.stringToValue("0", mode));
+			assertEquals(Long.valueOf(-1), XML.stringToValue("-1", mode));
+			assertEquals(Long.valueOf(4000), XML.stringToValue("4000", mode));
+			assertEquals(Long.valueOf(Long.MAX_VALUE), XML.stringToValue("9223372036854775807", mode));
+			assertEquals(Long.valueOf(Long.MIN_VALUE), XML.stringToValue("-9223372036854775808", mode));
+			assertEquals(Boolean.TRUE, XML.stringToValue("TRUE", mode));
+			assertEquals(Boolean.FALSE, XML.stringToValue("false", mode));
+			assertEquals(JSONObject.NULL, XML.stringToValue("null", mode));
+		}
+	}
+
+	@Test
+	public void testDecimalModes() {
+		assertEquals(Double.valueOf(1234.56), XML.stringToValue("1234.56"));
+		assertEquals(Double.valueOf(1234.56), XML.stringToValue("1234.56", DecimalMode.DOUBLE));
+		assertEquals(new BigDecimal("1234.56"), XML.stringToValue("1234.56", DecimalMode.BIG_DECIMAL));
+		assertEquals("1234.56", XML.stringToValue("1234.56", DecimalMode.STRING));
+
+		// a Double would lose the trailing zeros
+		assertEquals("-98.10", XML.stringToValue("-98.10", DecimalMode.DOUBLE));
+		assertEquals(new BigDecimal("-98.10"), XML.stringToValue("-98.10", DecimalMode.BIG_DECIMAL));
+		assertEquals("1.0000000000", XML.stringToValue("1.0000000000", DecimalMode.DOUBLE));
+		assertEquals(new BigDecimal("1.0000000000"), XML.stringToValue("1.0000000000", DecimalMode.BIG_DECIMAL));
+
+		assertEquals(Double.valueOf(1.0E10), XML.stringToValue("1.0E10", DecimalMode.DOUBLE));
+		assertEquals(new BigDecimal("1.0E10"), XML.stringToValue("1.0E10", DecimalMode.BIG_DECIMAL));
+		assertEquals("1.0E-5", XML.stringToValue("1.0E-5", DecimalMode.STRING));
+		assertEquals(Double.valueOf(-0.0), XML.stringToValue("-0.0", DecimalMode.DOUBLE));
+		assertEquals(Double.valueOf(Double.NEGATIVE_INFINITY), XML.stringToValue("-Infinity", DecimalMode.DOUBLE));
+		assertEquals("-Infinity", XML.stringToValue("-Infinity", DecimalMode.BIG_DECIMAL));
+	}
+
+	@Test
+	public void testSameAsBefore() {
+		String[] fixed = { "1.5", "1.0", "0.0", "100.0", "1.0E7", "1000000.0", "12345678.9", "1.23456789E7", "0.001",
+				"1.0E-3", "9.999E-4", "1.5d", " 1.5", "1.5 ", "-NaN", "nul", "False" };
+		for ( String string : fixed )
+			assertSame(string);
+
+		Random random = new Random(3);
+		String alphabet = "0123456789-.E+e aINfitydlrsu";
+		for ( int ix = 0; ix < 200000; ix++ ) {
+			StringBuilder string = new StringBuilder();
+			int length = random.nextInt(12);
+			for ( int c = 0; c < length; c++ )
+				string.append(alphabet.charAt(random.nextInt(ix % 2 == 0 ? 12 : alphabet.length())));
+			assertSame(string.toString());
+		}
+		for ( int ix = 0; ix < 20000; ix++ ) {
+			assertSame(Double.toString(Double.longBitsToDouble(random.nextLong())));
+			assertSame(Long.toString(random.nextLong()));
+			assertSame(Double.toString(random.nextInt(100000) / 100.0));
+		}
+	}
+
+	@Test
+	public void testSessionDecimalMode() throws Exception {
+		MockGateway gateway = new MockGateway();
+		System.setProperty(ConfigConstants.END_POINT_URL, gateway.getEndpoint());
+		try {
+			APISession<JSONObject> session = APISession.getJSONInstance("mock", "mock", "mock", "mock", "mock");
+			assertEquals(DecimalMode.DOUBLE, session.getDecimalMode());
+			assertEquals(Double.valueOf(1234.56), readAmount(session, "AMOUNT"));
+
+			session.setDecimalMode(DecimalMode.BIG_DECIMAL);
+			assertEquals(new BigDecimal("1234.56"), readAmount(session, "AMOUNT"));
+			assertEquals(new BigDecimal("-98.10"), readAmount(session, "TRX_AMOUNT"));
+
+			session.setDecimalMode(DecimalMode.STRING);
+			assertEquals("1234.56", readAmount(session, "AMOUNT"));
+
+			session.setDecimalMode(null);
+			assertEquals(DecimalMode.DOUBLE, session.getDecimalMode());
+		} finally {
+			System.clearProperty(ConfigConstants.END_POINT_URL);
+			gateway.stop();
+		}
+	}
+
+	private static Object readAmount(APISession<JSONObject> session, String field) throws Exception {
+		APIBatch batch = session.newBatch();
+		CompletableFuture<JSONObject> read = batch.read("glentry", "10", "*");
+		batch.execute();
+		return read.get().getJSONArray("READ_RESULT").getJSONObject(0).get(field);
+	}
+
+	private static void assertSame(String string) {
+		assertEquals(string, describe(legacyStringToValue(string)), describe(XML.stringToValue(string, DecimalMode.DOUBLE)));
+	}
+
+	private static String describe(Object value) {
+		return value.getClass().getSimpleName() + ":" + value;
+	}
+
+	/*
+	 * XML.stringToValue before the classifier: Long, then Double on the exception, compared with their text
+	 */
+	private static Object legacyStringToValue(String string) {
+		if ( "true".equalsIgnoreCase(string) )
+			return Boolean.TRUE;
+		if ( "false".equalsIgnoreCase(string) )
+			return Boolean.FALSE;
+		if ( "null".equalsIgnoreCase(string) )
+			return JSONObject.NULL;
+		try {
+			char initial = string.charAt(0);
+			if ( initial == '-' || (initial >= '0' && initial <= '9') ) {
+				Long value = Long.valueOf(string);
+				if ( value.toString().equals(string) )
+					return value;
+			}
+		} catch (Exception ignore) {
+			try {
+				Double value = Double.valueOf(string);
+				if ( value.toString().equals(string) )
+					return value;
+			} catch (Exception ignoreAlso) {
+			}
+		}
+		return string;
+	}
+}
@@ -0,0 +1,126 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.json.XML;
+import org.json.XMLTokener;
+import org.junit.Test;
+
+/**
+ * Copyright (c) 2015, Intacct OpenSource Initiative
+ * All rights reserved.
+ *
+ *
+ * XMLTokener scans the content, names and CDATA sections in bulk over its char window. XML.toJSONObject is
+ * checked on fixed documents against the results of the char by char tokener it replaced (the keys in the
+ * order of the document), and the stream of tokens with their positions on random documents against the
+ * tokener fed by a Reader giving a few chars per read.
+ */
+public class TestXMLTokener {
+
+	// the document, then its JSON form (or the error)
+	private final static String[] CASES = {
+			"<a>text</a>", "{\"a\":\"text\"}",
+			"<a x='1' y=\"2\"><b>1.5</b><b>007</b><c/></a>", "{\"a\":{\"x\":1,\"y\":2,\"b\":[1.5,\"007\"],\"c\":\"\"}}",
+			"<a>&amp;&lt;&gt;&quot;&apos;&#65;&foo;</a>", "{\"a\":\"&<>\\\"'&#65;&foo;\"}",
+			"<a><![CDATA[<z>&amp;]]></a>", "{\"a\":\"<z>&amp;\"}",
+			"<!-- c --><?p q?><a>x</a>", "{\"a\":\"x\"}",
+			"<a>x</b>", "ERR Mismatched a and b at 7 [character 8 line 1]",
+			"<a", "ERR Misshaped element at 4 [character 5 line 1]",
+			"<a>&amp</a>", "ERR Missing ';' in XML entity: &amp at 8 [character 9 line 1]",
+			"<a x='1'", "ERR Misshaped element at 9 [character 10 line 1]",
+			"<a>one <b>two</b> three</a>", "{\"a\":{\"content\":[\"one\",\"three\"],\"b\":\"two\"}}",
+			"<a\n  x = 'q'\r\n>\n  v \n</a>", "{\"a\":{\"x\":\"q\",\"content\":\"v\"}}",
+			"<d y=\"a&amp;b\" z='q'>\u00e9</d>", "{\"d\":{\"y\":\"a&b\",\"z\":\"q\",\"content\":\"\u00e9\"}}",
+			"<a>]]></a>", "{\"a\":\"]]>\"}",
+			"<a><b>true</b><c>null</c><e>-98.10</e><f>1099-MISC</f></a>", "{\"a\":{\"b\":true,\"c\":null,\"e\":\"-98.10\",\"f\":\"1099-MISC\"}}",
+	};
+
+	private final static String[] PARTS = { "<a>", "</a>", "<b x='1'>", "</b>", "<c/>", " ", "\n", "\r\n", "text", "1.5",
+			"&amp;", "&LT;", "&gt;", "&quot;", "&apos;", "&foo;", "&#65;", "&", ";", "<![CDATA[z]]>", "<!-- c -->",
+			"<?p q?>", "\"", "'", "=", "<d y=\"a&amp;b\" z='q'>", "</d>", "\u0000", "]]>", "\u00e9" };
+
+	@Test
+	public void testFixedDocuments() {
+		for ( int ix = 0; ix < CASES.length; ix += 2 ) {
+			String json;
+			try {
+				json = XML.toJSONObject(CASES[ix]).toString();
+			} catch (Exception ex) {
+				json = "ERR " + ex.getMessage();
+			}
+			assertEquals(CASES[ix], CASES[ix + 1], json);
+		}
+	}
+
+	@Test
+	public void testRandomDocuments() {
+		Random random = new Random(7);
+		for ( int ix = 0; ix < 30000; ix++ ) {
+			StringBuilder document = new StringBuilder();
+			int parts = random.nextInt(12);
+			for ( int p = 0; p < parts; p++ )
+				document.append(PARTS[random.nextInt(PARTS.length)]);
+			assertSameTokens(document.toString());
+		}
+	}
+
+	@Test
+	public void testLargeDocument() {
+		// larger than the window of a Reader
+		StringBuilder document = new StringBuilder("<response><data listtype=\"glentry\" count=\"3000\">");
+		for ( int ix = 0; ix < 3000; ix++ )
+			document.append("\r\n<glentry><RECORDNO>").append(ix).append("</RECORDNO><DESCRIPTION>entry &amp; &lt;co&gt; ")
+					.append(ix).append("</DESCRIPTION><MEMO><![CDATA[<m>").append(ix).append("]]></MEMO><AMOUNT>-98.10</AMOUNT></glentry>");
+		String text = document.append("</data></response>").toString();
+		String expected = XML.toJSONObject(text).toString();
+		for ( int chars : new int[] { 1, 5, 8192 } )
+			assertEquals(expected, XML.toJSONObject(TestJSONTokener.chunked(text, chars)).toString());
+		assertEquals(3000, XML.toJSONObject(text).getJSONObject("response").getJSONObject("data").getJSONArray("glentry").length());
+	}
+
+	@Test
+	public void testCDATA() {
+		String[] cases = { "abc]]>x", "abc at 7 [character 8 line 1]x", "a]]b]]>y", "a]]b at 8 [character 9 line 1]y",
+				"ab\ncd]]", "ERR Unclosed CDATA at 8 [character 5 line 2]", "a\u0000b]]>c", "ERR Unclosed CDATA at 2 [character 3 line 1]" };
+		for ( int ix = 0; ix < cases.length; ix += 2 ) {
+			assertEquals(cases[ix], cases[ix + 1], cdata(new XMLTokener(cases[ix])));
+			for ( int chars : new int[] { 1, 3 } )
+				assertEquals(cases[ix], cases[ix + 1], cdata(new XMLTokener(TestJSONTokener.chunked(cases[ix], chars))));
+		}
+	}
+
+	private static void assertSameTokens(String document) {
+		String expected = tokens(new XMLTokener(document));
+		for ( int chars : new int[] { 1, 2, 5, 8192 } )
+			assertEquals(document, expected, tokens(new XMLTokener(TestJSONTokener.chunked(document, chars))));
+	}
+
+	/*
+	 * the tokens of the document with the position after each, the next method in turn
+	 */
+	private static String tokens(XMLTokener tokener) {
+		StringBuilder tokens = new StringBuilder();
+		try {
+			for ( int ix = 0; ix < 200; ix++ ) {
+				Object token = ix % 3 == 0 ? tokener.nextContent() : ix % 3 == 1 ? tokener.nextToken() : tokener.nextEntity('&');
+				tokens.append(token).append('/').append(tokener).append(';');
+				if ( token == null )
+					break;
+			}
+		} catch (Exception ex) {
+			tokens.append("ERR ").append(ex.getMessage());
+		}
+		return tokens.toString();
+	}
+
+	private static String cdata(XMLTokener tokener) {
+		try {
+			return tokener.nextCDATA() + tokener + tokener.next();
+		} catch (Exception ex) {
+			return "ERR " + ex.getMessage();
+		}
+	}
+}